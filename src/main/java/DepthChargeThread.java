@@ -1,15 +1,20 @@
-import java.util.List;
-
+import org.ggp.base.util.propnet.compiled.TranspositionTable;
 import org.ggp.base.util.statemachine.MachineState;
-import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
 
 
 public class DepthChargeThread implements Runnable {
 
-	public DepthChargeThread(Role role, PropNetImplementation gameMachine, MachineState currState, long timeout, long timeBuffer, int maxDepth, double goalWeight, double moveWeight) {
+	public DepthChargeThread(Role role, CompiledPropNetStateMachine gameMachine, MachineState currState, long timeout, long timeBuffer, int maxDepth, double goalWeight, double moveWeight) {
+		this(role, gameMachine, currState, timeout, timeBuffer, maxDepth, goalWeight, moveWeight, null, 0);
+	}
+
+	// Also adds the result of the charge to the given table, under the hash
+	// of the state it started from
+	public DepthChargeThread(Role role, CompiledPropNetStateMachine gameMachine, MachineState currState, long timeout, long timeBuffer, int maxDepth, double goalWeight, double moveWeight, TranspositionTable table, long hash) {
 		thisRole = role;
-		thisMachine = gameMachine; //new PropNetImplementation((PropNetImplementation) gameMachine);
+		thisMachine = gameMachine;
 		gameMachine.setBaseProps(currState);
 		value = 0;
 		thisTimeout = timeout;
@@ -17,7 +22,8 @@ public class DepthChargeThread implements Runnable {
 		depth = maxDepth;
 		gW = goalWeight;
 		mW = moveWeight;
-
+		thisTable = table;
+		thisHash = hash;
 	}
 
 	@Override
@@ -26,8 +32,7 @@ public class DepthChargeThread implements Runnable {
 			int turn_count = 0;
 			while (!thisMachine.isTerminal()) {
 				turn_count++;
-				List<Move> simulatedMoves = thisMachine.getRandomJointMove();
-				thisMachine.toNextState(simulatedMoves);
+				thisMachine.toRandomNextState();
 				if ( checkTimeout() || ( turn_count > depth ) ) {
 					break;
 				}
@@ -37,7 +42,14 @@ public class DepthChargeThread implements Runnable {
 				value = thisMachine.getGoal(thisRole);
 			}
 			else { // Heuristic
-				value = ( thisMachine.getGoal(thisRole)*gW ) + ( thisMachine.getLegalMoves(thisRole).size()*mW );
+				value = ( thisMachine.getGoal(thisRole)*gW ) + ( thisMachine.getNumLegalMoves(thisRole)*mW );
+			}
+
+			// Charges cut short by the clock are not worth remembering
+			if (thisTable != null && !checkTimeout()) {
+				int[] values = new int[thisMachine.getRoles().size()];
+				values[thisMachine.getRoles().indexOf(thisRole)] = (int) Math.max(0, Math.min(100, Math.round(value)));
+				thisTable.add(thisHash, values);
 			}
 		}
 		catch (Exception e) {
@@ -53,11 +65,13 @@ public class DepthChargeThread implements Runnable {
 	}
 
 	private Role thisRole;
-	private PropNetImplementation thisMachine;
+	private CompiledPropNetStateMachine thisMachine;
 	private double value;
 	private long thisTimeout;
 	private long thisBuffer;
 	private int depth;
 	private double gW;
 	private double mW;
-}
\ No newline at end of file
+	private TranspositionTable thisTable;
+	private long thisHash;
+}
\ No newline at end of file
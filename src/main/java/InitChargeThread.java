@@ -4,14 +4,15 @@ import java.util.Random;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
 
 
 // Like depth charge thread, but this one also gets a bunch of stats that are useful in metagaming
 public class InitChargeThread implements Runnable {
 
-	public InitChargeThread(Role role, PropNetImplementation gameMachine, MachineState currState, long timeout, long timeBuffer) {
+	public InitChargeThread(Role role, CompiledPropNetStateMachine gameMachine, MachineState currState, long timeout, long timeBuffer) {
 		thisRole = role;
-		thisMachine = gameMachine; //new PropNetImplementation((PropNetImplementation) gameMachine);
+		thisMachine = gameMachine;
 		gameMachine.setBaseProps(currState);
 		value = 0;
 		cumVal = 0;
@@ -81,7 +82,7 @@ public class InitChargeThread implements Runnable {
 	}
 
 	private Role thisRole;
-	private PropNetImplementation thisMachine;
+	private CompiledPropNetStateMachine thisMachine;
 	private double value;
 	private long thisTimeout;
 	private long thisBuffer;
@@ -90,4 +91,4 @@ public class InitChargeThread implements Runnable {
 	private long gameTime;
 	private boolean finish;
 	private int cumVal;
-}
\ No newline at end of file
+}
\ No newline at end of file
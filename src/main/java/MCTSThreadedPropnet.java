@@ -1,10 +1,14 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.player.gamer.exception.GamePreviewException;
 import org.ggp.base.player.gamer.statemachine.StateMachineGamer;
 import org.ggp.base.util.game.Game;
+import org.ggp.base.util.propnet.compiled.CompiledPropNet;
+import org.ggp.base.util.propnet.compiled.LatchAnalysis;
+import org.ggp.base.util.propnet.compiled.TranspositionTable;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -13,8 +17,9 @@ import org.ggp.base.util.statemachine.cache.CachedStateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
-import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
-import org.python.modules.math;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.PropNetMachineState;
+import org.ggp.base.util.statemachine.implementation.propnet.StagedPropNetStateMachine;
 
 
 public class MCTSThreadedPropnet extends StateMachineGamer {
@@ -28,6 +33,10 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 	// Time buffer
 	private int timeBuffer;
 
+	// Start clock kept back for latch analysis and calibration once the
+	// propnet is ready
+	private int setUpBuffer;
+
 	// Count for number of cpu cycles to run depth threads
 	private int pd_count;
 
@@ -36,15 +45,21 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 	private double goal_heuristic_weight;
 	private double mobility_heuristic_weight;
 	private double opp_mob_heuristic_weight;
-	private PropNetImplementation propnetStateMachine;
-	private List<PropNetImplementation> threadNets;
+	// Serves moves from a prover until the propnet is built and verified
+	private StagedPropNetStateMachine stagedMachine;
+	private CompiledPropNetStateMachine propnetStateMachine;
+	private List<CompiledPropNetStateMachine> threadNets;
+	// Depth charge results by state, kept across turns and added to by
+	// every depth charge thread
+	private TranspositionTable transpositions;
 	private int charge_depth;
 	private double mW;
 	private double gW;
 
 	@Override
 	public StateMachine getInitialStateMachine() {
-		return new CachedStateMachine(new ProverStateMachine());
+		stagedMachine = new StagedPropNetStateMachine();
+		return new CachedStateMachine(stagedMachine);
 	}
 
 	@Override
@@ -53,6 +68,7 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 			GoalDefinitionException {
 		// Initializes instance variables
 		timeBuffer = 1000;
+		setUpBuffer = 3000;
 		cweight = 15;
 		depth_max = 100;
 		charge_depth = 0;
@@ -62,35 +78,14 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 		gW = 1;
 		mW = 1;
 
-		// Create thread propnets
-		threadNets = new ArrayList<PropNetImplementation>();
-		List<Thread> runthreads = new ArrayList<Thread>();
-		List<PropNetThreadGen> ptthreads = new ArrayList<PropNetThreadGen>();
-
-		for (int i = 0; i < num_cpus; i++) {
-			PropNetThreadGen pt = new PropNetThreadGen(getMatch().getGame().getRules(), timeout);
-			Thread t = new Thread( pt );
-			t.start();
-			runthreads.add(t);
-			ptthreads.add(pt);
-			//dct.run();
-		}
-
-		for (int i=0; i<num_cpus; i++) {
-			try {
-				runthreads.get(i).join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
-
-		for (int i=0; i<num_cpus; i++) {
-			threadNets.add(ptthreads.get(i).getNet());
+		// The propnet is built in the background; wait for it as long as the
+		// start clock allows, and play with the prover until it is ready
+		CompiledPropNet net = stagedMachine.awaitNet(timeout - timeBuffer - setUpBuffer);
+		if (net == null) {
+			System.out.println("PROPNET NOT READY");
+			return;
 		}
-
-		// Create a propnet
-		propnetStateMachine = threadNets.get(0);
-		System.out.println("PROPNET SIZE: " + propnetStateMachine.getNumComponents());
+		setUpPropNet(net, true);
 
 		MachineState initState = propnetStateMachine.getInitialState();
 		//propnetStateMachine.renderToFile("ASD");
@@ -143,6 +138,12 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 				}
 			}
 		}
+		if (reward_count == 0) {
+			// No calibration charge finished in time, so keep the defaults
+			charge_depth = 13;
+			System.out.println("NO CALIBRATION CHARGES");
+			return;
+		}
 		cweight = 0.8*(rewards / reward_count) / Math.sqrt(Math.log(turn_steps / step_count));
 		System.out.println(cweight);
 		System.out.println(rewards);
@@ -164,7 +165,7 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 			charge_depth = 13;
 		}
 		else {
-			charge_depth = (int) (math.floor( charge_depth / 12 ) * 12) + 1;
+			charge_depth = (int) (Math.floor( charge_depth / 12 ) * 12) + 1;
 		}
 
 		double totWeight = cumulative_rewards + turn_steps;
@@ -175,6 +176,26 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 		System.out.println(charge_depth);
 	}
 
+	private void setUpPropNet(CompiledPropNet net, boolean findLatches) {
+		// Latches are found once and shared, like the network itself. Finding
+		// them plays 256 random games of up to 1000 plies each, which only
+		// the start clock has time for
+		LatchAnalysis latches = findLatches ? LatchAnalysis.analyze(net, new Random()) : null;
+
+		// The search thread gets a machine of its own, so it never touches
+		// the value buffers the depth charge threads are using
+		propnetStateMachine = new CompiledPropNetStateMachine(net, latches);
+
+		// Each thread only gets its own value buffers, copied from the
+		// search machine instead of evaluating the network again
+		threadNets = new ArrayList<CompiledPropNetStateMachine>();
+		for (int i=0; i<num_cpus; i++) {
+			threadNets.add(new CompiledPropNetStateMachine(propnetStateMachine));
+		}
+		System.out.println("PROPNET SIZE: " + net.getNumComponents());
+		transpositions = new TranspositionTable(net.getRoles().size(), 1 << 18);
+	}
+
 	private MCTSNode select(MCTSNode node, int depth) {
 		depth++;
 		if ( node.getTerminal() ) {
@@ -352,8 +373,25 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 		if (propnetStateMachine.isTerminal(node.getState())) {
 			return propnetStateMachine.findReward(getRole(), node.getState());
 		}
+		// The charges are added to the table, so a state reached before
+		// through another move order, or on an earlier turn, is valued by
+		// all of its charges so far rather than just these
+		MachineState state = node.getState();
+		TranspositionTable table = null;
+		long hash = 0;
+		if (state instanceof PropNetMachineState) {
+			table = transpositions;
+			hash = ((PropNetMachineState) state).getZobristHash();
+		}
 		num_depth_charges = num_depth_charges + pd_count*num_cpus;
-		return (int) monteCarlo(node.getRole(), node.getState(), timeout);
+		int value = (int) monteCarlo(node.getRole(), state, timeout, table, hash);
+		if (table != null && !checkTimeout(timeout)) {
+			double mean = table.getMeanValue(hash, propnetStateMachine.getRoles().indexOf(getRole()));
+			if (mean >= 0) {
+				return (int) mean;
+			}
+		}
+		return value;
 	}
 
 	private void backPropagateKnown(MCTSNode node, int score) {
@@ -471,6 +509,17 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 	public Move stateMachineSelectMove(long timeout)
 			throws TransitionDefinitionException, MoveDefinitionException,
 			GoalDefinitionException {
+		if (propnetStateMachine == null) {
+			CompiledPropNet net = stagedMachine.getNet();
+			if (net == null) {
+				return selectMoveWithProver(timeout);
+			}
+			// The propnet was ready too late to calibrate the depth charges,
+			// so use the shortest depth the calibration would pick, and do
+			// without latches rather than analyze them on the play clock
+			setUpPropNet(net, false);
+			charge_depth = 13;
+		}
 		long start = System.currentTimeMillis();
 
 		MachineState state = getCurrentState();
@@ -582,13 +631,48 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 		return bestAction;
 	}
 
+	// Plain Monte Carlo search on the prover, for turns played before the
+	// propnet is ready
+	private Move selectMoveWithProver(long timeout)
+			throws TransitionDefinitionException, MoveDefinitionException,
+			GoalDefinitionException {
+		long start = System.currentTimeMillis();
+		StateMachine stateMachine = getStateMachine();
+		MachineState state = getCurrentState();
+		Role role = getRole();
+		List<Move> actions = stateMachine.getLegalMoves(state, role);
+		Move bestAction = actions.get(0);
+
+		if (actions.size() > 1) {
+			long[] totals = new long[actions.size()];
+			int[] counts = new int[actions.size()];
+			int[] depth = new int[1];
+			for (int i = 0; !checkTimeout(timeout); i = (i + 1) % actions.size()) {
+				MachineState next = stateMachine.getRandomNextState(state, role, actions.get(i));
+				MachineState terminal = stateMachine.performDepthCharge(next, depth);
+				totals[i] += stateMachine.getGoal(terminal, role);
+				counts[i]++;
+			}
+			double bestValue = -1;
+			for (int i = 0; i < actions.size(); i++) {
+				if (counts[i] > 0 && (double) totals[i] / counts[i] > bestValue) {
+					bestValue = (double) totals[i] / counts[i];
+					bestAction = actions.get(i);
+				}
+			}
+		}
+
+		notifyObservers(new GamerSelectedMoveEvent(actions, bestAction, System.currentTimeMillis() - start));
+		return bestAction;
+	}
+
 	private boolean checkTimeout(long timeout) {
 		return (timeout - System.currentTimeMillis() < timeBuffer);
 	}
 
 	private double cweight;
 
-	private double monteCarlo(Role role, MachineState state, long timeout) throws GoalDefinitionException {
+	private double monteCarlo(Role role, MachineState state, long timeout, TranspositionTable table, long hash) throws GoalDefinitionException {
 		try {
 			//StateMachine stateMachine = getStateMachine();
 
@@ -601,7 +685,7 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 
 				// Only start as many threads as there are cpus
 				for (int j = 0; j < num_cpus; j++) {
-					DepthChargeThread dct = new DepthChargeThread(role, threadNets.get(j), state, timeout, timeBuffer, charge_depth, gW, mW);
+					DepthChargeThread dct = new DepthChargeThread(role, threadNets.get(j), state, timeout, timeBuffer, charge_depth, gW, mW, table, hash);
 					Thread t = new Thread( dct );
 					t.start();
 					runthreads.add(t);
@@ -633,14 +717,12 @@ public class MCTSThreadedPropnet extends StateMachineGamer {
 
 	@Override
 	public void stateMachineStop() {
-		// TODO Auto-generated method stub
-
+		stagedMachine.stopBuilding();
 	}
 
 	@Override
 	public void stateMachineAbort() {
-		// TODO Auto-generated method stub
-
+		stagedMachine.stopBuilding();
 	}
 
 	@Override
@@ -13,21 +13,31 @@ import org.ggp.base.util.statemachine.cache.CachedStateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
-import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachine;
+import org.ggp.base.util.statemachine.implementation.propnet.StagedPropNetStateMachine;
 
 
 public class MinimaxGamer extends StateMachineGamer {
 
+	// Serves moves from a prover until the propnet is built and verified
+	private StagedPropNetStateMachine stagedMachine;
+	// Searches the propnet with makeMove/unmakeMove once it is ready
+	private CompiledPropNetStateMachine searchMachine;
+
 	@Override
 	public StateMachine getInitialStateMachine() {
-		return new CachedStateMachine(new ProverStateMachine());
+		stagedMachine = new StagedPropNetStateMachine();
+		searchMachine = null;
+		return new CachedStateMachine(stagedMachine);
 	}
 
 	@Override
 	public void stateMachineMetaGame(long timeout)
 			throws TransitionDefinitionException, MoveDefinitionException,
 			GoalDefinitionException {
-		// Minimax gamer does no metagaming at the beginning of the match.
+		// Minimax gamer does no metagaming at the beginning of the match,
+		// so it spends the start clock waiting for the propnet.
+		stagedMachine.awaitNet(timeout - 1000);
 	}
 
 	@Override
@@ -47,11 +57,18 @@ public class MinimaxGamer extends StateMachineGamer {
 		MachineState state = getCurrentState();
 		StateMachine stateMachine = getStateMachine();
 
+		if (searchMachine == null && stagedMachine.getNet() != null) {
+			searchMachine = new CompiledPropNetStateMachine(stagedMachine.getNet());
+		}
+		if (searchMachine != null) {
+			searchMachine.setBaseProps(state);
+		}
+
 		List<Move> actions = stateMachine.getLegalMoves(state, role);
 		Move action = actions.get(0);
 		int score = 0;
 		for (int i = 0; i < actions.size(); i++) {
-			int result = minScore(role, actions.get(i), state);
+			int result = searchMachine != null ? minScore(role, actions.get(i)) : minScore(role, actions.get(i), state);
 			if (result > score) {
 				score = result;
 				action = actions.get(i);
@@ -125,16 +142,61 @@ public class MinimaxGamer extends StateMachineGamer {
 		}
 	}
 
+	// The same search on the propnet, playing moves on the loaded state and
+	// taking them back, instead of creating a state for every node
+	private int minScore(Role role, Move action) throws TransitionDefinitionException {
+		List<Role> roles = searchMachine.getRoles();
+		ArrayList<Role> opponents = new ArrayList<Role>(roles);
+
+		// Only works for one opponent
+		opponents.remove(getRole());
+		Role opponent = opponents.get(0);
+
+		List<Move> actions = searchMachine.getLegalMoves(opponent);
+		int score = 100;
+		for (int i = 0; i < actions.size(); i++) {
+			List<Move> moves = new ArrayList<Move>();
+			if (role.equals(roles.get(0))) {
+				moves.add(action);
+				moves.add(actions.get(i));
+			} else {
+				moves.add(actions.get(i));
+				moves.add(action);
+			}
+			searchMachine.makeMove(moves);
+			int result = maxScore(role);
+			searchMachine.unmakeMove();
+			if (result < score) {
+				score = result;
+			}
+		}
+
+		return score;
+	}
+
+	private int maxScore(Role role) throws TransitionDefinitionException {
+		if (searchMachine.isTerminal()) {
+			return searchMachine.getGoal(role);
+		}
+		List<Move> actions = searchMachine.getLegalMoves(role);
+		int score = 0;
+		for (int i = 0; i < actions.size(); i++) {
+			int result = minScore(role, actions.get(i));
+			if (result > score) {
+				score = result;
+			}
+		}
+		return score;
+	}
+
 	@Override
 	public void stateMachineStop() {
-		// TODO Auto-generated method stub
-
+		stagedMachine.stopBuilding();
 	}
 
 	@Override
 	public void stateMachineAbort() {
-		// TODO Auto-generated method stub
-
+		stagedMachine.stopBuilding();
 	}
 
 	@Override
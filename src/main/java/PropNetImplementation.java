@@ -1,7 +1,11 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -14,9 +18,15 @@ import org.ggp.base.util.gdl.grammar.GdlRelation;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.architecture.components.Transition;
 import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.optimizer.PropNetOptimizer;
+import org.ggp.base.util.statemachine.HashedMachineState;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -32,7 +42,12 @@ public class PropNetImplementation extends StateMachine {
     /** The underlying proposition network  */
     private PropNet propNet;
     /** The topological ordering of the propositions */
-    private List<Proposition> ordering;
+    private Proposition[] ordering;
+
+    /** Every component, its index, and its index in the ordering or -1 */
+    private Component[] components;
+    private Map<Component, Integer> componentIndices;
+    private int[] orderIndices;
     /** The player roles */
     private List<Role> roles;
 
@@ -49,6 +64,21 @@ public class PropNetImplementation extends StateMachine {
     /** Maps roles to moves */
     private Map<Role, List<Move>> roleMoveMap;
 
+    /** Ordering propositions that the terminal, goal and base propositions depend on */
+    private BitSet terminalCone;
+    private BitSet goalCone;
+    private BitSet nextCone;
+    /** Scratch set for the part of updateOrder being propagated */
+    private BitSet partialOrder;
+
+    /** Maps roles to their goal propositions, highest value first, and their values */
+    private Map<Role, Proposition[]> goalsByValue;
+    private Map<Role, int[]> goalValues;
+
+    /** Zobrist keys of the base propositions, and the hash of the current state */
+    private Map<GdlSentence, Long> zobristKeys;
+    private long zobristHash;
+
     private MachineState initState;
 
     private boolean maps;
@@ -56,29 +86,130 @@ public class PropNetImplementation extends StateMachine {
     public PropNetImplementation() {
     	this.propNet = null;
     	this.ordering = null;
+    	this.components = null;
+    	this.componentIndices = null;
+    	this.orderIndices = null;
     	this.roles = null;
     	this.updateOrder = null;
     	this.updateOrderL = null;
     	this.baseBitMap = null;
     	this.inputBitMap = null;
     	this.roleMoveMap = null;
+    	this.terminalCone = null;
+    	this.goalCone = null;
+    	this.nextCone = null;
+    	this.partialOrder = null;
+    	this.goalsByValue = null;
+    	this.goalValues = null;
+    	this.zobristKeys = null;
+    	this.zobristHash = 0;
     	this.initState = null;
     	this.maps = false;
     }
 
+    /**
+     * Creates a machine with the same state as another, over its own copy of
+     * the network. Propositions hold their values themselves, so two machines
+     * sharing components would overwrite each other's values; the copy gets
+     * new components with the same values and links. What only depends on
+     * the structure of the network, such as the dependency maps and query
+     * cones, is shared.
+     *
+     * Copying takes a pass over the whole network. For many rollout threads,
+     * CompiledPropNetStateMachine keeps values in arrays and copies faster.
+     */
     public PropNetImplementation( PropNetImplementation other ) {
-    	this.propNet = new PropNet( other.propNet );
-    	this.ordering = other.ordering;
+    	Map<Component, Component> copies = copyComponents(other.propNet);
+    	this.propNet = other.propNet == null ? null : new PropNet( other.roles, new HashSet<Component>(copies.values()) );
+    	if (other.components != null && other.components.length > 0 && other.components[0].isFrozen()) {
+    		this.propNet.freeze();
+    	}
+    	this.ordering = other.ordering == null ? null : new Proposition[other.ordering.length];
+    	for (int i = 0; ordering != null && i < ordering.length; i++) {
+    		ordering[i] = (Proposition) copies.get(other.ordering[i]);
+    	}
+    	this.components = other.components == null ? null : new Component[other.components.length];
+    	this.componentIndices = other.componentIndices == null ? null : new IdentityHashMap<Component, Integer>();
+    	for (int c = 0; components != null && c < components.length; c++) {
+    		components[c] = copies.get(other.components[c]);
+    		componentIndices.put(components[c], c);
+    	}
+    	this.orderIndices = other.orderIndices;
     	this.roles = other.roles;
-    	this.updateOrder = other.updateOrder;
-    	this.updateOrderL = other.updateOrderL;
+    	this.updateOrder = other.updateOrder == null ? null : (BitSet) other.updateOrder.clone();
+    	this.updateOrderL = other.updateOrderL == null ? null : (BitSet) other.updateOrderL.clone();
     	this.baseBitMap = other.baseBitMap;
     	this.inputBitMap = other.inputBitMap;
     	this.roleMoveMap = other.roleMoveMap;
+    	this.terminalCone = other.terminalCone;
+    	this.goalCone = other.goalCone;
+    	this.nextCone = other.nextCone;
+    	this.partialOrder = new BitSet();
+    	this.goalsByValue = null;
+    	if (other.goalsByValue != null) {
+    		goalsByValue = new HashMap<Role, Proposition[]>();
+    		for (Map.Entry<Role, Proposition[]> e : other.goalsByValue.entrySet()) {
+    			Proposition[] goals = new Proposition[e.getValue().length];
+    			for (int i = 0; i < goals.length; i++) {
+    				goals[i] = (Proposition) copies.get(e.getValue()[i]);
+    			}
+    			goalsByValue.put(e.getKey(), goals);
+    		}
+    	}
+    	this.goalValues = other.goalValues;
+    	this.zobristKeys = other.zobristKeys;
+    	this.zobristHash = other.zobristHash;
     	this.initState = other.initState;
     	this.maps = other.maps;
     }
 
+    /*
+     * Makes a new component for every component of the network, with the
+     * same type, name, value and links, and maps each to its copy.
+     */
+    private static Map<Component, Component> copyComponents(PropNet propNet)
+    {
+    	Map<Component, Component> copies = new IdentityHashMap<Component, Component>();
+    	if (propNet == null) {
+    		return copies;
+    	}
+    	for (Component c : propNet.getComponents()) {
+    		Component copy;
+    		if (c instanceof Proposition) {
+    			Proposition p = new Proposition(((Proposition) c).getName());
+    			p.setValue(c.getValue());
+    			p.setLegal(c.getLegal());
+    			copy = p;
+    		}
+    		else if (c instanceof And) {
+    			copy = new And();
+    		}
+    		else if (c instanceof Or) {
+    			copy = new Or();
+    		}
+    		else if (c instanceof Not) {
+    			copy = new Not();
+    		}
+    		else if (c instanceof Transition) {
+    			copy = new Transition();
+    		}
+    		else {
+    			copy = new Constant(c.getValue());
+    		}
+    		copies.put(c, copy);
+    	}
+    	for (Component c : propNet.getComponents()) {
+    		Component copy = copies.get(c);
+    		for (Component input : c.getInputs()) {
+    			copy.addInput(copies.get(input));
+    		}
+    		for (Component output : c.getOutputs()) {
+    			copy.addOutput(copies.get(output));
+    		}
+    	}
+    	return copies;
+    }
+
 	private Boolean checkTimeout(long timeout, long buffer) {
 		return (timeout - System.currentTimeMillis() < buffer);
 	}
@@ -87,12 +218,23 @@ public class PropNetImplementation extends StateMachine {
 	public void initialize(List<Gdl> description) {
     	this.propNet = null;
     	this.ordering = null;
+    	this.components = null;
+    	this.componentIndices = null;
+    	this.orderIndices = null;
     	this.roles = null;
     	this.updateOrder = null;
     	this.updateOrderL = null;
     	this.baseBitMap = null;
     	this.inputBitMap = null;
     	this.roleMoveMap = null;
+    	this.terminalCone = null;
+    	this.goalCone = null;
+    	this.nextCone = null;
+    	this.partialOrder = null;
+    	this.goalsByValue = null;
+    	this.goalValues = null;
+    	this.zobristKeys = null;
+    	this.zobristHash = 0;
     	this.initState = null;
     	this.maps = false;
 	}
@@ -112,35 +254,25 @@ public class PropNetImplementation extends StateMachine {
 
         	System.out.println("CREATING PROPNET: ");
             propNet = OptimizingPropNetFactory.create(description);
+            PropNetOptimizer.createDefault().optimize(propNet);
+            propNet.compactNames();
+            propNet.freeze();
+            System.out.println(propNet.getStatistics());
             roles = propNet.getRoles();
             int orderSize = propNet.getPropositions().size() - propNet.getBasePropositions().size() - propNet.getInputPropositions().size() - 1;
             updateOrder = new BitSet(orderSize);
             updateOrderL = new BitSet(orderSize);
+            assignZobristKeys();
         	System.out.println("ORDERING: ");
-            //List<Proposition> otherOrder = getOrdering();
-            ordering = getOrderingObsolete();
+            ordering = getOrderingLinear();
             solveInitialState();
 
             if (checkTimeout( timeout, buffer )) {
             	return;
             }
 
-            //for (Proposition p : ordering) {
-            //	if (!otherOrder.contains(p)) {
-            //		System.out.println(p);
-            //	}
-            //}
-
-        	//ordering = getOrdering();
-            System.out.println("BASE MAP: ");
-            getBaseBitMap();
-
-            if (checkTimeout( timeout, buffer )) {
-            	return;
-            }
-
-        	System.out.println("INPUT MAP: ");
-            getInputBitMap();
+            System.out.println("BASE AND INPUT MAPS: ");
+            getDependencyMaps();
 
             if (checkTimeout( timeout, buffer )) {
             	return;
@@ -153,6 +285,10 @@ public class PropNetImplementation extends StateMachine {
             	return;
             }
 
+        	System.out.println("QUERY CONES: ");
+            getQueryCones();
+            sortGoals();
+
             initializeLegalCheck();
 
             this.maps = true;
@@ -190,8 +326,8 @@ public class PropNetImplementation extends StateMachine {
      * Does not require reset.
      */
     public boolean isTerminal() {
-    	// propagate
-    	propagatePropNet();
+    	// Only the terminal network needs to be up to date
+    	propagatePropNet(terminalCone);
 
     	Proposition termProp = propNet.getTerminalProposition();
     	return termProp.getValue();
@@ -218,8 +354,20 @@ public class PropNetImplementation extends StateMachine {
      * Computes the goal for a role in the currently loaded state.
      */
     public int getGoal(Role role) {
-    	// propagate
-    	propagatePropNet();
+    	// Only the goal network needs to be up to date
+    	propagatePropNet(goalCone);
+
+    	// The highest goal comes first, so the first true one is the answer
+    	if (goalsByValue != null) {
+    		Proposition[] goals = goalsByValue.get(role);
+    		int[] values = goalValues.get(role);
+    		for (int i = 0; i < goals.length; i++) {
+    			if (goals[i].getValue()) {
+    				return values[i];
+    			}
+    		}
+    		return 0;
+    	}
 
     	// Search for a true goal proposition
     	for (Proposition gp : propNet.getGoalPropositions().get(role)) {
@@ -364,7 +512,7 @@ public class PropNetImplementation extends StateMachine {
 	    	// Only update the propositions that need to be updated
 	    	for (int i = updateOrderL.nextSetBit(0); i >= 0; i = updateOrderL.nextSetBit(i+1)) {
 	    		// operate on index i here
-	    		ordering.get(i).setLegal(ordering.get(i).getSingleInput().getLegal());
+	    		ordering[i].setLegal(ordering[i].getSingleInput().getLegal());
 	    	}
 
 	    	// Now that we have propagated, clear the ordering
@@ -427,8 +575,8 @@ public class PropNetImplementation extends StateMachine {
 	    		}
 	    	}
 
-    		// Propagate
-    		propagatePropNet();
+    		// Propagate only what the next state depends on
+    		propagatePropNet(nextCone);
 
     		// Transition
     		transitionPropNet();
@@ -439,366 +587,177 @@ public class PropNetImplementation extends StateMachine {
     }
 
     /**
-     * This should compute the topological ordering of propositions.
-     * Each component is either a proposition, logical gate, or transition.
-     * Logical gates and transitions only have propositions as inputs.
-     *
-     * The base propositions and input propositions should always be exempt
-     * from this ordering.
-     *
-     * The base propositions values are set from the MachineState that
-     * operations are performed on and the input propositions are set from
-     * the Moves that operations are performed on as well (if any).
-     *
-     * @return The order in which the truth values of propositions need to be set.
+     * Plays a random game from the given state using the propnet's own state,
+     * so that each ply only checks the terminal network and the goal network
+     * is evaluated once, at the end.
      */
-    public List<Proposition> getOrdering() {
-    	// Note, this function now also handles creating the bit maps
-    	// List to contain the topological ordering
-    	List<Proposition> order = new LinkedList<Proposition>();
-
-    	// Ordered list of base props and input props (for bit maps)
-    	List<Proposition> baseProps = new ArrayList<Proposition>();
-    	List<Proposition> inputProps = new ArrayList<Proposition>();
-
-    	List<GdlSentence> baseSentence = new ArrayList<GdlSentence>();
-    	List<GdlSentence> inputSentence = new ArrayList<GdlSentence>();
-
-    	// Propositions to check
-    	List<Proposition> searchProps = new ArrayList<Proposition>();
-    	for (GdlSentence g : propNet.getBasePropositions().keySet()) {
-    		baseSentence.add(g);
-    		baseProps.add(propNet.getBasePropositions().get(g));
-    	}
-
-    	for (GdlSentence g : propNet.getInputPropositions().keySet()) {
-    		inputSentence.add(g);
-    		inputProps.add(propNet.getInputPropositions().get(g));
+    @Override
+    public int performRollout(MachineState state, int[] theGoals)
+            throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+    	setBaseProps(state);
+    	int depth = 0;
+    	while (!isTerminal()) {
+    		toNextState(getRandomJointMove());
+    		depth++;
     	}
-
-    	for (Proposition p : baseProps) {
-    		// Add base prop children
-    		// Check inputs to proposition.
-        	List<Component> children = new ArrayList<Component>(p.getOutputs());
-        	while (!children.isEmpty()) {
-        		Component thisC = children.remove(0);
-
-        		// If a child is a proposition that still needs ordering, then keep
-        		if ( thisC.getClass() == Proposition.class ) {
-        			Proposition thisP = (Proposition) thisC;
-        			if (!baseProps.contains(thisP) && !inputProps.contains(thisP) && !searchProps.contains(thisP)) {
-        				searchProps.add(thisP);
-        			}
-        		}
-        		// If the child is a transition, also ignore
-        		else if ( thisC.getClass() != Transition.class ) {
-        			// Add inputs to ancestor to the check
-        			children.addAll( thisC.getOutputs() );
-        		}
-        	}
+    	for (int i = 0; i < roles.size(); i++) {
+    		theGoals[i] = getGoal(roles.get(i));
     	}
+    	return depth;
+    }
 
-    	for (Proposition p : inputProps) {
-    		// Add base prop children
-    		// Check inputs to proposition.
-        	List<Component> children = new ArrayList<Component>(p.getOutputs());
-        	while (!children.isEmpty()) {
-        		Component thisC = children.remove(0);
-
-        		// If a child is a proposition that still needs ordering, then keep
-        		if ( thisC.getClass() == Proposition.class ) {
-        			Proposition thisP = (Proposition) thisC;
-        			if (!baseProps.contains(thisP) && !inputProps.contains(thisP) && !searchProps.contains(thisP)) {
-        				searchProps.add(thisP);
-        			}
-        		}
-        		// If the child is a transition, also ignore
-        		else if ( thisC.getClass() != Transition.class ) {
-        			// Add inputs to ancestor to the check
-        			children.addAll( thisC.getOutputs() );
-        		}
-        	}
+    /**
+     * Computes a topological ordering of the propositions other than the base,
+     * input and init propositions, in time linear in the size of the propnet.
+     * Every proposition comes after the propositions it reads through gates.
+     * Transitions are cut, since their outputs only change between states.
+     *
+     * Also numbers the components, for the dependency maps and query cones.
+     *
+     * @return The ordering, indexed the same way as the update bitsets.
+     */
+    private Proposition[] getOrderingLinear()
+    {
+    	Set<Component> all = propNet.getComponents();
+    	components = all.toArray(new Component[all.size()]);
+    	componentIndices = new IdentityHashMap<Component, Integer>();
+    	for (int c = 0; c < components.length; c++) {
+    		componentIndices.put(components[c], c);
     	}
 
-    	Proposition ii = propNet.getInitProposition();
-    	List<Component> cc = new ArrayList<Component>(ii.getOutputs());
-    	while (!cc.isEmpty()) {
-    		Component thisC = cc.remove(0);
-
-    		// If a child is a proposition that still needs ordering, then keep
-    		if ( thisC.getClass() == Proposition.class ) {
-    			Proposition thisP = (Proposition) thisC;
-    			if (!baseProps.contains(thisP) && !inputProps.contains(thisP) && !searchProps.contains(thisP)) {
-    				searchProps.add(thisP);
+    	Set<Proposition> exempt = Collections.newSetFromMap(new IdentityHashMap<Proposition, Boolean>());
+    	exempt.addAll(propNet.getBasePropositions().values());
+    	exempt.addAll(propNet.getInputPropositions().values());
+    	exempt.add(propNet.getInitProposition());
+
+    	// Kahn's algorithm: a component is ready once all its inputs are
+    	int[] waiting = new int[components.length];
+    	int[] queue = new int[components.length];
+    	int head = 0;
+    	int tail = 0;
+    	for (int c = 0; c < components.length; c++) {
+    		for (Component input : components[c].getInputs()) {
+    			if (!(input instanceof Transition)) {
+    				waiting[c]++;
     			}
     		}
-    		// If the child is a transition, also ignore
-    		else if ( thisC.getClass() != Transition.class ) {
-    			// Add inputs to ancestor to the check
-    			cc.addAll( thisC.getOutputs() );
+    		if (waiting[c] == 0) {
+    			queue[tail++] = c;
     		}
     	}
 
-    	System.out.println(searchProps.size());
-    	System.out.println(inputProps.size() + baseProps.size());
-
-    	// Order to input map
-    	Map<Proposition, BitSet> orderInputMap = new HashMap<Proposition, BitSet>();
-
-    	// Order to base map
-    	Map<Proposition, BitSet> orderBaseMap = new HashMap<Proposition, BitSet>();
-
-    	while(!searchProps.isEmpty()) {
-    		Proposition p = searchProps.remove(0);
-    		BitSet p_baseSet = new BitSet(baseProps.size());
-    		BitSet p_inputSet = new BitSet(inputProps.size());
-
-        	// Check inputs to proposition.
-        	List<Component> components = new ArrayList<Component>(p.getInputs());
-        	while (!components.isEmpty()) {
-        		Component thisC = components.get(0);
-
-        		// If an ancestor is a proposition that still needs ordering, then keep
-        		if ( thisC.getClass() == Proposition.class ) {
-        			Proposition thisP = (Proposition) thisC;
-        			if ( order.contains(thisP) ) {
-        				p_baseSet.or(orderBaseMap.get(thisP));
-        				p_inputSet.or(orderInputMap.get(thisP));
-        			}
-        			else if ( baseProps.contains(thisP) ) {
-        				p_baseSet.set(baseProps.indexOf(thisP));
-        			}
-        			else if ( inputProps.contains(thisP) ) {
-        				p_inputSet.set(inputProps.indexOf(thisP));
-        			}
-        			else {
-        				// Hasn't been ordered yet, or isn't a base or input proposition.
-        				break;
-        			}
-        		}
-        		// If the ancestor is a transition, also ignore
-        		else if ( thisC.getClass() != Transition.class ) {
-        			// Add inputs to ancestor to the check
-        			components.addAll( thisC.getInputs() );
-        		}
-        		components.remove(0);
-        	}
-        	// Proposition ancestors are all base, inputs, or already ordered, add
-        	if ( components.isEmpty() ) {
-        		order.add(p);
-        		orderBaseMap.put(p, p_baseSet);
-        		orderInputMap.put(p, p_inputSet);
-
-        		// Add its children to the search
-        		// Check inputs to proposition.
-            	List<Component> children = new ArrayList<Component>(p.getOutputs());
-            	while (!children.isEmpty()) {
-            		Component thisC = children.remove(0);
-
-            		// If a child is a proposition that still needs ordering, then keep
-            		if ( thisC.getClass() == Proposition.class ) {
-            			Proposition thisP = (Proposition) thisC;
-            			if (!baseProps.contains(thisP) && !inputProps.contains(thisP) && !order.contains(thisP) && !searchProps.contains(thisP)) {
-            				searchProps.add(thisP);
-            			}
-            		}
-            		// If the child is a transition, also ignore
-            		else if ( thisC.getClass() != Transition.class ) {
-            			// Add inputs to ancestor to the check
-            			children.addAll( thisC.getOutputs() );
-            		}
-            	}
-        	}
-        	else {
-        		// Otherwise read to end of search
-        		searchProps.add(p);
-        	}
-    	}
-
-    	List<Proposition> expected = new ArrayList<Proposition>(propNet.getPropositions());
-    	expected.removeAll(baseProps);
-    	expected.removeAll(inputProps);
-    	expected.remove(propNet.getInitProposition());
-    	expected.removeAll(order);
-
-    	// Add remaining propositions that for whatever reason are not reachable.
-    	for (Proposition p : expected) {
-    		order.add(p);
-    		BitSet p_baseSet = new BitSet(baseProps.size());
-    		BitSet p_inputSet = new BitSet(inputProps.size());
-    		orderBaseMap.put(p, p_baseSet);
-    		orderInputMap.put(p, p_inputSet);
-    	}
-
-    	System.out.println(order.size());
-    	System.out.println(propNet.getPropositions().size() - 1 - baseProps.size() - inputProps.size());
-
-    	baseBitMap = new HashMap<GdlSentence, BitSet>();
-    	inputBitMap = new HashMap<GdlSentence, BitSet>();
-
-    	System.out.println("MAKING MAPS: ");
-
-    	// Get the bit maps
-    	for (int i=0; i<baseSentence.size(); i++) {
-    		GdlSentence g = baseSentence.get(i);
-    		BitSet thisB = new BitSet(order.size());
-    		for (int j=0; j<order.size(); j++) {
-    			Proposition p = order.get(j);
-    			if (orderBaseMap.get(p).get(i)) {
-    				thisB.set(j);
-    			}
+    	orderIndices = new int[components.length];
+    	Arrays.fill(orderIndices, -1);
+    	List<Proposition> order = new ArrayList<Proposition>();
+    	while (head < tail) {
+    		Component c = components[queue[head]];
+    		if (c instanceof Proposition && !exempt.contains(c)) {
+    			orderIndices[queue[head]] = order.size();
+    			order.add((Proposition) c);
     		}
-    		baseBitMap.put(g, thisB);
-    	}
-
-    	System.out.println("INPUT MAP: ");
-
-    	for (int i=0; i<inputSentence.size(); i++) {
-    		GdlSentence g = inputSentence.get(i);
-    		BitSet thisB = new BitSet(order.size());
-    		for (int j=0; j<order.size(); j++) {
-    			Proposition p = order.get(j);
-    			if (orderInputMap.get(p).get(i)) {
-    				thisB.set(j);
+    		head++;
+    		if (c instanceof Transition) {
+    			continue;
+    		}
+    		for (Component output : c.getOutputs()) {
+    			int o = componentIndices.get(output);
+    			if (--waiting[o] == 0) {
+    				queue[tail++] = o;
     			}
     		}
-    		inputBitMap.put(g, thisB);
+    	}
+    	if (tail < components.length) {
+    		throw new IllegalStateException("The propnet has a cycle that does not pass through a transition");
     	}
 
-    	System.out.println("DONE!");
-
-    	return order;
-    }
-
-    public List<Proposition> getOrderingObsolete()
-    {
-
-        // List to contain the topological ordering.
-        List<Proposition> order = new LinkedList<Proposition>();
-
-        // All of the propositions in the PropNet.
-        List<Proposition> propositions = new ArrayList<Proposition>(propNet.getPropositions());
-
-        // Remove the base, input, and init propositions
-        propositions.removeAll(propNet.getBasePropositions().values());
-        propositions.removeAll(propNet.getInputPropositions().values());
-        propositions.remove(propNet.getInitProposition());
-
-        // Cycle through propositions
-        List<Proposition> needOrder = new ArrayList<Proposition>(propositions);
-        int counter = 0;
-        while ( !needOrder.isEmpty() ) {
-        	Proposition p = needOrder.get(counter);
-
-        	// Check inputs to proposition.
-        	List<Component> components = new ArrayList<Component>(p.getInputs());
-        	while (!components.isEmpty()) {
-        		Component thisC = components.get(0);
-
-        		// If an ancestor is a proposition that still needs ordering, then keep
-        		if ( thisC.getClass() == Proposition.class ) {
-        			if ( needOrder.contains(thisC) ) {
-        				break;
-        			}
-        		}
-        		// If the ancestor is a transition, also ignore
-        		else if ( thisC.getClass() != Transition.class ) {
-        			// Add inputs to ancestor to the check
-        			components.addAll( thisC.getInputs() );
-        		}
-        		components.remove(0);
-        	}
-        	// Proposition ancestors are all base, inputs, or already ordered, add
-        	if ( components.isEmpty() ) {
-        		order.add(p);
-        		needOrder.remove(p);
-        	}
-        	// Otherwise continue checking
-        	else {
-        		counter++;
-        	}
-        	if (counter >= needOrder.size()) {
-        		counter = 0;
-        	}
-        }
-
-        System.out.println("OBS: " + order.size());
-
-        return order;
+    	System.out.println("ORDERED: " + order.size());
+    	return order.toArray(new Proposition[order.size()]);
     }
 
     /**
-     * Function makes the bit maps. These maps take a base proposition or
-     * input proposition and maps that proposition to the ordered propositions
-     * that need to be updated.
+     * Makes the bit maps, which take a base or input proposition to the
+     * ordering propositions that need to be updated when it changes.
+     *
+     * The cones are built in a single pass over the ordering in reverse: the
+     * cone of a proposition is the union of the propositions it feeds through
+     * gates and of their cones. A cone is dropped as soon as every proposition
+     * feeding it has used it, so only the frontier of the pass is kept.
      */
-    private void getBaseBitMap()
+    private void getDependencyMaps()
     {
-    	baseBitMap = new HashMap<GdlSentence, BitSet>();
-    	Map<GdlSentence, Proposition> bmap = propNet.getBasePropositions();
-    	for (GdlSentence g : bmap.keySet())
-    	{
-    		BitSet this_set = new BitSet(this.ordering.size());
-    		List<Proposition> check_props = new ArrayList<Proposition>();
-    		check_props.add(bmap.get(g));
-    		while( !check_props.isEmpty() ) {
-    			Proposition this_prop = check_props.remove(0);
-
-    			// Add children to check
-    			List<Component> checkComps = new ArrayList<Component>(this_prop.getOutputs());
-    			while( !checkComps.isEmpty() ) {
-    				Component this_comp = checkComps.remove(0);
-    				if ( this_comp.getClass() == Proposition.class ) {
-    	    			int ind = ordering.indexOf((Proposition)this_comp);
-    	    			if ( ind >= 0 ) {
-    	    				this_set.set(ind);
-    	    				check_props.add((Proposition)this_comp);
-    	    			}
+    	int n = components.length;
+
+    	// The ordering propositions each proposition feeds directly, and how
+    	// many propositions feed each one
+    	int[][] feeds = new int[n][];
+    	int[] feeders = new int[n];
+    	int[] stamps = new int[n];
+    	int[] stack = new int[n];
+    	int[] found = new int[n];
+    	for (int c = 0; c < n; c++) {
+    		if (!(components[c] instanceof Proposition)) {
+    			continue;
+    		}
+    		int size = 0;
+    		int numFound = 0;
+    		for (Component output : components[c].getOutputs()) {
+    			stack[size++] = componentIndices.get(output);
+    		}
+    		while (size > 0) {
+    			int o = stack[--size];
+    			if (stamps[o] == c + 1) {
+    				continue;
+    			}
+    			stamps[o] = c + 1;
+    			if (components[o] instanceof Proposition) {
+    				if (orderIndices[o] >= 0) {
+    					found[numFound++] = o;
+    					feeders[o]++;
     				}
-    				else {
-    					checkComps.addAll(this_comp.getOutputs());
+    			}
+    			else if (!(components[o] instanceof Transition)) {
+    				for (Component output : components[o].getOutputs()) {
+    					int next = componentIndices.get(output);
+    					if (stamps[next] != c + 1) {
+    						stack[size++] = next;
+    					}
     				}
     			}
     		}
-    		baseBitMap.put(g, this_set);
+    		feeds[c] = Arrays.copyOf(found, numFound);
+    	}
+
+    	BitSet[] cones = new BitSet[n];
+    	for (int i = ordering.length - 1; i >= 0; i--) {
+    		int c = componentIndices.get(ordering[i]);
+    		cones[c] = getCone(c, feeds, feeders, cones);
+    	}
+
+    	baseBitMap = new HashMap<GdlSentence, BitSet>();
+    	for (Map.Entry<GdlSentence, Proposition> e : propNet.getBasePropositions().entrySet()) {
+    		baseBitMap.put(e.getKey(), getCone(componentIndices.get(e.getValue()), feeds, feeders, cones));
+    	}
+    	inputBitMap = new HashMap<GdlSentence, BitSet>();
+    	for (Map.Entry<GdlSentence, Proposition> e : propNet.getInputPropositions().entrySet()) {
+    		inputBitMap.put(e.getKey(), getCone(componentIndices.get(e.getValue()), feeds, feeders, cones));
     	}
     }
 
-    /**
-     * Function makes the bit maps. These maps take a base proposition or
-     * input proposition and maps that proposition to the ordered propositions
-     * that need to be updated.
+    /*
+     * Unites the cones of the propositions a proposition feeds, releasing
+     * those no other proposition still needs.
      */
-    private void getInputBitMap()
+    private BitSet getCone(int c, int[][] feeds, int[] feeders, BitSet[] cones)
     {
-    	inputBitMap = new HashMap<GdlSentence, BitSet>();
-    	Map<GdlSentence, Proposition> imap = propNet.getInputPropositions();
-    	for (GdlSentence g : imap.keySet())
-    	{
-    		BitSet this_set = new BitSet(this.ordering.size());
-    		List<Proposition> check_props = new ArrayList<Proposition>();
-    		check_props.add(imap.get(g));
-    		while( !check_props.isEmpty() ) {
-    			Proposition this_prop = check_props.remove(0);
-
-    			// Add children to check
-    			List<Component> checkComps = new ArrayList<Component>(this_prop.getOutputs());
-    			while( !checkComps.isEmpty() ) {
-    				Component this_comp = checkComps.remove(0);
-    				if ( this_comp.getClass() == Proposition.class ) {
-    	    			int ind = ordering.indexOf((Proposition)this_comp);
-    	    			if ( ind >= 0 ) {
-    	    				this_set.set(ind);
-    	    				check_props.add((Proposition)this_comp);
-    	    			}
-    				}
-    				else {
-    					checkComps.addAll(this_comp.getOutputs());
-    				}
-    			}
+    	BitSet cone = new BitSet();
+    	for (int q : feeds[c]) {
+    		cone.set(orderIndices[q]);
+    		cone.or(cones[q]);
+    		if (--feeders[q] == 0) {
+    			cones[q] = null;
     		}
-    		inputBitMap.put(g, this_set);
     	}
+    	return cone;
     }
 
     /*
@@ -826,7 +785,7 @@ public class PropNetImplementation extends StateMachine {
 	    	// Only update the propositions that need to be updated
 	    	for (int i = updateOrder.nextSetBit(0); i >= 0; i = updateOrder.nextSetBit(i+1)) {
 	    		// operate on index i here
-	    		ordering.get(i).setValue(ordering.get(i).getSingleInput().getValue());
+	    		ordering[i].setValue(ordering[i].getSingleInput().getValue());
 	    	}
 
 	    	// Now that we have propagated, clear the ordering
@@ -839,6 +798,137 @@ public class PropNetImplementation extends StateMachine {
     	}
     }
 
+    /*
+     * Propagates only the pending propositions in the given cone, leaving the
+     * rest pending. A cone holds everything its propositions depend on, so
+     * these come out the same as after a full propagation.
+     */
+    private void propagatePropNet(BitSet cone)
+    {
+    	if (!this.maps) {
+    		propagatePropNet();
+    		return;
+    	}
+
+    	partialOrder.clear();
+    	partialOrder.or(updateOrder);
+    	partialOrder.and(cone);
+    	for (int i = partialOrder.nextSetBit(0); i >= 0; i = partialOrder.nextSetBit(i+1)) {
+    		ordering[i].setValue(ordering[i].getSingleInput().getValue());
+    	}
+    	updateOrder.andNot(partialOrder);
+    }
+
+    /*
+     * Finds the ordering propositions that the terminal proposition, the goal
+     * propositions and the base propositions' transitions depend on, so that
+     * each kind of query only propagates what it reads. A rollout then never
+     * touches the goal network until it reaches a terminal state.
+     */
+    private void getQueryCones()
+    {
+    	terminalCone = new BitSet(ordering.length);
+    	markCone(Collections.<Component>singletonList(propNet.getTerminalProposition()), terminalCone);
+
+    	List<Component> goals = new ArrayList<Component>();
+    	for (Set<Proposition> gps : propNet.getGoalPropositions().values()) {
+    		goals.addAll(gps);
+    	}
+    	goalCone = new BitSet(ordering.length);
+    	markCone(goals, goalCone);
+
+    	List<Component> transitions = new ArrayList<Component>();
+    	for (Proposition p : propNet.getBasePropositions().values()) {
+    		transitions.add(p.getSingleInput());
+    	}
+    	nextCone = new BitSet(ordering.length);
+    	markCone(transitions, nextCone);
+
+    	partialOrder = new BitSet(ordering.length);
+    }
+
+    /*
+     * Marks the ordering propositions that any of the given components depend
+     * on, including themselves, stopping at base and input propositions. Each
+     * component is visited once, however many of the starts reach it.
+     */
+    private void markCone(List<Component> starts, BitSet cone)
+    {
+    	boolean[] seen = new boolean[components.length];
+    	int[] stack = new int[components.length];
+    	int size = 0;
+    	for (Component start : starts) {
+    		int c = componentIndices.get(start);
+    		if (!seen[c]) {
+    			seen[c] = true;
+    			stack[size++] = c;
+    		}
+    	}
+    	while (size > 0) {
+    		int c = stack[--size];
+    		if (components[c] instanceof Proposition) {
+    			if (orderIndices[c] < 0) {
+    				continue;
+    			}
+    			cone.set(orderIndices[c]);
+    		}
+    		for (Component input : components[c].getInputs()) {
+    			int i = componentIndices.get(input);
+    			if (!seen[i]) {
+    				seen[i] = true;
+    				stack[size++] = i;
+    			}
+    		}
+    	}
+    }
+
+    /*
+     * Sorts each role's goal propositions by descending value.
+     */
+    private void sortGoals()
+    {
+    	goalsByValue = new HashMap<Role, Proposition[]>();
+    	goalValues = new HashMap<Role, int[]>();
+    	for (Role role : roles) {
+    		List<Proposition> goals = new ArrayList<Proposition>(propNet.getGoalPropositions().get(role));
+    		Collections.sort(goals, new Comparator<Proposition>() {
+    			@Override
+    			public int compare(Proposition a, Proposition b) {
+    				return getGoalValue(b) - getGoalValue(a);
+    			}
+    		});
+    		int[] values = new int[goals.size()];
+    		for (int i = 0; i < values.length; i++) {
+    			values[i] = getGoalValue(goals.get(i));
+    		}
+    		goalsByValue.put(role, goals.toArray(new Proposition[goals.size()]));
+    		goalValues.put(role, values);
+    	}
+    }
+
+    /*
+     * Gives every base proposition a random 64-bit key. The hash of a state is
+     * the xor of the keys of its true bases, kept up to date as bases flip.
+     */
+    private void assignZobristKeys()
+    {
+    	Random random = new Random(0x5EEDL);
+    	zobristKeys = new HashMap<GdlSentence, Long>();
+    	for (GdlSentence g : propNet.getBasePropositions().keySet()) {
+    		zobristKeys.put(g, random.nextLong());
+    	}
+    	zobristHash = 0;
+    }
+
+    /**
+     * Returns the Zobrist hash of the state currently held by the propnet,
+     * which is also the one carried by the states getStateFromBase() returns.
+     */
+    public long getZobristHash()
+    {
+    	return zobristHash;
+    }
+
     /*
      * Transition prop net
      */
@@ -847,12 +937,22 @@ public class PropNetImplementation extends StateMachine {
     	// Get mapping from gdl sentence to base proposition
     	Map<GdlSentence, Proposition> pmap = propNet.getBasePropositions();
 
+    	// Read every transition before writing any base, since the optimizer
+    	// can leave a transition reading a base proposition directly
+    	Set<GdlSentence> nextTrue = new HashSet<GdlSentence>();
+    	for (GdlSentence g : pmap.keySet()) {
+    		if (pmap.get(g).getSingleInput().getValue()) {
+    			nextTrue.add(g);
+    		}
+    	}
+
     	// Update only base propositions that have changed and flag
     	for (GdlSentence g : pmap.keySet()) {
     		Proposition p = pmap.get(g);
-			boolean newVal = p.getSingleInput().getValue();
+			boolean newVal = nextTrue.contains(g);
     		if ( p.getValue() != newVal ) {
     			p.setValue(newVal);
+    			zobristHash ^= zobristKeys.get(g);
     			if (this.maps) {
     				updateOrder.or(baseBitMap.get(g));
     			}
@@ -887,6 +987,7 @@ public class PropNetImplementation extends StateMachine {
     		if (ssc.contains(g)) {
     			if (!p.getValue()) {
     				p.setValue(true);
+    				zobristHash ^= zobristKeys.get(g);
     				if (this.maps) {
     					updateOrder.or(baseBitMap.get(g));
     				}
@@ -901,6 +1002,7 @@ public class PropNetImplementation extends StateMachine {
     		else {
     			if (p.getValue()) {
     				p.setValue(false);
+    				zobristHash ^= zobristKeys.get(g);
     				if (this.maps) {
         	    		updateOrder.or(baseBitMap.get(g));
     				}
@@ -990,7 +1092,7 @@ public class PropNetImplementation extends StateMachine {
                 contents.add(p.getName());
             }
         }
-        return new MachineState(contents);
+        return new HashedMachineState(contents, zobristHash);
     }
 
     public int getNumComponents()
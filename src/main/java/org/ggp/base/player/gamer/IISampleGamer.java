@@ -13,7 +13,7 @@ import org.ggp.base.util.statemachine.SeesState;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
-import org.ggp.base.util.statemachine.iistatemachine.IISamplePropNetStateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.IICompiledPropNetStateMachine;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
 
 public abstract class IISampleGamer extends IIGamer {
@@ -26,7 +26,7 @@ public abstract class IISampleGamer extends IIGamer {
 	private int turnNumber = 1;
 
 	public IISampleGamer() {
-		iistateMachine = new IISamplePropNetStateMachine();
+		iistateMachine = new IICompiledPropNetStateMachine();
 		normalStateMachine = new ProverStateMachine();
 	}
 
@@ -20,13 +20,13 @@ import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.See;
 import org.ggp.base.util.statemachine.SeesState;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
-import org.ggp.base.util.statemachine.iistatemachine.IISamplePropNetStateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.IICompiledPropNetStateMachine;
 
 public class IIGameServer extends GameServer implements Subject {
 
 	private final IIMatch iimatch;
 	private final List<Set<See>> currentSees;
-	private final IISamplePropNetStateMachine iistateMachine;
+	private final IICompiledPropNetStateMachine iistateMachine;
 
 	public IIGameServer(IIMatch match, List<String> hosts, List<Integer> ports) throws InterruptedException {
 		super(match, hosts, ports);
@@ -35,7 +35,7 @@ public class IIGameServer extends GameServer implements Subject {
 		for (int i = 0; i < this.hosts.size(); i++) {
 			currentSees.add(new HashSet<See>());
 		}
-		iistateMachine = new IISamplePropNetStateMachine();
+		iistateMachine = new IICompiledPropNetStateMachine();
 		iistateMachine.initialize(stateMachine, iimatch.getGame().getRules());
 	}
 
@@ -1,23 +1,37 @@
 package org.ggp.base.util.propnet.architecture;
 
 import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 /**
  * The root class of the Component hierarchy, which is designed to represent
  * nodes in a PropNet. The general contract of derived classes is to override
  * all methods.
+ *
+ * While a propnet is being built and optimized, the inputs and outputs of
+ * each component are kept in hash sets so they can be rewired cheaply. Once
+ * the structure is final, {@link #freeze()} moves them into plain arrays and
+ * drops the sets: this saves two hash tables per component, and lets the
+ * gates evaluate their inputs by walking a contiguous array. A frozen
+ * component can no longer be rewired.
  */
 
 public abstract class Component implements Serializable
 {
 
 	private static final long serialVersionUID = 352524175700224447L;
-    /** The inputs to the component. */
-    private final Set<Component> inputs;
-    /** The outputs of the component. */
-    private final Set<Component> outputs;
+    /** The inputs to the component, or null once frozen. */
+    private Set<Component> inputs;
+    /** The outputs of the component, or null once frozen. */
+    private Set<Component> outputs;
+    /** The inputs to the component once frozen, or null before. */
+    private Component[] inputArray;
+    /** The outputs of the component once frozen, or null before. */
+    private Component[] outputArray;
 
     /**
      * Creates a new Component with no inputs or outputs.
@@ -36,26 +50,31 @@ public abstract class Component implements Serializable
      */
     public void addInput(Component input)
     {
+        checkNotFrozen();
         inputs.add(input);
     }
 
     public void removeInput(Component input)
     {
+        checkNotFrozen();
     	inputs.remove(input);
     }
 
     public void removeOutput(Component output)
     {
+        checkNotFrozen();
     	outputs.remove(output);
     }
 
     public void removeAllInputs()
     {
+        checkNotFrozen();
 		inputs.clear();
 	}
 
 	public void removeAllOutputs()
 	{
+        checkNotFrozen();
 		outputs.clear();
 	}
 
@@ -67,17 +86,61 @@ public abstract class Component implements Serializable
      */
     public void addOutput(Component output)
     {
+        checkNotFrozen();
         outputs.add(output);
     }
 
+    /**
+     * Moves the inputs and outputs of the component into arrays. After this,
+     * {@link #getInputs()} and {@link #getOutputs()} return read-only views
+     * and any attempt to add or remove a link throws an
+     * IllegalStateException. Freezing a frozen component does nothing.
+     */
+    public void freeze()
+    {
+        if (isFrozen()) {
+            return;
+        }
+        inputArray = inputs.toArray(new Component[inputs.size()]);
+        outputArray = outputs.toArray(new Component[outputs.size()]);
+        inputs = null;
+        outputs = null;
+    }
+
+    /**
+     * Returns whether {@link #freeze()} has been called on this component.
+     */
+    public boolean isFrozen()
+    {
+        return inputArray != null;
+    }
+
+    private void checkNotFrozen()
+    {
+        if (isFrozen()) {
+            throw new IllegalStateException("Cannot rewire a frozen component");
+        }
+    }
+
     /**
      * Getter method.
      *
-     * @return The inputs to the component.
+     * @return The inputs to the component. Once the component is frozen this
+     *         is a read-only view of {@link #getInputArray()}.
      */
     public Set<Component> getInputs()
     {
-        return inputs;
+        return isFrozen() ? new ArrayView(inputArray) : inputs;
+    }
+
+    /**
+     * Returns the inputs to the component as an array, which must not be
+     * modified. This is free once the component is frozen; before that a
+     * new array is built on every call.
+     */
+    public Component[] getInputArray()
+    {
+        return isFrozen() ? inputArray : inputs.toArray(new Component[inputs.size()]);
     }
 
     /**
@@ -88,6 +151,10 @@ public abstract class Component implements Serializable
      * @return The single input to the component.
      */
     public Component getSingleInput() {
+        if (isFrozen()) {
+            assert inputArray.length == 1;
+            return inputArray[0];
+        }
         assert inputs.size() == 1;
         return inputs.iterator().next();
     }
@@ -95,11 +162,22 @@ public abstract class Component implements Serializable
     /**
      * Getter method.
      *
-     * @return The outputs of the component.
+     * @return The outputs of the component. Once the component is frozen
+     *         this is a read-only view of {@link #getOutputArray()}.
      */
     public Set<Component> getOutputs()
     {
-        return outputs;
+        return isFrozen() ? new ArrayView(outputArray) : outputs;
+    }
+
+    /**
+     * Returns the outputs of the component as an array, which must not be
+     * modified. This is free once the component is frozen; before that a
+     * new array is built on every call.
+     */
+    public Component[] getOutputArray()
+    {
+        return isFrozen() ? outputArray : outputs.toArray(new Component[outputs.size()]);
     }
 
     /**
@@ -110,6 +188,10 @@ public abstract class Component implements Serializable
      * @return The single output to the component.
      */
     public Component getSingleOutput() {
+        if (isFrozen()) {
+            assert outputArray.length == 1;
+            return outputArray[0];
+        }
         assert outputs.size() == 1;
         return outputs.iterator().next();
     }
@@ -155,4 +237,30 @@ public abstract class Component implements Serializable
         return sb.toString();
     }
 
+    /**
+     * A read-only Set over the links of a frozen component. The links were
+     * taken from a set, so the array never holds duplicates.
+     */
+    private static final class ArrayView extends AbstractSet<Component>
+    {
+        private final Component[] array;
+
+        ArrayView(Component[] array)
+        {
+            this.array = array;
+        }
+
+        @Override
+        public Iterator<Component> iterator()
+        {
+            return Arrays.asList(array).iterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return array.length;
+        }
+    }
+
 }
\ No newline at end of file
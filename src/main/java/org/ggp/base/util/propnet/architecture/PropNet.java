@@ -504,6 +504,64 @@ public final class PropNet
 		return linkCount;
 	}
 
+	/**
+	 * Counts the components and links of the propnet by kind and estimates
+	 * how much memory it holds. This walks every component, so it is meant
+	 * for logging after construction rather than for use during play.
+	 */
+	public PropNetStatistics getStatistics() {
+		return new PropNetStatistics(this);
+	}
+
+	/**
+	 * Drops the names of all view propositions, keeping only those of the
+	 * base, input, legal and goal propositions and of INIT and terminal,
+	 * which are the ones the state machines look up. The names of the
+	 * intermediate propositions are only needed while the propnet is built
+	 * and optimized, and on large games they make up much of its size.
+	 *
+	 * Call this after optimization: the optimizer and removeComponent rely
+	 * on names to recognize propositions. The dropped sentences are only
+	 * reclaimed once nothing else refers to them, which for pooled sentences
+	 * means after GdlPool.drainPool().
+	 *
+	 * @return The number of names dropped.
+	 */
+	public int compactNames() {
+		Set<Proposition> named = new HashSet<Proposition>();
+		named.addAll(basePropositions.values());
+		named.addAll(inputPropositions.values());
+		for(Set<Proposition> legals : legalPropositions.values())
+			named.addAll(legals);
+		for(Set<Proposition> goals : goalPropositions.values())
+			named.addAll(goals);
+		named.add(initProposition);
+		named.add(terminalProposition);
+
+		int dropped = 0;
+		for(Proposition p : propositions) {
+			if(!named.contains(p) && p.getName() != null) {
+				p.setName(null);
+				dropped++;
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 * Freezes every component, moving its links from hash sets into arrays.
+	 * Call this once the propnet is fully built and optimized: it shrinks the
+	 * network considerably and speeds up propagation, but afterwards no
+	 * component can be added, removed or rewired.
+	 *
+	 * @see Component#freeze()
+	 */
+	public void freeze() {
+		for(Component c : components) {
+			c.freeze();
+		}
+	}
+
 	/**
 	 * Removes a component from the propnet. Be very careful when using
 	 * this method, as it is not thread-safe. It is highly recommended
@@ -511,7 +569,8 @@ public final class PropNet
 	 * the propnet's creation and its initial use, during which it
 	 * should only be accessed by a single thread.
 	 *
-	 * The INIT and terminal components cannot be removed.
+	 * The INIT and terminal components cannot be removed, and nothing can
+	 * be removed once the propnet has been frozen.
 	 */
 	public void removeComponent(Component c) {
 
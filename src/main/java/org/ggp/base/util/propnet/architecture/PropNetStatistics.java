@@ -0,0 +1,306 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+
+
+/**
+ * A snapshot of the size of a {@link PropNet}: how many components of each
+ * kind it has, how many links, and roughly how much heap it holds on to.
+ *
+ * The byte counts are estimates for a 64-bit JVM with compressed references,
+ * worked out from the shape of the objects rather than measured. They are
+ * meant for comparing networks, and for seeing what freezing the network or
+ * dropping proposition names buys, not as exact figures. Names are counted
+ * once per distinct sentence; constants inside them are shared through
+ * GdlPool and are not counted at all.
+ */
+public final class PropNetStatistics
+{
+	private static final int HEADER = 12;
+	private static final int REFERENCE = 4;
+	private static final int HASH_SET = 16 + 48;
+	private static final int HASH_ENTRY = 32;
+	private static final int IMMUTABLE_LIST = 24;
+
+	private final int numComponents;
+	private final int numPropositions;
+	private final int numBases;
+	private final int numInputs;
+	private final int numLegals;
+	private final int numGoals;
+	private final int numViews;
+	private final int numAnds;
+	private final int numOrs;
+	private final int numNots;
+	private final int numTransitions;
+	private final int numConstants;
+	private final int numLinks;
+	private final int numNames;
+	private final long componentBytes;
+	private final long linkBytes;
+	private final long nameBytes;
+
+	/**
+	 * Counts the components of a network. This walks the whole network, so
+	 * it is meant for logging, not for use in the middle of a search.
+	 */
+	PropNetStatistics(PropNet propNet)
+	{
+		Set<Proposition> named = Collections.newSetFromMap(new IdentityHashMap<Proposition, Boolean>());
+		named.addAll(propNet.getBasePropositions().values());
+		named.addAll(propNet.getInputPropositions().values());
+		int legals = 0;
+		for (Set<Proposition> propositions : propNet.getLegalPropositions().values()) {
+			legals += propositions.size();
+			named.addAll(propositions);
+		}
+		int goals = 0;
+		for (Set<Proposition> propositions : propNet.getGoalPropositions().values()) {
+			goals += propositions.size();
+			named.addAll(propositions);
+		}
+
+		int propositions = 0, ands = 0, ors = 0, nots = 0, transitions = 0, constants = 0, links = 0, views = 0;
+		long components = 0, linkStorage = 0, names = 0;
+		Map<GdlSentence, Boolean> seenNames = new IdentityHashMap<GdlSentence, Boolean>();
+		for (Component c : propNet.getComponents()) {
+			int size = align(HEADER + 4 * REFERENCE);
+			if (c instanceof Proposition) {
+				Proposition p = (Proposition) c;
+				propositions++;
+				size = align(HEADER + 5 * REFERENCE + 2);
+				if (!named.contains(p) && p != propNet.getInitProposition() && p != propNet.getTerminalProposition()) {
+					views++;
+				}
+				GdlSentence name = p.getName();
+				if (name != null && seenNames.put(name, Boolean.TRUE) == null) {
+					names += sentenceBytes(name);
+				}
+			} else if (c instanceof And) {
+				ands++;
+			} else if (c instanceof Or) {
+				ors++;
+			} else if (c instanceof Not) {
+				nots++;
+			} else if (c instanceof Transition) {
+				transitions++;
+			} else if (c instanceof Constant) {
+				constants++;
+				size = align(HEADER + 4 * REFERENCE + 2);
+			}
+			components += size;
+			int numInputs = c.getInputs().size();
+			int numOutputs = c.getOutputs().size();
+			links += numOutputs;
+			if (c.isFrozen()) {
+				linkStorage += align(16 + REFERENCE * numInputs) + align(16 + REFERENCE * numOutputs);
+			} else {
+				linkStorage += hashSetBytes(numInputs) + hashSetBytes(numOutputs);
+			}
+		}
+
+		this.numComponents = propNet.getComponents().size();
+		this.numPropositions = propositions;
+		this.numBases = propNet.getBasePropositions().size();
+		this.numInputs = propNet.getInputPropositions().size();
+		this.numLegals = legals;
+		this.numGoals = goals;
+		this.numViews = views;
+		this.numAnds = ands;
+		this.numOrs = ors;
+		this.numNots = nots;
+		this.numTransitions = transitions;
+		this.numConstants = constants;
+		this.numLinks = links;
+		this.numNames = seenNames.size();
+		this.componentBytes = components;
+		this.linkBytes = linkStorage;
+		this.nameBytes = names;
+	}
+
+	private static int align(int bytes)
+	{
+		return (bytes + 7) & ~7;
+	}
+
+	/**
+	 * Estimates a HashSet holding the given number of elements, assuming it
+	 * grew from the default capacity.
+	 */
+	private static long hashSetBytes(int size)
+	{
+		int capacity = 16;
+		while (size > capacity * 3 / 4) {
+			capacity *= 2;
+		}
+		return HASH_SET + align(16 + REFERENCE * capacity) + (long) HASH_ENTRY * size;
+	}
+
+	private static long sentenceBytes(GdlSentence sentence)
+	{
+		if (!(sentence instanceof GdlRelation)) {
+			return align(HEADER + REFERENCE);
+		}
+		return align(HEADER + 3 * REFERENCE) + termsBytes(sentence.getBody());
+	}
+
+	private static long termsBytes(List<GdlTerm> body)
+	{
+		long bytes = IMMUTABLE_LIST + align(16 + REFERENCE * body.size());
+		for (GdlTerm term : body) {
+			if (term instanceof GdlFunction) {
+				bytes += align(HEADER + 3 * REFERENCE) + termsBytes(((GdlFunction) term).getBody());
+			}
+		}
+		return bytes;
+	}
+
+	public int getNumComponents()
+	{
+		return numComponents;
+	}
+
+	public int getNumPropositions()
+	{
+		return numPropositions;
+	}
+
+	public int getNumBases()
+	{
+		return numBases;
+	}
+
+	public int getNumInputs()
+	{
+		return numInputs;
+	}
+
+	public int getNumLegals()
+	{
+		return numLegals;
+	}
+
+	public int getNumGoals()
+	{
+		return numGoals;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of propositions that are none of base, input,
+	 *         legal, goal, init or terminal.
+	 */
+	public int getNumViews()
+	{
+		return numViews;
+	}
+
+	public int getNumAnds()
+	{
+		return numAnds;
+	}
+
+	public int getNumOrs()
+	{
+		return numOrs;
+	}
+
+	public int getNumNots()
+	{
+		return numNots;
+	}
+
+	public int getNumTransitions()
+	{
+		return numTransitions;
+	}
+
+	public int getNumConstants()
+	{
+		return numConstants;
+	}
+
+	public int getNumLinks()
+	{
+		return numLinks;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of distinct sentences still used as proposition
+	 *         names.
+	 */
+	public int getNumNames()
+	{
+		return numNames;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The estimated size of the component objects themselves.
+	 */
+	public long getComponentBytes()
+	{
+		return componentBytes;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The estimated size of the sets or arrays holding the links.
+	 */
+	public long getLinkBytes()
+	{
+		return linkBytes;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The estimated size of the proposition names.
+	 */
+	public long getNameBytes()
+	{
+		return nameBytes;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The estimated heap held by the network.
+	 */
+	public long getTotalBytes()
+	{
+		return componentBytes + linkBytes + nameBytes;
+	}
+
+	@Override
+	public String toString()
+	{
+		return numComponents + " components (" + numPropositions + " propositions: "
+				+ numBases + " base, " + numInputs + " input, " + numLegals + " legal, "
+				+ numGoals + " goal, " + numViews + " view; " + numAnds + " and, " + numOrs + " or, "
+				+ numNots + " not, " + numTransitions + " transition, " + numConstants + " constant), "
+				+ numLinks + " links, " + numNames + " names; about " + (getTotalBytes() / 1024) + " KB ("
+				+ (componentBytes / 1024) + " KB components, " + (linkBytes / 1024) + " KB links, "
+				+ (nameBytes / 1024) + " KB names)";
+	}
+}
@@ -16,6 +16,19 @@ public final class And extends Component
 	@Override
 	public boolean getValue()
 	{
+		// Only a frozen component has an array to walk; copying the set
+		// into one would allocate on every evaluation
+		if ( isFrozen() )
+		{
+			for ( Component component : getInputArray() )
+			{
+				if ( !component.getValue() )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
 		for ( Component component : getInputs() )
 		{
 			if ( !component.getValue() )
@@ -30,6 +43,17 @@ public final class And extends Component
 	@Override
 	public boolean getLegal()
 	{
+		if ( isFrozen() )
+		{
+			for ( Component component : getInputArray() )
+			{
+				if ( !component.getLegal() )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
 		for ( Component component : getInputs() )
 		{
 			if ( !component.getLegal() )
@@ -16,6 +16,19 @@ public final class Or extends Component
 	@Override
 	public boolean getValue()
 	{
+		// Only a frozen component has an array to walk; copying the set
+		// into one would allocate on every evaluation
+		if ( isFrozen() )
+		{
+			for ( Component component : getInputArray() )
+			{
+				if ( component.getValue() )
+				{
+					return true;
+				}
+			}
+			return false;
+		}
 		for ( Component component : getInputs() )
 		{
 			if ( component.getValue() )
@@ -29,6 +42,17 @@ public final class Or extends Component
 	@Override
 	public boolean getLegal()
 	{
+		if ( isFrozen() )
+		{
+			for ( Component component : getInputArray() )
+			{
+				if ( component.getLegal() )
+				{
+					return true;
+				}
+			}
+			return false;
+		}
 		for ( Component component : getInputs() )
 		{
 			if ( component.getLegal() )
@@ -32,7 +32,8 @@ public class Proposition extends Component
 	/**
 	 * Getter method.
 	 *
-	 * @return The name of the Proposition.
+	 * @return The name of the Proposition, or null if it was dropped by
+	 *         PropNet.compactNames().
 	 */
 	public GdlSentence getName()
 	{
@@ -90,6 +91,6 @@ public class Proposition extends Component
 	@Override
 	public String toString()
 	{
-		return toDot("circle", value ? "red" : "white", name.toString());
+		return toDot("circle", value ? "red" : "white", name == null ? "" : name.toString());
 	}
 }
\ No newline at end of file
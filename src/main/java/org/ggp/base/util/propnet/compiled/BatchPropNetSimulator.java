@@ -0,0 +1,279 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * The BatchPropNetSimulator plays 64 random games through a
+ * {@link CompiledPropNet} at once.
+ *
+ * Every value in a propnet is a single bit, so a long can hold the value of
+ * one component in 64 different states. Each component gets one word, bit
+ * <tt>l</tt> of which belongs to lane <tt>l</tt>, and a gate is evaluated for
+ * all lanes with a single bitwise AND, OR or NOT over its inputs' words. A
+ * ply of 64 rollouts therefore costs about as much as a ply of one, plus a
+ * random move choice per lane.
+ *
+ * Each ply evaluates the legal and terminal cones, picks a random legal move
+ * for every role in every lane that is still running, then evaluates the
+ * next-state cone. Lanes that reach a terminal state have their goals
+ * recorded and are frozen while the others carry on. Callers wanting more
+ * than 64 games per call can simply run the simulator several times.
+ *
+ * Instances keep per-batch scratch state and are not thread-safe; the
+ * network itself can be shared.
+ */
+public final class BatchPropNetSimulator
+{
+	/** Number of games played side by side. */
+	public static final int LANES = 64;
+
+	private final CompiledPropNet net;
+	private final Random random;
+	private final int numRoles;
+
+	/** Gates to evaluate before choosing moves, in topological order. */
+	private final int[] queryGates;
+	/** Gates to evaluate to find the next state, in topological order. */
+	private final int[] nextGates;
+	/** Gates to evaluate to read the goals, in topological order. */
+	private final int[] goalGates;
+
+	/** One word per component, holding its value in each lane. */
+	private final long[] values;
+	private final long[] nextBases;
+	/** Per lane, the number of legal moves of the role being chosen for. */
+	private final int[] legalCounts = new int[LANES];
+	/** Per lane, the legal slot chosen, counted down while it is located. */
+	private final int[] choices = new int[LANES];
+	/** Told about every step the running lanes take, or null. */
+	private Observer observer;
+
+	public BatchPropNetSimulator(CompiledPropNet net, Random random)
+	{
+		this.net = net;
+		this.random = random;
+		this.numRoles = net.getRoles().size();
+		this.queryGates = gatesIn(net, CompiledPropNet.CONE_LEGAL | CompiledPropNet.CONE_TERMINAL);
+		this.nextGates = gatesIn(net, CompiledPropNet.CONE_NEXT);
+		this.goalGates = gatesIn(net, CompiledPropNet.CONE_GOAL);
+		this.values = new long[net.getNumComponents()];
+		this.nextBases = new long[net.getNumBases()];
+	}
+
+	private static int[] gatesIn(CompiledPropNet net, int cones)
+	{
+		int[] coneMasks = net.getConeMasks();
+		int[] gates = new int[coneMasks.length];
+		int size = 0;
+		for (int c = net.getFirstGate(); c < coneMasks.length; c++) {
+			if ((coneMasks[c] & cones) != 0) {
+				gates[size++] = c;
+			}
+		}
+		return Arrays.copyOf(gates, size);
+	}
+
+	/**
+	 * Receives the steps of the games a simulator plays, for analyses that
+	 * learn about a game from random play.
+	 */
+	interface Observer
+	{
+		/**
+		 * Called just before the running lanes move to their next state.
+		 * Word <tt>i</tt> of <tt>bases</tt> and of <tt>next</tt> holds base
+		 * <tt>i</tt> in the current and next state of every lane; only the
+		 * lanes in <tt>running</tt> take the step.
+		 */
+		void observe(long[] bases, long[] next, long running);
+	}
+
+	void setObserver(Observer observer)
+	{
+		this.observer = observer;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The network this simulator plays.
+	 */
+	public CompiledPropNet getNet()
+	{
+		return net;
+	}
+
+	/**
+	 * Plays {@link #LANES} random games from the given base vector, laid out
+	 * as for {@link PropNetEvaluator}, until they end or <tt>maxDepth</tt>
+	 * joint moves have been played in them.
+	 *
+	 * <tt>goals[r][l]</tt> receives the goal of role <tt>r</tt> at the end of
+	 * lane <tt>l</tt>, or 0 if no goal proposition of the role holds there.
+	 * <tt>depths</tt>, if not null, receives the number of joint moves played
+	 * in each lane.
+	 *
+	 * @return The lanes whose game reached a terminal state, as a bit mask.
+	 */
+	public long performRollouts(long[] bases, int maxDepth, int[][] goals, int[] depths)
+	{
+		Arrays.fill(values, 0L);
+		for (int i = 0; i < net.getNumBases(); i++) {
+			if ((bases[i >>> 6] & (1L << i)) != 0) {
+				values[i] = -1L;
+			}
+		}
+		if (depths != null) {
+			Arrays.fill(depths, 0, LANES, 0);
+		}
+
+		long running = -1L;
+		long terminal = 0L;
+		for (int depth = 0; running != 0; depth++) {
+			evaluate(queryGates);
+			long ended = running & values[net.getTerminalComponent()];
+			terminal |= ended;
+			running &= ~ended;
+			if (depth == maxDepth) {
+				running = 0L;
+			}
+			if (running == 0) {
+				break;
+			}
+			clearInputs();
+			for (int r = 0; r < numRoles; r++) {
+				chooseMoves(r, running);
+			}
+			evaluate(nextGates);
+			advance(running);
+			if (depths != null) {
+				for (long bits = running; bits != 0; bits &= bits - 1) {
+					depths[Long.numberOfTrailingZeros(bits)]++;
+				}
+			}
+		}
+
+		evaluate(goalGates);
+		for (int r = 0; r < numRoles; r++) {
+			readGoals(r, goals[r]);
+		}
+		return terminal;
+	}
+
+	/**
+	 * Sets the input of one random legal move of a role in every running
+	 * lane. Lanes where the role has no legal move get no input.
+	 */
+	private void chooseMoves(int r, long running)
+	{
+		int[] legals = net.getLegalComponents(r);
+		int[] legalInputs = net.getLegalInputs(r);
+		Arrays.fill(legalCounts, 0);
+		for (int k = 0; k < legals.length; k++) {
+			for (long bits = values[legals[k]] & running; bits != 0; bits &= bits - 1) {
+				legalCounts[Long.numberOfTrailingZeros(bits)]++;
+			}
+		}
+		long choosing = 0L;
+		for (long bits = running; bits != 0; bits &= bits - 1) {
+			int lane = Long.numberOfTrailingZeros(bits);
+			if (legalCounts[lane] > 0) {
+				choices[lane] = random.nextInt(legalCounts[lane]);
+				choosing |= 1L << lane;
+			}
+		}
+		int firstInput = net.getNumBases();
+		for (int k = 0; k < legals.length && choosing != 0; k++) {
+			for (long bits = values[legals[k]] & choosing; bits != 0; bits &= bits - 1) {
+				int lane = Long.numberOfTrailingZeros(bits);
+				if (choices[lane]-- == 0) {
+					if (legalInputs[k] >= 0) {
+						values[firstInput + legalInputs[k]] |= 1L << lane;
+					}
+					choosing &= ~(1L << lane);
+				}
+			}
+		}
+	}
+
+	private void clearInputs()
+	{
+		int firstInput = net.getNumBases();
+		Arrays.fill(values, firstInput, firstInput + net.getNumInputs(), 0L);
+	}
+
+	/**
+	 * Moves the running lanes to their next state, leaving the others as
+	 * they are.
+	 */
+	private void advance(long running)
+	{
+		int[] transitions = net.getBaseTransitions();
+		for (int i = 0; i < transitions.length; i++) {
+			nextBases[i] = values[transitions[i]];
+		}
+		if (observer != null) {
+			observer.observe(values, nextBases, running);
+		}
+		for (int i = 0; i < transitions.length; i++) {
+			values[i] = (nextBases[i] & running) | (values[i] & ~running);
+		}
+	}
+
+	private void readGoals(int r, int[] goals)
+	{
+		int[] components = net.getGoalComponents(r);
+		int[] goalValues = net.getGoalValues(r);
+		Arrays.fill(goals, 0, LANES, 0);
+		long unset = -1L;
+		for (int k = 0; k < components.length && unset != 0; k++) {
+			long bits = values[components[k]] & unset;
+			unset &= ~bits;
+			for (; bits != 0; bits &= bits - 1) {
+				goals[Long.numberOfTrailingZeros(bits)] = goalValues[k];
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the given gates in all lanes at once.
+	 */
+	private void evaluate(int[] gates)
+	{
+		int[] types = net.getTypes();
+		int[] offsets = net.getInputOffsets();
+		int[] inputs = net.getInputs();
+		for (int c : gates) {
+			long value;
+			switch (types[c]) {
+			case CompiledPropNet.TYPE_COPY:
+				value = values[inputs[offsets[c]]];
+				break;
+			case CompiledPropNet.TYPE_NOT:
+				value = ~values[inputs[offsets[c]]];
+				break;
+			case CompiledPropNet.TYPE_AND:
+				value = -1L;
+				for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+					value &= values[inputs[k]];
+				}
+				break;
+			case CompiledPropNet.TYPE_OR:
+				value = 0L;
+				for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+					value |= values[inputs[k]];
+				}
+				break;
+			case CompiledPropNet.TYPE_TRUE:
+				value = -1L;
+				break;
+			default:
+				value = 0L;
+				break;
+			}
+			values[c] = value;
+		}
+	}
+}
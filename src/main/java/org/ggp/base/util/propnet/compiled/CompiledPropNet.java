@@ -0,0 +1,810 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+
+/**
+ * The CompiledPropNet class is an immutable, array-backed rendering of a
+ * {@link PropNet}.
+ *
+ * Every component of the source network is assigned an integer index, and
+ * the wiring is flattened into offset/target arrays in the usual compressed
+ * sparse row layout: the inputs of component <tt>c</tt> are
+ * <tt>inputs[inputOffsets[c]]</tt> through
+ * <tt>inputs[inputOffsets[c + 1] - 1]</tt>, and likewise for outputs.
+ *
+ * Indices are laid out so that a single forward sweep over them is a valid
+ * evaluation order:
+ *
+ * <ul>
+ * <li>[0, numBases) are the base propositions,</li>
+ * <li>[numBases, numBases + numInputs) are the input propositions,</li>
+ * <li>the init proposition (if any) follows the inputs,</li>
+ * <li>every remaining component follows in topological order.</li>
+ * </ul>
+ *
+ * The edge from a transition to its base proposition is deliberately not
+ * part of the compiled wiring; instead {@link #getBaseTransitions()} records
+ * which transition feeds each base, so that the network is acyclic.
+ *
+ * Nothing in this class is mutated after construction, so a single instance
+ * can be shared freely between threads. Per-evaluation state (the values of
+ * the components) lives in the engines that use it.
+ */
+public final class CompiledPropNet
+{
+	/** A source: a base, input or init proposition, set from outside. */
+	public static final int TYPE_SOURCE = 0;
+	/** A proposition or transition, which copies its single input. */
+	public static final int TYPE_COPY = 1;
+	/** A logical AND gate. */
+	public static final int TYPE_AND = 2;
+	/** A logical OR gate. */
+	public static final int TYPE_OR = 3;
+	/** A logical NOT gate. */
+	public static final int TYPE_NOT = 4;
+	/** A component whose value is always true. */
+	public static final int TYPE_TRUE = 5;
+	/** A component whose value is always false. */
+	public static final int TYPE_FALSE = 6;
+
+	/** Cone bit: the component feeds some transition. */
+	public static final int CONE_NEXT = 1;
+	/** Cone bit: the component feeds some legal proposition. */
+	public static final int CONE_LEGAL = 2;
+	/** Cone bit: the component feeds some goal proposition. */
+	public static final int CONE_GOAL = 4;
+	/** Cone bit: the component feeds the terminal proposition. */
+	public static final int CONE_TERMINAL = 8;
+
+	private final int numComponents;
+	private final int numBases;
+	private final int numInputs;
+	private final int firstGate;
+
+	private final int[] types;
+	private final int[] inputOffsets;
+	private final int[] inputs;
+	private final int[] outputOffsets;
+	private final int[] outputs;
+
+	private final int[] baseTransitions;
+	private final int[] initialBases;
+	private final int initComponent;
+	private final int terminalComponent;
+
+	private final List<Role> roles;
+	private final GdlSentence[] baseNames;
+	private final GdlSentence[] inputNames;
+	private final Map<GdlSentence, Integer> baseIndices;
+	private final int[] baseHashCodes;
+	private final long[] zobristKeys;
+
+	private final int[][] legalComponents;
+	private final int[] legalRoles;
+	private final int[] legalSlots;
+	private final int[] coneMasks;
+	private final int[][] legalInputs;
+	private final Move[][] legalMoves;
+	private final int[][] goalComponents;
+	private final int[][] goalValues;
+
+	private final int[] inputRoles;
+	private final Move[] inputMoves;
+	private final List<Map<Move, Integer>> inputIndicesByMove;
+
+	/**
+	 * Builds a network from its arrays, which are taken over, not copied.
+	 * Used by {@link #compile(PropNet)} and {@link CompiledPropNetCache}.
+	 */
+	CompiledPropNet(int numBases, int numInputs, int firstGate, int[] types,
+			int[] inputOffsets, int[] inputs, int[] outputOffsets, int[] outputs,
+			int[] baseTransitions, int[] initialBases, int initComponent, int terminalComponent,
+			List<Role> roles, GdlSentence[] baseNames, GdlSentence[] inputNames,
+			int[][] legalComponents, int[][] legalInputs, Move[][] legalMoves,
+			int[][] goalComponents, int[][] goalValues, int[] inputRoles, Move[] inputMoves,
+			List<Map<Move, Integer>> inputIndicesByMove)
+	{
+		this.numComponents = types.length;
+		this.numBases = numBases;
+		this.numInputs = numInputs;
+		this.firstGate = firstGate;
+		this.types = types;
+		this.inputOffsets = inputOffsets;
+		this.inputs = inputs;
+		this.outputOffsets = outputOffsets;
+		this.outputs = outputs;
+		this.baseTransitions = baseTransitions;
+		this.initialBases = initialBases;
+		this.initComponent = initComponent;
+		this.terminalComponent = terminalComponent;
+		this.roles = roles;
+		this.baseNames = baseNames;
+		this.inputNames = inputNames;
+		this.legalComponents = legalComponents;
+		this.legalInputs = legalInputs;
+		this.legalMoves = legalMoves;
+		this.goalComponents = goalComponents;
+		this.goalValues = goalValues;
+		this.inputRoles = inputRoles;
+		this.inputMoves = inputMoves;
+		this.inputIndicesByMove = inputIndicesByMove;
+
+		this.legalRoles = new int[numComponents];
+		this.legalSlots = new int[numComponents];
+		Arrays.fill(legalRoles, -1);
+		Arrays.fill(legalSlots, -1);
+		for (int r = 0; r < legalComponents.length; r++) {
+			for (int k = 0; k < legalComponents[r].length; k++) {
+				legalRoles[legalComponents[r][k]] = r;
+				legalSlots[legalComponents[r][k]] = k;
+			}
+		}
+
+		this.coneMasks = new int[numComponents];
+		markCone(baseTransitions, CONE_NEXT);
+		for (int r = 0; r < legalComponents.length; r++) {
+			markCone(legalComponents[r], CONE_LEGAL);
+			markCone(goalComponents[r], CONE_GOAL);
+		}
+		markCone(new int[] {terminalComponent}, CONE_TERMINAL);
+
+		this.baseIndices = new HashMap<GdlSentence, Integer>();
+		this.baseHashCodes = new int[numBases];
+		for (int i = 0; i < numBases; i++) {
+			baseIndices.put(baseNames[i], i);
+			baseHashCodes[i] = baseNames[i].hashCode();
+		}
+
+		// Zobrist keys only need to look random and be the same for every
+		// machine over this network, so they are a fixed mix of the index.
+		this.zobristKeys = new long[numBases];
+		for (int i = 0; i < numBases; i++) {
+			long z = (i + 1) * 0x9E3779B97F4A7C15L;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			zobristKeys[i] = z ^ (z >>> 31);
+		}
+	}
+
+	/**
+	 * Adds the given cone bit to the targets and everything they depend on.
+	 */
+	private void markCone(int[] targets, int cone)
+	{
+		int[] stack = new int[numComponents];
+		int size = 0;
+		for (int target : targets) {
+			if ((coneMasks[target] & cone) == 0) {
+				coneMasks[target] |= cone;
+				stack[size++] = target;
+			}
+		}
+		while (size > 0) {
+			int c = stack[--size];
+			for (int k = inputOffsets[c]; k < inputOffsets[c + 1]; k++) {
+				if ((coneMasks[inputs[k]] & cone) == 0) {
+					coneMasks[inputs[k]] |= cone;
+					stack[size++] = inputs[k];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compiles the given PropNet into its array-backed form. The PropNet
+	 * itself is not modified, and is not referenced by the result.
+	 *
+	 * @throws IllegalArgumentException if the network contains a cycle that
+	 * does not pass through a transition.
+	 */
+	public static CompiledPropNet compile(PropNet propNet)
+	{
+		return compile(propNet, new HashMap<Component, Integer>());
+	}
+
+	/**
+	 * Compiles the given PropNet, and records the index assigned to each of
+	 * its components in the given map, which should be empty. Engines that
+	 * need to find components the compiled network does not name, such as
+	 * the sees propositions of an incomplete information game, look them up
+	 * there.
+	 *
+	 * @throws IllegalArgumentException if the network contains a cycle that
+	 * does not pass through a transition.
+	 */
+	public static CompiledPropNet compile(PropNet propNet, Map<Component, Integer> indices)
+	{
+		List<Role> roles = propNet.getRoles();
+		List<Component> order = new ArrayList<Component>(propNet.getComponents().size());
+
+		// Sources come first, in a fixed layout.
+		List<Proposition> bases = new ArrayList<Proposition>(propNet.getBasePropositions().values());
+		List<Proposition> inputProps = new ArrayList<Proposition>(propNet.getInputPropositions().values());
+		for (Proposition p : bases) {
+			indices.put(p, order.size());
+			order.add(p);
+		}
+		for (Proposition p : inputProps) {
+			indices.put(p, order.size());
+			order.add(p);
+		}
+		Proposition init = propNet.getInitProposition();
+		if (init != null && !indices.containsKey(init)) {
+			indices.put(init, order.size());
+			order.add(init);
+		}
+		int firstGate = order.size();
+
+		// Kahn's algorithm over everything else. Edges into sources are the
+		// transition-to-base links, which are exactly the ones we cut.
+		Map<Component, Integer> pendingInputs = new HashMap<Component, Integer>();
+		Queue<Component> ready = new ArrayDeque<Component>();
+		for (Component c : propNet.getComponents()) {
+			if (indices.containsKey(c)) {
+				continue;
+			}
+			int count = 0;
+			for (Component in : c.getInputs()) {
+				if (!indices.containsKey(in)) {
+					count++;
+				}
+			}
+			if (count == 0) {
+				ready.add(c);
+			} else {
+				pendingInputs.put(c, count);
+			}
+		}
+		while (!ready.isEmpty()) {
+			Component c = ready.remove();
+			indices.put(c, order.size());
+			order.add(c);
+			release(c, pendingInputs, ready);
+		}
+		if (order.size() != propNet.getComponents().size()) {
+			throw new IllegalArgumentException("PropNet contains a cycle that does not pass through a transition");
+		}
+
+		int n = order.size();
+		int[] types = new int[n];
+		int[] inputOffsets = new int[n + 1];
+		int[] outputOffsets = new int[n + 1];
+		List<Integer> inputList = new ArrayList<Integer>();
+		List<Integer> outputList = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++) {
+			Component c = order.get(i);
+			types[i] = typeOf(c, i < firstGate);
+			inputOffsets[i] = inputList.size();
+			if (i >= firstGate) {
+				for (Component in : c.getInputs()) {
+					inputList.add(indices.get(in));
+				}
+			}
+			outputOffsets[i] = outputList.size();
+			if (!(c instanceof Transition)) {
+				for (Component out : c.getOutputs()) {
+					outputList.add(indices.get(out));
+				}
+			}
+		}
+		inputOffsets[n] = inputList.size();
+		outputOffsets[n] = outputList.size();
+
+		int[] baseTransitions = new int[bases.size()];
+		GdlSentence[] baseNames = new GdlSentence[bases.size()];
+		List<Integer> initialBases = new ArrayList<Integer>();
+		for (int i = 0; i < bases.size(); i++) {
+			baseNames[i] = bases.get(i).getName();
+			Component transition = bases.get(i).getSingleInput();
+			baseTransitions[i] = indices.get(transition);
+			if (init != null && isSetByInit(transition, init)) {
+				initialBases.add(i);
+			}
+		}
+
+		List<Map<Move, Integer>> inputIndicesByMove = new ArrayList<Map<Move, Integer>>(roles.size());
+		for (int r = 0; r < roles.size(); r++) {
+			inputIndicesByMove.add(new HashMap<Move, Integer>());
+		}
+		GdlSentence[] inputNames = new GdlSentence[inputProps.size()];
+		int[] inputRoles = new int[inputProps.size()];
+		Move[] inputMoves = new Move[inputProps.size()];
+		for (int i = 0; i < inputProps.size(); i++) {
+			GdlRelation relation = (GdlRelation) inputProps.get(i).getName();
+			inputNames[i] = relation;
+			inputRoles[i] = roles.indexOf(new Role((GdlConstant) relation.get(0)));
+			inputMoves[i] = new Move(relation.get(1));
+			if (inputRoles[i] >= 0) {
+				inputIndicesByMove.get(inputRoles[i]).put(inputMoves[i], i);
+			}
+		}
+
+		int[][] legalComponents = new int[roles.size()][];
+		int[][] legalInputs = new int[roles.size()][];
+		Move[][] legalMoves = new Move[roles.size()][];
+		int[][] goalComponents = new int[roles.size()][];
+		int[][] goalValues = new int[roles.size()][];
+		for (int r = 0; r < roles.size(); r++) {
+			Role role = roles.get(r);
+			List<Proposition> legals = asList(propNet.getLegalPropositions().get(role));
+			legalComponents[r] = new int[legals.size()];
+			legalInputs[r] = new int[legals.size()];
+			legalMoves[r] = new Move[legals.size()];
+			for (int k = 0; k < legals.size(); k++) {
+				Proposition legal = legals.get(k);
+				legalComponents[r][k] = indices.get(legal);
+				legalMoves[r][k] = new Move(legal.getName().get(1));
+				Integer input = inputIndicesByMove.get(r).get(legalMoves[r][k]);
+				legalInputs[r][k] = (input == null) ? -1 : input;
+			}
+
+			List<Proposition> goals = asList(propNet.getGoalPropositions().get(role));
+			goalComponents[r] = new int[goals.size()];
+			goalValues[r] = new int[goals.size()];
+			for (int k = 0; k < goals.size(); k++) {
+				Proposition goal = goals.get(k);
+				goalComponents[r][k] = indices.get(goal);
+				GdlConstant value = (GdlConstant) ((GdlRelation) goal.getName()).get(1);
+				goalValues[r][k] = Integer.parseInt(value.getValue());
+			}
+		}
+
+		int initComponent = (init == null) ? -1 : indices.get(init);
+		int terminalComponent = indices.get(propNet.getTerminalProposition());
+
+		return new CompiledPropNet(bases.size(), inputProps.size(), firstGate, types,
+				inputOffsets, toArray(inputList), outputOffsets, toArray(outputList),
+				baseTransitions, toArray(initialBases), initComponent, terminalComponent, roles, baseNames, inputNames,
+				legalComponents, legalInputs, legalMoves, goalComponents, goalValues,
+				inputRoles, inputMoves, inputIndicesByMove);
+	}
+
+	private static void release(Component c, Map<Component, Integer> pendingInputs, Queue<Component> ready)
+	{
+		if (c instanceof Transition) {
+			return;
+		}
+		for (Component out : c.getOutputs()) {
+			Integer pending = pendingInputs.get(out);
+			if (pending == null) {
+				continue;
+			}
+			if (pending == 1) {
+				pendingInputs.remove(out);
+				ready.add(out);
+			} else {
+				pendingInputs.put(out, pending - 1);
+			}
+		}
+	}
+
+	/**
+	 * The factory wires each (init ...) fact either straight into the
+	 * transition of its base, or into an OR in front of that transition.
+	 * Those bases, and only those, make up the initial state; evaluating
+	 * the whole network with init set would also pick up any next rule
+	 * that happens to hold in the empty state.
+	 *
+	 * The exception is a base with an unconditional next rule: the factory
+	 * then wires the TRUE constant straight into the transition and drops
+	 * its (init ...) fact, if any. Such a base holds in every later state,
+	 * and is taken to hold in the initial one too.
+	 */
+	private static boolean isSetByInit(Component transition, Proposition init)
+	{
+		Component input = transition.getSingleInput();
+		if (input instanceof Constant) {
+			return input.getValue();
+		}
+		return input == init || (input instanceof Or && input.getInputs().contains(init));
+	}
+
+	private static int typeOf(Component c, boolean isSource)
+	{
+		if (isSource) {
+			return TYPE_SOURCE;
+		} else if (c instanceof And) {
+			return TYPE_AND;
+		} else if (c instanceof Or) {
+			return TYPE_OR;
+		} else if (c instanceof Not) {
+			return TYPE_NOT;
+		} else if (c instanceof Constant) {
+			return c.getValue() ? TYPE_TRUE : TYPE_FALSE;
+		} else if (c.getInputs().isEmpty()) {
+			// A proposition that nothing can ever make true.
+			return TYPE_FALSE;
+		} else if (c.getInputs().size() > 1) {
+			// A proposition with several definitions holds their disjunction.
+			return TYPE_OR;
+		}
+		return TYPE_COPY;
+	}
+
+	private static List<Proposition> asList(Set<Proposition> props)
+	{
+		if (props == null) {
+			return new ArrayList<Proposition>();
+		}
+		return new ArrayList<Proposition>(props);
+	}
+
+	private static int[] toArray(List<Integer> list)
+	{
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The total number of components.
+	 */
+	public int getNumComponents()
+	{
+		return numComponents;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of base propositions; they occupy indices
+	 *         [0, numBases).
+	 */
+	public int getNumBases()
+	{
+		return numBases;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of input propositions; they occupy indices
+	 *         [numBases, numBases + numInputs).
+	 */
+	public int getNumInputs()
+	{
+		return numInputs;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The index of the first component that is not a source. Every
+	 *         component from here on can be evaluated in index order.
+	 */
+	public int getFirstGate()
+	{
+		return firstGate;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return The TYPE_* constant of every component.
+	 */
+	public int[] getTypes()
+	{
+		return types;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return Offsets into {@link #getInputs()}, one per component plus a
+	 *         trailing sentinel.
+	 */
+	public int[] getInputOffsets()
+	{
+		return inputOffsets;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return The flattened input lists of every component.
+	 */
+	public int[] getInputs()
+	{
+		return inputs;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return Offsets into {@link #getOutputs()}, one per component plus a
+	 *         trailing sentinel.
+	 */
+	public int[] getOutputOffsets()
+	{
+		return outputOffsets;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return The flattened output lists of every component. Transitions
+	 *         have no outputs here.
+	 */
+	public int[] getOutputs()
+	{
+		return outputs;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return For every base proposition, the index of the transition whose
+	 *         value it takes on in the next state.
+	 */
+	public int[] getBaseTransitions()
+	{
+		return baseTransitions;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return The indices of the base propositions that are true in the
+	 *         initial state.
+	 */
+	public int[] getInitialBases()
+	{
+		return initialBases;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The index of the init proposition, or -1 if there is none.
+	 */
+	public int getInitComponent()
+	{
+		return initComponent;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The index of the terminal proposition.
+	 */
+	public int getTerminalComponent()
+	{
+		return terminalComponent;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The roles of the game, in game description order.
+	 */
+	public List<Role> getRoles()
+	{
+		return roles;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The name of the base proposition with the given index.
+	 */
+	public GdlSentence getBaseName(int base)
+	{
+		return baseNames[base];
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The hash code of the name of the base proposition with the
+	 *         given index.
+	 */
+	public int getBaseHashCode(int base)
+	{
+		return baseHashCodes[base];
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The Zobrist key of the base proposition with the given index:
+	 *         a state's Zobrist hash is the exclusive or of the keys of its
+	 *         true bases.
+	 */
+	public long getZobristKey(int base)
+	{
+		return zobristKeys[base];
+	}
+
+	/**
+	 * Computes the Zobrist hash of a base vector from scratch. Unlike the
+	 * hash code of a state it is 64 bits wide, which makes it usable as the
+	 * key of a transposition table, and it can be updated one base at a time.
+	 */
+	public long getZobristHash(long[] bases)
+	{
+		long hash = 0;
+		for (int w = 0; w < bases.length; w++) {
+			for (long bits = bases[w]; bits != 0; bits &= bits - 1) {
+				hash ^= zobristKeys[(w << 6) + Long.numberOfTrailingZeros(bits)];
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The name of the input proposition with the given index, where
+	 *         inputs are numbered from zero.
+	 */
+	public GdlSentence getInputName(int input)
+	{
+		return inputNames[input];
+	}
+
+	/**
+	 * Looks up a base proposition by name.
+	 *
+	 * @return The index of the base, or -1 if there is no such base.
+	 */
+	public int getBaseIndex(GdlSentence sentence)
+	{
+		Integer index = baseIndices.get(sentence);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * Looks up the input proposition corresponding to a move.
+	 *
+	 * @return The index of the input (numbered from zero), or -1 if the
+	 *         move has no input proposition.
+	 */
+	public int getInputIndex(int role, Move move)
+	{
+		Integer index = inputIndicesByMove.get(role).get(move);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return The component indices of the legal propositions of a role.
+	 */
+	public int[] getLegalComponents(int role)
+	{
+		return legalComponents[role];
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return For every component, the role whose legal proposition it is,
+	 *         or -1 if it is not a legal proposition.
+	 */
+	public int[] getLegalRoles()
+	{
+		return legalRoles;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return For every component that is a legal proposition, its position
+	 *         in {@link #getLegalComponents(int)} for its role, or -1.
+	 */
+	public int[] getLegalSlots()
+	{
+		return legalSlots;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return For every component, the CONE_* bits of the queries whose
+	 *         answer depends on it. A component with no bits set never
+	 *         affects the game.
+	 */
+	public int[] getConeMasks()
+	{
+		return coneMasks;
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return For each legal proposition of a role, the index of the
+	 *         matching input (numbered from zero), or -1 if it has none.
+	 */
+	public int[] getLegalInputs(int role)
+	{
+		return legalInputs[role];
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return For each legal proposition of a role, the move it represents.
+	 */
+	public Move[] getLegalMoves(int role)
+	{
+		return legalMoves[role];
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return The component indices of the goal propositions of a role.
+	 */
+	public int[] getGoalComponents(int role)
+	{
+		return goalComponents[role];
+	}
+
+	/**
+	 * Getter method. The returned array must not be modified.
+	 *
+	 * @return For each goal proposition of a role, its goal value.
+	 */
+	public int[] getGoalValues(int role)
+	{
+		return goalValues[role];
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The role index of the input with the given index, or -1 if the
+	 *         input names an unknown role.
+	 */
+	public int getInputRole(int input)
+	{
+		return inputRoles[input];
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The move made by the input with the given index.
+	 */
+	public Move getInputMove(int input)
+	{
+		return inputMoves[input];
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of links between components, not counting the
+	 *         edges from transitions to their bases.
+	 */
+	public int getNumLinks()
+	{
+		return outputs.length;
+	}
+}
@@ -0,0 +1,324 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.crypto.BaseHashing;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.optimizer.PropNetOptimizer;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+
+
+/**
+ * The CompiledPropNetCache keeps compiled propnets on disk, so that a game
+ * seen before does not have to go through the propnet factory again.
+ *
+ * Entries are keyed by a SHA1 hash of the game rules and hold the arrays of
+ * a {@link CompiledPropNet} in a flat binary file, together with the names
+ * of its roles, propositions and moves. Loading one maps the file into
+ * memory and copies the arrays out in bulk; only the names go through the
+ * GDL parser.
+ *
+ * Files are written to a temporary name and renamed into place, so players
+ * sharing a cache directory never see half-written entries. An entry that
+ * cannot be read is logged and rebuilt.
+ */
+public final class CompiledPropNetCache
+{
+	/**
+	 * Changed whenever the file layout or the way networks are built changes,
+	 * which invalidates old entries.
+	 */
+	private static final int FORMAT_VERSION = 2;
+	private static final int MAGIC = 0x47475043 + FORMAT_VERSION;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File directory;
+
+	/**
+	 * Creates a cache in the default location, under the user's home
+	 * directory.
+	 */
+	public CompiledPropNetCache()
+	{
+		this(new File(System.getProperty("user.home"), ".ggp-propnet-cache"));
+	}
+
+	public CompiledPropNetCache(File directory)
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the compiled propnet for the given rules, from the cache if it
+	 * has one and from the propnet factory otherwise, building on all
+	 * available processors and optimizing the result. Newly built networks
+	 * are added to the cache; failing to write them is logged and otherwise
+	 * ignored.
+	 */
+	public CompiledPropNet getNet(List<Gdl> description) throws InterruptedException
+	{
+		File file = getFile(description);
+		if (file.exists()) {
+			try {
+				return load(file);
+			} catch (IOException e) {
+				GamerLogger.log("StateMachine", "Could not read cached propnet " + file + ": " + e.getMessage());
+			} catch (RuntimeException e) {
+				GamerLogger.logStackTrace("StateMachine", e);
+			}
+		}
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		PropNet propNet = OptimizingPropNetFactory.create(description, false, numThreads);
+		PropNetOptimizer.createDefault().optimize(propNet);
+		CompiledPropNet net = CompiledPropNet.compile(propNet);
+		try {
+			store(net, file);
+		} catch (IOException e) {
+			GamerLogger.log("StateMachine", "Could not cache propnet " + file + ": " + e.getMessage());
+		}
+		return net;
+	}
+
+	/**
+	 * Returns the file that holds, or would hold, the network for the given
+	 * rules.
+	 */
+	public File getFile(List<Gdl> description)
+	{
+		StringBuilder rules = new StringBuilder();
+		for (Gdl gdl : description) {
+			rules.append(gdl).append('\n');
+		}
+		return new File(directory, "propnet-v" + FORMAT_VERSION + "-" + BaseHashing.computeSHA1Hash(rules.toString()) + ".bin");
+	}
+
+	/**
+	 * Writes a network to the given file, replacing any existing one.
+	 */
+	public static void store(CompiledPropNet net, File file) throws IOException
+	{
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("cannot create " + parent);
+		}
+		File temp = File.createTempFile(file.getName(), ".tmp", parent);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				write(net, out);
+			}
+			if (!temp.renameTo(file)) {
+				// Some platforms refuse to rename over an existing file.
+				file.delete();
+				if (!temp.renameTo(file)) {
+					throw new IOException("cannot rename " + temp + " to " + file);
+				}
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Reads a network written by {@link #store(CompiledPropNet, File)}.
+	 *
+	 * @throws IOException if the file cannot be read, or was written by a
+	 * different version of this class.
+	 */
+	public static CompiledPropNet load(File file) throws IOException
+	{
+		try (FileInputStream in = new FileInputStream(file)) {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+				throw new IOException("not a propnet cache file of version " + FORMAT_VERSION);
+			}
+			return read(buffer);
+		} catch (GdlFormatException e) {
+			throw new IOException(e);
+		} catch (SymbolFormatException e) {
+			throw new IOException(e);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("truncated propnet cache file");
+		}
+	}
+
+	private static void write(CompiledPropNet net, DataOutputStream out) throws IOException
+	{
+		List<Role> roles = net.getRoles();
+		out.writeInt(MAGIC);
+		out.writeInt(net.getNumBases());
+		out.writeInt(net.getNumInputs());
+		out.writeInt(net.getFirstGate());
+		out.writeInt(net.getInitComponent());
+		out.writeInt(net.getTerminalComponent());
+		writeInts(out, net.getTypes());
+		writeInts(out, net.getInputOffsets());
+		writeInts(out, net.getInputs());
+		writeInts(out, net.getOutputOffsets());
+		writeInts(out, net.getOutputs());
+		writeInts(out, net.getBaseTransitions());
+		writeInts(out, net.getInitialBases());
+
+		out.writeInt(roles.size());
+		for (Role role : roles) {
+			writeString(out, role.getName().getValue());
+		}
+		for (int i = 0; i < net.getNumBases(); i++) {
+			writeString(out, net.getBaseName(i).toString());
+		}
+		for (int i = 0; i < net.getNumInputs(); i++) {
+			writeString(out, net.getInputName(i).toString());
+			out.writeInt(net.getInputRole(i));
+			writeString(out, net.getInputMove(i).getContents().toString());
+		}
+		for (int r = 0; r < roles.size(); r++) {
+			writeInts(out, net.getLegalComponents(r));
+			writeInts(out, net.getLegalInputs(r));
+			for (Move move : net.getLegalMoves(r)) {
+				writeString(out, move.getContents().toString());
+			}
+			writeInts(out, net.getGoalComponents(r));
+			writeInts(out, net.getGoalValues(r));
+		}
+	}
+
+	private static CompiledPropNet read(ByteBuffer in) throws IOException, GdlFormatException, SymbolFormatException
+	{
+		int numBases = in.getInt();
+		int numInputs = in.getInt();
+		int firstGate = in.getInt();
+		int initComponent = in.getInt();
+		int terminalComponent = in.getInt();
+		int[] types = readInts(in);
+		int[] inputOffsets = readInts(in);
+		int[] inputs = readInts(in);
+		int[] outputOffsets = readInts(in);
+		int[] outputs = readInts(in);
+		int[] baseTransitions = readInts(in);
+		int[] initialBases = readInts(in);
+
+		int numRoles = checkCount(in, in.getInt(), 4);
+		List<Role> roles = new ArrayList<Role>(numRoles);
+		for (int r = 0; r < numRoles; r++) {
+			roles.add(new Role(GdlPool.getConstant(readString(in))));
+		}
+		GdlSentence[] baseNames = new GdlSentence[checkCount(in, numBases, 4)];
+		for (int i = 0; i < numBases; i++) {
+			baseNames[i] = (GdlSentence) GdlFactory.create(readString(in));
+		}
+		List<Map<Move, Integer>> inputIndicesByMove = new ArrayList<Map<Move, Integer>>(numRoles);
+		for (int r = 0; r < numRoles; r++) {
+			inputIndicesByMove.add(new HashMap<Move, Integer>());
+		}
+		GdlSentence[] inputNames = new GdlSentence[checkCount(in, numInputs, 12)];
+		int[] inputRoles = new int[numInputs];
+		Move[] inputMoves = new Move[numInputs];
+		for (int i = 0; i < numInputs; i++) {
+			inputNames[i] = (GdlSentence) GdlFactory.create(readString(in));
+			inputRoles[i] = in.getInt();
+			inputMoves[i] = new Move(GdlFactory.createTerm(readString(in)));
+			if (inputRoles[i] >= 0) {
+				inputIndicesByMove.get(inputRoles[i]).put(inputMoves[i], i);
+			}
+		}
+		int[][] legalComponents = new int[numRoles][];
+		int[][] legalInputs = new int[numRoles][];
+		Move[][] legalMoves = new Move[numRoles][];
+		int[][] goalComponents = new int[numRoles][];
+		int[][] goalValues = new int[numRoles][];
+		for (int r = 0; r < numRoles; r++) {
+			legalComponents[r] = readInts(in);
+			legalInputs[r] = readInts(in);
+			legalMoves[r] = new Move[legalComponents[r].length];
+			for (int k = 0; k < legalMoves[r].length; k++) {
+				legalMoves[r][k] = new Move(GdlFactory.createTerm(readString(in)));
+			}
+			goalComponents[r] = readInts(in);
+			goalValues[r] = readInts(in);
+		}
+
+		if (inputOffsets.length != types.length + 1 || outputOffsets.length != types.length + 1
+				|| baseTransitions.length != numBases) {
+			throw new IOException("inconsistent propnet cache file");
+		}
+		return new CompiledPropNet(numBases, numInputs, firstGate, types,
+				inputOffsets, inputs, outputOffsets, outputs,
+				baseTransitions, initialBases, initComponent, terminalComponent, roles, baseNames, inputNames,
+				legalComponents, legalInputs, legalMoves, goalComponents, goalValues,
+				inputRoles, inputMoves, inputIndicesByMove);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException
+	{
+		out.writeInt(values.length);
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static int[] readInts(ByteBuffer in) throws IOException
+	{
+		int[] values = new int[readCount(in, 4)];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + 4 * values.length);
+		return values;
+	}
+
+	/**
+	 * Reads the length of an array whose elements take the given number of
+	 * bytes each.
+	 */
+	private static int readCount(ByteBuffer in, int bytesEach) throws IOException
+	{
+		return checkCount(in, in.getInt(), bytesEach);
+	}
+
+	/**
+	 * Checks that the rest of the file can hold the given number of
+	 * elements of at least the given size, so that a corrupt count fails
+	 * like any other bad file instead of allocating a huge array.
+	 */
+	private static int checkCount(ByteBuffer in, int count, int bytesEach) throws IOException
+	{
+		if (count < 0 || count > in.remaining() / bytesEach) {
+			throw new IOException("corrupt propnet cache file");
+		}
+		return count;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) throws IOException
+	{
+		byte[] bytes = new byte[readCount(in, 1)];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
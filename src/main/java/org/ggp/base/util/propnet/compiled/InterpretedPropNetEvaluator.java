@@ -0,0 +1,130 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.util.Arrays;
+
+
+/**
+ * A PropNetEvaluator that walks the arrays of a {@link CompiledPropNet},
+ * evaluating every gate in index order on each call.
+ *
+ * This is the fallback for networks too large to turn into bytecode. It keeps
+ * a scratch vector of component values, so unlike generated evaluators an
+ * instance must not be shared between threads.
+ */
+public final class InterpretedPropNetEvaluator implements PropNetEvaluator
+{
+	private final CompiledPropNet net;
+	private final long[] values;
+
+	public InterpretedPropNetEvaluator(CompiledPropNet net)
+	{
+		this.net = net;
+		this.values = new long[(net.getNumComponents() + 63) >>> 6];
+	}
+
+	@Override
+	public boolean isTerminal(long[] bases)
+	{
+		evaluate(bases, null);
+		return get(net.getTerminalComponent());
+	}
+
+	@Override
+	public int getGoal(long[] bases, int role)
+	{
+		evaluate(bases, null);
+		int[] goals = net.getGoalComponents(role);
+		for (int k = 0; k < goals.length; k++) {
+			if (get(goals[k])) {
+				return net.getGoalValues(role)[k];
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void getLegals(long[] bases, int role, boolean[] legals)
+	{
+		evaluate(bases, null);
+		int[] components = net.getLegalComponents(role);
+		for (int k = 0; k < components.length; k++) {
+			legals[k] = get(components[k]);
+		}
+	}
+
+	@Override
+	public void getNextState(long[] bases, long[] inputs, long[] next)
+	{
+		evaluate(bases, inputs);
+		int[] transitions = net.getBaseTransitions();
+		Arrays.fill(next, 0L);
+		for (int i = 0; i < transitions.length; i++) {
+			if (get(transitions[i])) {
+				next[i >>> 6] |= 1L << i;
+			}
+		}
+	}
+
+	private void evaluate(long[] bases, long[] inputs)
+	{
+		Arrays.fill(values, 0L);
+		for (int i = 0; i < net.getNumBases(); i++) {
+			if ((bases[i >>> 6] & (1L << i)) != 0) {
+				set(i);
+			}
+		}
+		if (inputs != null) {
+			for (int i = 0; i < net.getNumInputs(); i++) {
+				if ((inputs[i >>> 6] & (1L << i)) != 0) {
+					set(net.getNumBases() + i);
+				}
+			}
+		}
+
+		int[] types = net.getTypes();
+		int[] offsets = net.getInputOffsets();
+		int[] in = net.getInputs();
+		for (int c = net.getFirstGate(); c < types.length; c++) {
+			boolean value;
+			switch (types[c]) {
+			case CompiledPropNet.TYPE_COPY:
+				value = get(in[offsets[c]]);
+				break;
+			case CompiledPropNet.TYPE_NOT:
+				value = !get(in[offsets[c]]);
+				break;
+			case CompiledPropNet.TYPE_AND:
+				value = true;
+				for (int k = offsets[c]; k < offsets[c + 1] && value; k++) {
+					value = get(in[k]);
+				}
+				break;
+			case CompiledPropNet.TYPE_OR:
+				value = false;
+				for (int k = offsets[c]; k < offsets[c + 1] && !value; k++) {
+					value = get(in[k]);
+				}
+				break;
+			case CompiledPropNet.TYPE_TRUE:
+				value = true;
+				break;
+			default:
+				value = false;
+				break;
+			}
+			if (value) {
+				set(c);
+			}
+		}
+	}
+
+	private boolean get(int c)
+	{
+		return (values[c >>> 6] & (1L << c)) != 0;
+	}
+
+	private void set(int c)
+	{
+		values[c >>> 6] |= 1L << c;
+	}
+}
@@ -0,0 +1,408 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * The LatchAnalysis finds base propositions of a {@link CompiledPropNet}
+ * that can no longer change once they take a certain value.
+ *
+ * A base is a positive latch if, once true, it is true in every later state,
+ * whatever the moves and the rest of the state; a mark placed on a board is
+ * the usual example. It is a negative latch if, once false, it stays false,
+ * like the blank marker of a square that has been played. A base can be
+ * both, in which case it never changes at all. Bases that are negative
+ * latches and false in the initial state are false in every reachable state.
+ *
+ * Candidates come from random games played with a
+ * {@link BatchPropNetSimulator}: a base that was never seen to go from true
+ * to false may be a positive latch, and one never seen to go from false to
+ * true may be a negative latch. Each candidate is then checked against the
+ * network by evaluating the cone of its transition in three-valued logic,
+ * with the base fixed at its latched value and every other base and input
+ * unknown. Only candidates whose transition comes out at that same value are
+ * reported, so the result is exact, if not complete: a latch that only holds
+ * in reachable states is missed, never the other way round.
+ *
+ * The same games also yield groups of bases that were never true together,
+ * such as the possible contents of one board square. These groups are only
+ * observations and are not checked against the network.
+ */
+public final class LatchAnalysis
+{
+	/** Number of batches of random games played to find candidates. */
+	private static final int DEFAULT_BATCHES = 4;
+	/** Length at which random games are cut off. */
+	private static final int MAX_DEPTH = 1000;
+	/** Largest network for which groups of exclusive bases are collected. */
+	private static final int MAX_GROUP_BASES = 4096;
+
+	private static final byte FALSE = 0;
+	private static final byte TRUE = 1;
+	private static final byte UNKNOWN = 2;
+
+	private final CompiledPropNet net;
+	private final long[] positiveLatches;
+	private final long[] negativeLatches;
+	private final List<int[]> exclusiveGroups;
+
+	private LatchAnalysis(CompiledPropNet net, long[] positiveLatches, long[] negativeLatches, List<int[]> exclusiveGroups)
+	{
+		this.net = net;
+		this.positiveLatches = positiveLatches;
+		this.negativeLatches = negativeLatches;
+		this.exclusiveGroups = exclusiveGroups;
+	}
+
+	/**
+	 * Analyzes a network, playing a few batches of random games to find
+	 * candidates.
+	 */
+	public static LatchAnalysis analyze(CompiledPropNet net, Random random)
+	{
+		return analyze(net, DEFAULT_BATCHES, random);
+	}
+
+	/**
+	 * Analyzes a network, playing the given number of batches of
+	 * {@link BatchPropNetSimulator#LANES} random games to find candidates.
+	 * More games rule out more false candidates before the exact check, but
+	 * do not change which latches are found.
+	 */
+	public static LatchAnalysis analyze(CompiledPropNet net, int numBatches, Random random)
+	{
+		int numBases = net.getNumBases();
+		int numWords = (numBases + 63) >>> 6;
+		long[] initial = new long[numWords];
+		for (int base : net.getInitialBases()) {
+			initial[base >>> 6] |= 1L << base;
+		}
+
+		Recorder recorder = new Recorder(numBases, numBases <= MAX_GROUP_BASES);
+		recorder.observeState(initial);
+		BatchPropNetSimulator simulator = new BatchPropNetSimulator(net, random);
+		simulator.setObserver(recorder);
+		int[][] goals = new int[net.getRoles().size()][BatchPropNetSimulator.LANES];
+		for (int b = 0; b < numBatches; b++) {
+			simulator.performRollouts(initial, MAX_DEPTH, goals, null);
+		}
+
+		long[] positive = new long[numWords];
+		long[] negative = new long[numWords];
+		Evaluator evaluator = new Evaluator(net);
+		for (int i = 0; i < numBases; i++) {
+			long bit = 1L << i;
+			if ((recorder.falls[i >>> 6] & bit) == 0 && evaluator.holds(i, true)) {
+				positive[i >>> 6] |= bit;
+			}
+			if ((recorder.rises[i >>> 6] & bit) == 0 && evaluator.holds(i, false)) {
+				negative[i >>> 6] |= bit;
+			}
+		}
+		List<int[]> groups = recorder.together == null ? Collections.<int[]>emptyList() : recorder.findGroups();
+		return new LatchAnalysis(net, positive, negative, groups);
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The network this analysis is about.
+	 */
+	public CompiledPropNet getNet()
+	{
+		return net;
+	}
+
+	/**
+	 * Returns whether a base, once true, stays true in every later state.
+	 */
+	public boolean isPositiveLatch(int base)
+	{
+		return (positiveLatches[base >>> 6] & (1L << base)) != 0;
+	}
+
+	/**
+	 * Returns whether a base, once false, stays false in every later state.
+	 */
+	public boolean isNegativeLatch(int base)
+	{
+		return (negativeLatches[base >>> 6] & (1L << base)) != 0;
+	}
+
+	/**
+	 * Returns whether a base keeps its value in the given state, laid out as
+	 * for {@link PropNetEvaluator}, for the rest of the game.
+	 */
+	public boolean isLatched(long[] bases, int base)
+	{
+		long bit = 1L << base;
+		boolean value = (bases[base >>> 6] & bit) != 0;
+		return ((value ? positiveLatches : negativeLatches)[base >>> 6] & bit) != 0;
+	}
+
+	/**
+	 * Returns the number of bases that are positive or negative latches.
+	 */
+	public int getNumLatches()
+	{
+		int count = 0;
+		for (int w = 0; w < positiveLatches.length; w++) {
+			count += Long.bitCount(positiveLatches[w] | negativeLatches[w]);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns groups of at least two bases, in increasing index order, no two
+	 * of which were true together in any state seen during the analysis.
+	 * Each base is in at most one group. The list is empty for networks with
+	 * more bases than are worth comparing pairwise.
+	 */
+	public List<int[]> getExclusiveGroups()
+	{
+		return exclusiveGroups;
+	}
+
+	/**
+	 * Collects, over the simulated games, which bases ever rose or fell and
+	 * which were true together.
+	 */
+	private static final class Recorder implements BatchPropNetSimulator.Observer
+	{
+		private final int numBases;
+		final long[] rises;
+		final long[] falls;
+		/** For every base, the bases seen true in the same state, or null. */
+		final long[][] together;
+		private final int[] trueBases;
+		private final long[] laneState;
+
+		Recorder(int numBases, boolean collectGroups)
+		{
+			int numWords = (numBases + 63) >>> 6;
+			this.numBases = numBases;
+			this.rises = new long[numWords];
+			this.falls = new long[numWords];
+			this.together = collectGroups ? new long[numBases][numWords] : null;
+			this.trueBases = new int[numBases];
+			this.laneState = new long[numWords];
+		}
+
+		@Override
+		public void observe(long[] bases, long[] next, long running)
+		{
+			for (int i = 0; i < numBases; i++) {
+				long bit = 1L << i;
+				if ((~bases[i] & next[i] & running) != 0) {
+					rises[i >>> 6] |= bit;
+				}
+				if ((bases[i] & ~next[i] & running) != 0) {
+					falls[i >>> 6] |= bit;
+				}
+			}
+			if (together == null) {
+				return;
+			}
+			for (long lanes = running; lanes != 0; lanes &= lanes - 1) {
+				long lane = lanes & -lanes;
+				Arrays.fill(laneState, 0L);
+				for (int i = 0; i < numBases; i++) {
+					if ((next[i] & lane) != 0) {
+						laneState[i >>> 6] |= 1L << i;
+					}
+				}
+				observeState(laneState);
+			}
+		}
+
+		void observeState(long[] state)
+		{
+			if (together == null) {
+				return;
+			}
+			int numTrue = 0;
+			for (int w = 0; w < state.length; w++) {
+				for (long bits = state[w]; bits != 0; bits &= bits - 1) {
+					trueBases[numTrue++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+				}
+			}
+			for (int t = 0; t < numTrue; t++) {
+				long[] seen = together[trueBases[t]];
+				for (int w = 0; w < state.length; w++) {
+					seen[w] |= state[w];
+				}
+			}
+		}
+
+		/**
+		 * Greedily puts every base that was ever true into the first group
+		 * none of whose members it was seen with.
+		 */
+		List<int[]> findGroups()
+		{
+			List<long[]> members = new ArrayList<long[]>();
+			for (int i = 0; i < numBases; i++) {
+				long[] seen = together[i];
+				if ((seen[i >>> 6] & (1L << i)) == 0) {
+					continue;
+				}
+				long[] group = null;
+				for (long[] candidate : members) {
+					boolean disjoint = true;
+					for (int w = 0; w < seen.length && disjoint; w++) {
+						disjoint = (seen[w] & candidate[w]) == 0;
+					}
+					if (disjoint) {
+						group = candidate;
+						break;
+					}
+				}
+				if (group == null) {
+					group = new long[seen.length];
+					members.add(group);
+				}
+				group[i >>> 6] |= 1L << i;
+			}
+
+			List<int[]> groups = new ArrayList<int[]>();
+			for (long[] group : members) {
+				int size = 0;
+				for (long word : group) {
+					size += Long.bitCount(word);
+				}
+				if (size < 2) {
+					continue;
+				}
+				int[] bases = new int[size];
+				int n = 0;
+				for (int w = 0; w < group.length; w++) {
+					for (long bits = group[w]; bits != 0; bits &= bits - 1) {
+						bases[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+					}
+				}
+				groups.add(bases);
+			}
+			return Collections.unmodifiableList(groups);
+		}
+	}
+
+	/**
+	 * Evaluates the cone of a transition in three-valued logic. A gate is
+	 * only TRUE or FALSE if it has that value for every assignment of the
+	 * UNKNOWN sources, so a definite result holds in every state.
+	 */
+	private static final class Evaluator
+	{
+		private final CompiledPropNet net;
+		private final byte[] values;
+		/** Components already in the cone being collected, by stamp. */
+		private final int[] marks;
+		private int stamp;
+		private int[] cone = new int[16];
+
+		Evaluator(CompiledPropNet net)
+		{
+			this.net = net;
+			this.values = new byte[net.getNumComponents()];
+			this.marks = new int[net.getNumComponents()];
+		}
+
+		/**
+		 * Returns whether the transition of a base has the given value
+		 * whenever the base itself has it.
+		 */
+		boolean holds(int base, boolean value)
+		{
+			int size = collectCone(net.getBaseTransitions()[base]);
+			int numSources = net.getNumBases() + net.getNumInputs();
+			int[] types = net.getTypes();
+			int[] offsets = net.getInputOffsets();
+			int[] inputs = net.getInputs();
+			for (int n = 0; n < size; n++) {
+				int c = cone[n];
+				byte result;
+				switch (types[c]) {
+				case CompiledPropNet.TYPE_SOURCE:
+					if (c == base) {
+						result = value ? TRUE : FALSE;
+					} else {
+						// The init proposition, and any other source without
+						// inputs, is false during play.
+						result = c < numSources ? UNKNOWN : FALSE;
+					}
+					break;
+				case CompiledPropNet.TYPE_COPY:
+					result = values[inputs[offsets[c]]];
+					break;
+				case CompiledPropNet.TYPE_NOT:
+					result = negate(values[inputs[offsets[c]]]);
+					break;
+				case CompiledPropNet.TYPE_AND:
+					result = TRUE;
+					for (int k = offsets[c]; k < offsets[c + 1] && result != FALSE; k++) {
+						byte input = values[inputs[k]];
+						if (input != TRUE) {
+							result = input;
+						}
+					}
+					break;
+				case CompiledPropNet.TYPE_OR:
+					result = FALSE;
+					for (int k = offsets[c]; k < offsets[c + 1] && result != TRUE; k++) {
+						byte input = values[inputs[k]];
+						if (input != FALSE) {
+							result = input;
+						}
+					}
+					break;
+				case CompiledPropNet.TYPE_TRUE:
+					result = TRUE;
+					break;
+				default:
+					result = FALSE;
+					break;
+				}
+				values[c] = result;
+			}
+			return values[net.getBaseTransitions()[base]] == (value ? TRUE : FALSE);
+		}
+
+		private static byte negate(byte value)
+		{
+			return value == UNKNOWN ? UNKNOWN : (byte) (1 - value);
+		}
+
+		/**
+		 * Puts the cone of a component into <tt>cone</tt> in index order,
+		 * which is topological, and returns its size.
+		 */
+		private int collectCone(int target)
+		{
+			int[] offsets = net.getInputOffsets();
+			int[] inputs = net.getInputs();
+			stamp++;
+			marks[target] = stamp;
+			cone[0] = target;
+			int size = 1;
+			for (int n = 0; n < size; n++) {
+				int c = cone[n];
+				for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+					int input = inputs[k];
+					if (marks[input] != stamp) {
+						marks[input] = stamp;
+						if (size == cone.length) {
+							cone = Arrays.copyOf(cone, size * 2);
+						}
+						cone[size++] = input;
+					}
+				}
+			}
+			Arrays.sort(cone, 0, size);
+			return size;
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package org.ggp.base.util.propnet.compiled;
+
+
+/**
+ * A PropNetEvaluator answers the game questions for a {@link CompiledPropNet}
+ * directly from a vector of base proposition values, without keeping any
+ * network state between calls.
+ *
+ * Base vectors hold one bit per base proposition: base <tt>i</tt> is bit
+ * <tt>i &amp; 63</tt> of word <tt>i &gt;&gt;&gt; 6</tt>. Input vectors are
+ * laid out the same way by input index. Legal flags for a role follow the
+ * order of {@link CompiledPropNet#getLegalComponents(int)}, and role numbers
+ * follow {@link CompiledPropNet#getRoles()}.
+ *
+ * @see PropNetEvaluatorGenerator
+ */
+public interface PropNetEvaluator
+{
+	/**
+	 * Returns whether the terminal proposition holds in the given state.
+	 */
+	boolean isTerminal(long[] bases);
+
+	/**
+	 * Returns the value of the first true goal proposition of a role in the
+	 * given state, or -1 if none is true.
+	 */
+	int getGoal(long[] bases, int role);
+
+	/**
+	 * Fills <tt>legals</tt> with the value of each legal proposition of a
+	 * role in the given state.
+	 */
+	void getLegals(long[] bases, int role, boolean[] legals);
+
+	/**
+	 * Fills <tt>next</tt> with the base vector that follows the given state
+	 * when the given inputs are played.
+	 */
+	void getNextState(long[] bases, long[] inputs, long[] next);
+}
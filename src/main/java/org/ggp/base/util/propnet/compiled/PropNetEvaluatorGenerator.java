@@ -0,0 +1,263 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+
+import org.ggp.base.util.logging.GamerLogger;
+
+
+/**
+ * The PropNetEvaluatorGenerator turns a {@link CompiledPropNet} into a
+ * {@link PropNetEvaluator} class made of straight-line boolean code, using
+ * javassist to compile and load it at runtime.
+ *
+ * Every method evaluates only the cone of components its answer depends on,
+ * in topological order, with one local variable per component. There are no
+ * arrays of component values, no loops and no dispatch on gate types, so
+ * once the JIT has seen the class it effectively runs the game's rules as
+ * native code. Generated evaluators hold no state and can be shared between
+ * threads.
+ *
+ * A JVM method is limited to 64KB of bytecode, so networks whose cones would
+ * not fit get an {@link InterpretedPropNetEvaluator} instead.
+ */
+public final class PropNetEvaluatorGenerator
+{
+	/** Rough budget of bytecode per generated method, below the JVM limit. */
+	private static final int MAX_METHOD_SIZE = 48 * 1024;
+	/** Longest chain of && or || terms emitted in a single expression. */
+	private static final int MAX_TERMS = 16;
+
+	private static final AtomicInteger classCounter = new AtomicInteger();
+
+	private PropNetEvaluatorGenerator()
+	{
+	}
+
+	/**
+	 * Builds an evaluator for the given network. If the network is too large
+	 * for generated code, or the code cannot be compiled, this logs the
+	 * reason and returns an interpreted evaluator instead.
+	 */
+	public static PropNetEvaluator generate(CompiledPropNet net)
+	{
+		try {
+			return generateClass(net).getDeclaredConstructor().newInstance();
+		} catch (CannotCompileException e) {
+			GamerLogger.log("StateMachine", "Falling back to interpreted propnet: " + e.getMessage());
+		} catch (NotFoundException e) {
+			GamerLogger.logStackTrace("StateMachine", e);
+		} catch (IOException e) {
+			GamerLogger.logStackTrace("StateMachine", e);
+		} catch (InstantiationException e) {
+			GamerLogger.logStackTrace("StateMachine", e);
+		} catch (IllegalAccessException e) {
+			GamerLogger.logStackTrace("StateMachine", e);
+		} catch (NoSuchMethodException e) {
+			GamerLogger.logStackTrace("StateMachine", e);
+		} catch (InvocationTargetException e) {
+			GamerLogger.logStackTrace("StateMachine", e);
+		} catch (LinkageError e) {
+			GamerLogger.logStackTrace("StateMachine", e);
+		}
+		return new InterpretedPropNetEvaluator(net);
+	}
+
+	/**
+	 * Generates and loads an evaluator class for the given network.
+	 *
+	 * @throws CannotCompileException if the network is too large for
+	 * generated code, or javassist rejects the source.
+	 */
+	public static Class<? extends PropNetEvaluator> generateClass(CompiledPropNet net)
+			throws CannotCompileException, NotFoundException, IOException
+	{
+		ClassPool pool = new ClassPool(true);
+		pool.insertClassPath(new ClassClassPath(PropNetEvaluator.class));
+		String name = PropNetEvaluator.class.getPackage().getName() + ".GeneratedPropNetEvaluator" + classCounter.incrementAndGet();
+		CtClass cc = pool.makeClass(name);
+		cc.addInterface(pool.get(PropNetEvaluator.class.getName()));
+		cc.addConstructor(CtNewConstructor.defaultConstructor(cc));
+
+		int numRoles = net.getRoles().size();
+		addMethod(cc, net, new int[] {net.getTerminalComponent()}, false,
+				"public boolean isTerminal(long[] b)",
+				"return v" + net.getTerminalComponent() + ";");
+
+		StringBuilder goalDispatch = new StringBuilder();
+		StringBuilder legalDispatch = new StringBuilder();
+		for (int r = 0; r < numRoles; r++) {
+			int[] goals = net.getGoalComponents(r);
+			StringBuilder tail = new StringBuilder();
+			for (int k = 0; k < goals.length; k++) {
+				tail.append("if (v").append(goals[k]).append(") return ").append(net.getGoalValues(r)[k]).append(";\n");
+			}
+			tail.append("return -1;");
+			addMethod(cc, net, goals, false, "private int goal" + r + "(long[] b)", tail.toString());
+			goalDispatch.append("if (role == ").append(r).append(") return goal").append(r).append("(b);\n");
+
+			int[] legals = net.getLegalComponents(r);
+			tail = new StringBuilder();
+			for (int k = 0; k < legals.length; k++) {
+				tail.append("l[").append(k).append("] = v").append(legals[k]).append(";\n");
+			}
+			addMethod(cc, net, legals, false, "private void legals" + r + "(long[] b, boolean[] l)", tail.toString());
+			legalDispatch.append("if (role == ").append(r).append(") { legals").append(r).append("(b, l); return; }\n");
+		}
+		cc.addMethod(CtNewMethod.make("public int getGoal(long[] b, int role) {\n" + goalDispatch + "return -1;\n}", cc));
+		cc.addMethod(CtNewMethod.make("public void getLegals(long[] b, int role, boolean[] l) {\n" + legalDispatch + "}", cc));
+
+		int[] transitions = net.getBaseTransitions();
+		StringBuilder tail = new StringBuilder();
+		for (int w = 0; w < (transitions.length + 63) >>> 6; w++) {
+			tail.append("n[").append(w).append("] = 0L;\n");
+		}
+		for (int i = 0; i < transitions.length; i++) {
+			tail.append("if (v").append(transitions[i]).append(") n[").append(i >>> 6).append("] |= 1L << ").append(i & 63).append(";\n");
+		}
+		addMethod(cc, net, transitions, true, "public void getNextState(long[] b, long[] in, long[] n)", tail.toString());
+
+		byte[] bytecode = cc.toBytecode();
+		cc.detach();
+		return new Loader(PropNetEvaluator.class.getClassLoader()).define(name, bytecode).asSubclass(PropNetEvaluator.class);
+	}
+
+	/**
+	 * Adds a method that evaluates the cone of the given targets into local
+	 * variables named <tt>v&lt;index&gt;</tt>, then runs <tt>tail</tt>.
+	 */
+	private static void addMethod(CtClass cc, CompiledPropNet net, int[] targets, boolean readInputs, String signature, String tail)
+			throws CannotCompileException
+	{
+		BitSet cone = coneOf(net, targets);
+		int[] offsets = net.getInputOffsets();
+		int size = 0;
+		for (int c = cone.nextSetBit(0); c >= 0; c = cone.nextSetBit(c + 1)) {
+			size += 8 + 4 * (offsets[c + 1] - offsets[c]);
+		}
+		if (size > MAX_METHOD_SIZE) {
+			throw new CannotCompileException(signature + " needs about " + size + " bytes of bytecode");
+		}
+
+		StringBuilder body = new StringBuilder(signature).append(" {\n");
+		for (int c = cone.nextSetBit(0); c >= 0; c = cone.nextSetBit(c + 1)) {
+			appendComponent(body, net, c, readInputs);
+		}
+		body.append(tail).append("\n}");
+		cc.addMethod(CtNewMethod.make(body.toString(), cc));
+	}
+
+	private static void appendComponent(StringBuilder body, CompiledPropNet net, int c, boolean readInputs)
+	{
+		int[] offsets = net.getInputOffsets();
+		int[] inputs = net.getInputs();
+		String v = "v" + c;
+		body.append("boolean ").append(v).append(" = ");
+		switch (net.getTypes()[c]) {
+		case CompiledPropNet.TYPE_SOURCE:
+			int numBases = net.getNumBases();
+			if (c < numBases) {
+				appendBit(body, "b", c);
+			} else if (readInputs && c < numBases + net.getNumInputs()) {
+				appendBit(body, "in", c - numBases);
+			} else {
+				body.append("false");
+			}
+			break;
+		case CompiledPropNet.TYPE_COPY:
+			body.append("v").append(inputs[offsets[c]]);
+			break;
+		case CompiledPropNet.TYPE_NOT:
+			body.append("!v").append(inputs[offsets[c]]);
+			break;
+		case CompiledPropNet.TYPE_AND:
+		case CompiledPropNet.TYPE_OR:
+			boolean and = net.getTypes()[c] == CompiledPropNet.TYPE_AND;
+			String op = and ? " && " : " || ";
+			if (offsets[c] == offsets[c + 1]) {
+				body.append(and);
+				break;
+			}
+			// Long chains are split into several statements to keep the
+			// expressions javassist has to parse shallow.
+			for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+				int n = k - offsets[c];
+				if (n > 0 && n % MAX_TERMS == 0) {
+					body.append(";\n").append(v).append(" = ").append(v).append(op);
+				} else if (n > 0) {
+					body.append(op);
+				}
+				body.append("v").append(inputs[k]);
+			}
+			break;
+		case CompiledPropNet.TYPE_TRUE:
+			body.append("true");
+			break;
+		default:
+			body.append("false");
+			break;
+		}
+		body.append(";\n");
+	}
+
+	private static void appendBit(StringBuilder body, String array, int bit)
+	{
+		body.append("((").append(array).append("[").append(bit >>> 6).append("] >>> ").append(bit & 63).append(") & 1L) != 0L");
+	}
+
+	/**
+	 * Returns every component that the given targets depend on, including the
+	 * targets themselves.
+	 */
+	private static BitSet coneOf(CompiledPropNet net, int[] targets)
+	{
+		int[] offsets = net.getInputOffsets();
+		int[] inputs = net.getInputs();
+		BitSet cone = new BitSet(net.getNumComponents());
+		int[] stack = new int[net.getNumComponents()];
+		int size = 0;
+		for (int target : targets) {
+			if (!cone.get(target)) {
+				cone.set(target);
+				stack[size++] = target;
+			}
+		}
+		while (size > 0) {
+			int c = stack[--size];
+			for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+				if (!cone.get(inputs[k])) {
+					cone.set(inputs[k]);
+					stack[size++] = inputs[k];
+				}
+			}
+		}
+		return cone;
+	}
+
+	/**
+	 * Defines generated classes. Each generation gets its own loader, so the
+	 * class can be unloaded once its evaluators are no longer referenced.
+	 */
+	private static final class Loader extends ClassLoader
+	{
+		Loader(ClassLoader parent)
+		{
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytecode)
+		{
+			return defineClass(name, bytecode, 0, bytecode.length);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.util.Arrays;
+
+
+/**
+ * PropNetFactors splits the base and input propositions of a
+ * {@link CompiledPropNet} into independent factors.
+ *
+ * Two propositions are in the same factor if they are connected through the
+ * logic that computes the next state or the legal moves: a base is joined to
+ * every base and input its transition reads, and an input to everything its
+ * legal proposition reads. Goals and termination are left out, since a game
+ * made of several subgames usually combines their results there without the
+ * subgames ever influencing each other. The init proposition is left out as
+ * well, as it feeds the initial value of every base.
+ *
+ * A game whose network falls into several factors is a sum of smaller games.
+ * A player can search each factor on its own, with only the moves of that
+ * factor, which cuts the branching factor to that of the largest subgame;
+ * see CompiledPropNetStateMachine.setFactor. Inputs that feed no next state
+ * or legality logic at all, such as a noop that is only read by frame
+ * axioms of no base, belong to no factor.
+ *
+ * Factors are computed with a union-find over the components of the network,
+ * in time linear in the number of links.
+ */
+public final class PropNetFactors
+{
+	private final CompiledPropNet net;
+	private final int[] baseFactors;
+	private final int[] inputFactors;
+	private final int[][] factorBases;
+	private final int[][] factorInputs;
+
+	private PropNetFactors(CompiledPropNet net, int[] baseFactors, int[] inputFactors, int numFactors)
+	{
+		this.net = net;
+		this.baseFactors = baseFactors;
+		this.inputFactors = inputFactors;
+		this.factorBases = group(baseFactors, numFactors);
+		this.factorInputs = group(inputFactors, numFactors);
+	}
+
+	/**
+	 * Finds the factors of a network.
+	 */
+	public static PropNetFactors find(CompiledPropNet net)
+	{
+		int n = net.getNumComponents();
+		int numBases = net.getNumBases();
+		int numSources = numBases + net.getNumInputs();
+		int[] parents = new int[n];
+		for (int c = 0; c < n; c++) {
+			parents[c] = c;
+		}
+
+		int[] coneMasks = net.getConeMasks();
+		int[] offsets = net.getInputOffsets();
+		int[] inputs = net.getInputs();
+		int dependencies = CompiledPropNet.CONE_NEXT | CompiledPropNet.CONE_LEGAL;
+		for (int c = net.getFirstGate(); c < n; c++) {
+			if ((coneMasks[c] & dependencies) == 0) {
+				continue;
+			}
+			for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+				// Sources other than bases and inputs, such as init, are
+				// constant during play and do not connect anything.
+				if (inputs[k] >= numSources && inputs[k] < net.getFirstGate()) {
+					continue;
+				}
+				union(parents, c, inputs[k]);
+			}
+		}
+		int[] transitions = net.getBaseTransitions();
+		for (int i = 0; i < numBases; i++) {
+			union(parents, i, transitions[i]);
+		}
+		for (int r = 0; r < net.getRoles().size(); r++) {
+			int[] legals = net.getLegalComponents(r);
+			int[] legalInputs = net.getLegalInputs(r);
+			for (int k = 0; k < legals.length; k++) {
+				if (legalInputs[k] >= 0) {
+					union(parents, legals[k], numBases + legalInputs[k]);
+				}
+			}
+		}
+
+		// Factors are numbered in order of their first base proposition.
+		int[] factorIds = new int[n];
+		Arrays.fill(factorIds, -1);
+		int numFactors = 0;
+		int[] baseFactors = new int[numBases];
+		for (int i = 0; i < numBases; i++) {
+			int root = find(parents, i);
+			if (factorIds[root] < 0) {
+				factorIds[root] = numFactors++;
+			}
+			baseFactors[i] = factorIds[root];
+		}
+		int[] inputFactors = new int[net.getNumInputs()];
+		for (int i = 0; i < inputFactors.length; i++) {
+			inputFactors[i] = factorIds[find(parents, numBases + i)];
+		}
+		return new PropNetFactors(net, baseFactors, inputFactors, numFactors);
+	}
+
+	private static int find(int[] parents, int c)
+	{
+		while (parents[c] != c) {
+			parents[c] = parents[parents[c]];
+			c = parents[c];
+		}
+		return c;
+	}
+
+	private static void union(int[] parents, int a, int b)
+	{
+		a = find(parents, a);
+		b = find(parents, b);
+		if (a != b) {
+			parents[Math.max(a, b)] = Math.min(a, b);
+		}
+	}
+
+	/**
+	 * Lists, for every factor, the indices whose entry in <tt>factors</tt> is
+	 * that factor.
+	 */
+	private static int[][] group(int[] factors, int numFactors)
+	{
+		int[] sizes = new int[numFactors];
+		for (int f : factors) {
+			if (f >= 0) {
+				sizes[f]++;
+			}
+		}
+		int[][] groups = new int[numFactors][];
+		for (int f = 0; f < numFactors; f++) {
+			groups[f] = new int[sizes[f]];
+			sizes[f] = 0;
+		}
+		for (int i = 0; i < factors.length; i++) {
+			if (factors[i] >= 0) {
+				groups[factors[i]][sizes[factors[i]]++] = i;
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The network these factors partition.
+	 */
+	public CompiledPropNet getNet()
+	{
+		return net;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of factors; 1 if the game does not decompose.
+	 */
+	public int getNumFactors()
+	{
+		return factorBases.length;
+	}
+
+	/**
+	 * Returns the factor a base proposition belongs to.
+	 */
+	public int getBaseFactor(int base)
+	{
+		return baseFactors[base];
+	}
+
+	/**
+	 * Returns the factor an input proposition belongs to, or -1 if it
+	 * belongs to none.
+	 */
+	public int getInputFactor(int input)
+	{
+		return inputFactors[input];
+	}
+
+	/**
+	 * Returns the base propositions of a factor, in increasing order.
+	 */
+	public int[] getBases(int factor)
+	{
+		return factorBases[factor];
+	}
+
+	/**
+	 * Returns the input propositions of a factor, in increasing order. A
+	 * factor can have none, if its bases change without any move.
+	 */
+	public int[] getInputs(int factor)
+	{
+		return factorInputs[factor];
+	}
+}
@@ -0,0 +1,547 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * PropNetSymmetries finds the automorphisms of a {@link CompiledPropNet}:
+ * permutations of its components that map every gate to a gate of the same
+ * type with the permuted inputs, every base to a base with the permuted
+ * transition, and every input to an input of the same role whose legal
+ * proposition is the permuted one. Terminal, init and each goal value of each
+ * role are kept in place. Such a permutation maps any state to one that plays
+ * exactly the same game, with the moves renamed by the input permutation, so
+ * a search can treat the two as one position. For a board game these are the
+ * rotations and reflections of the board that the rules do not distinguish.
+ *
+ * Roles are never exchanged, so symmetries that swap the players, such as
+ * exchanging the x and o marks of tic-tac-toe together with the roles, are not
+ * found.
+ *
+ * The search is a plain individualization-refinement: components are
+ * coloured by type and role, colours are refined until every component's
+ * colour determines the colours of its inputs, outputs, transition and
+ * legal partner, and then components sharing a colour are told apart one
+ * at a time, each branch being refined again. Only bases and inputs are
+ * branched on; gates still sharing a colour after that are told apart along
+ * a single branch. Every branch that ends in the same colour sequence as the
+ * first one defines a candidate permutation, which is checked against the
+ * network before it is kept. The search is
+ * exhaustive, so it lists every automorphism rather than generators, but it
+ * gives up after a fixed amount of work; on a large network or one with a
+ * huge group some symmetries are then missing, which only makes canonical
+ * states less canonical.
+ */
+public final class PropNetSymmetries
+{
+	/** The largest number of symmetries kept. */
+	public static final int MAX_SYMMETRIES = 1024;
+	/**
+	 * How much refinement work the search may do, counted in components and
+	 * links visited, before it settles for the symmetries found so far.
+	 */
+	private static final long MAX_WORK = 20000000L;
+
+	private static final int MARK_TERMINAL = 1 << 24;
+	private static final int MARK_INIT = 2 << 24;
+	private static final int MARK_INPUT = 3 << 24;
+	private static final int MARK_LEGAL = 4 << 24;
+	private static final int MARK_GOAL = 5 << 24;
+
+	private final CompiledPropNet net;
+	/** For every symmetry, the base each base is mapped to; the identity comes first. */
+	private final int[][] basePermutations;
+	/** For every symmetry, the input each input is mapped to. */
+	private final int[][] inputPermutations;
+
+	private PropNetSymmetries(CompiledPropNet net, List<int[]> permutations)
+	{
+		this.net = net;
+		int numBases = net.getNumBases();
+		int numInputs = net.getNumInputs();
+		this.basePermutations = new int[permutations.size()][numBases];
+		this.inputPermutations = new int[permutations.size()][numInputs];
+		for (int g = 0; g < permutations.size(); g++) {
+			int[] permutation = permutations.get(g);
+			System.arraycopy(permutation, 0, basePermutations[g], 0, numBases);
+			for (int i = 0; i < numInputs; i++) {
+				inputPermutations[g][i] = permutation[numBases + i] - numBases;
+			}
+		}
+	}
+
+	/**
+	 * Finds the symmetries of a network. This is meant to be run once per
+	 * game, during the start clock.
+	 */
+	public static PropNetSymmetries find(CompiledPropNet net)
+	{
+		return new Search(net).run();
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The network whose symmetries these are.
+	 */
+	public CompiledPropNet getNet()
+	{
+		return net;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of symmetries found, counting the identity; 1 if
+	 *         the game has none.
+	 */
+	public int getNumSymmetries()
+	{
+		return basePermutations.length;
+	}
+
+	/**
+	 * Returns the base each base is mapped to by the given symmetry. The
+	 * array must not be modified.
+	 */
+	public int[] getBasePermutation(int symmetry)
+	{
+		return basePermutations[symmetry];
+	}
+
+	/**
+	 * Returns the input each input is mapped to by the given symmetry, which
+	 * is how moves played in a state translate to moves in its image. The
+	 * array must not be modified.
+	 */
+	public int[] getInputPermutation(int symmetry)
+	{
+		return inputPermutations[symmetry];
+	}
+
+	/**
+	 * Writes the image of a base vector under the given symmetry to
+	 * <tt>image</tt>, which must not be <tt>bases</tt>.
+	 */
+	public void apply(int symmetry, long[] bases, long[] image)
+	{
+		int[] permutation = basePermutations[symmetry];
+		Arrays.fill(image, 0L);
+		for (int w = 0; w < bases.length; w++) {
+			for (long bits = bases[w]; bits != 0; bits &= bits - 1) {
+				int base = permutation[(w << 6) + Long.numberOfTrailingZeros(bits)];
+				image[base >>> 6] |= 1L << base;
+			}
+		}
+	}
+
+	/**
+	 * Returns the canonical form of a base vector: the least of its images
+	 * under all symmetries, comparing words from the first. Symmetric states
+	 * have the same canonical form, so it can be used as a transposition key.
+	 * The given array is returned as is if it is already canonical, and is
+	 * never modified.
+	 */
+	public long[] canonicalize(long[] bases)
+	{
+		long[] best = bases;
+		long[] image = new long[bases.length];
+		for (int g = 1; g < basePermutations.length; g++) {
+			apply(g, bases, image);
+			if (compare(image, best) < 0) {
+				long[] swap = best == bases ? new long[bases.length] : best;
+				best = image;
+				image = swap;
+			}
+		}
+		return best;
+	}
+
+	private static int compare(long[] a, long[] b)
+	{
+		for (int w = 0; w < a.length; w++) {
+			if (a[w] != b[w]) {
+				return a[w] < b[w] ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * The state of one symmetry search.
+	 */
+	private static final class Search
+	{
+		private final CompiledPropNet net;
+		private final int n;
+		private final int[] inputOffsets;
+		private final int[] inputs;
+		private final int[] outputOffsets;
+		private final int[] outputs;
+		/** The transition of each base and the bases of each transition, and legal-input pairs. */
+		private final int[][] partners;
+		private final List<Set<Long>> legalPairs;
+
+		/** The colours of the first leaf, indexed by colour. */
+		private int[] firstLeaf;
+		/** Along the first path, the number of colours and the target cell at each depth. */
+		private final List<int[]> firstProfile = new ArrayList<int[]>();
+		private final List<int[]> found = new ArrayList<int[]>();
+		private long work;
+
+		Search(CompiledPropNet net)
+		{
+			this.net = net;
+			this.n = net.getNumComponents();
+			this.inputOffsets = net.getInputOffsets();
+			this.inputs = net.getInputs();
+			this.outputOffsets = net.getOutputOffsets();
+			this.outputs = net.getOutputs();
+
+			List<List<Integer>> links = new ArrayList<List<Integer>>(n);
+			for (int c = 0; c < n; c++) {
+				links.add(new ArrayList<Integer>(0));
+			}
+			int[] transitions = net.getBaseTransitions();
+			for (int i = 0; i < transitions.length; i++) {
+				links.get(i).add(transitions[i]);
+				links.get(transitions[i]).add(i);
+			}
+			int numBases = net.getNumBases();
+			legalPairs = new ArrayList<Set<Long>>(net.getRoles().size());
+			for (int r = 0; r < net.getRoles().size(); r++) {
+				legalPairs.add(new HashSet<Long>());
+				int[] legals = net.getLegalComponents(r);
+				int[] legalInputs = net.getLegalInputs(r);
+				for (int k = 0; k < legals.length; k++) {
+					legalPairs.get(r).add(pair(legals[k], legalInputs[k]));
+					if (legalInputs[k] >= 0) {
+						links.get(legals[k]).add(numBases + legalInputs[k]);
+						links.get(numBases + legalInputs[k]).add(legals[k]);
+					}
+				}
+			}
+			partners = new int[n][];
+			for (int c = 0; c < n; c++) {
+				partners[c] = new int[links.get(c).size()];
+				for (int k = 0; k < partners[c].length; k++) {
+					partners[c][k] = links.get(c).get(k);
+				}
+			}
+		}
+
+		private static long pair(int component, int input)
+		{
+			return ((long) component << 32) | (input & 0xFFFFFFFFL);
+		}
+
+		PropNetSymmetries run()
+		{
+			int[] colours = rank(initialKeys());
+			refine(colours);
+			if (descendFirst(colours)) {
+				search(colours, 0);
+			}
+			if (found.isEmpty()) {
+				// Out of budget before reaching the first leaf, or before
+				// getting back to it.
+				int[] identity = new int[n];
+				for (int c = 0; c < n; c++) {
+					identity[c] = c;
+				}
+				found.add(identity);
+			}
+			return new PropNetSymmetries(net, found);
+		}
+
+		private int[][] initialKeys()
+		{
+			List<List<Integer>> marks = new ArrayList<List<Integer>>(n);
+			for (int c = 0; c < n; c++) {
+				marks.add(new ArrayList<Integer>(1));
+			}
+			marks.get(net.getTerminalComponent()).add(MARK_TERMINAL);
+			if (net.getInitComponent() >= 0) {
+				marks.get(net.getInitComponent()).add(MARK_INIT);
+			}
+			for (int i = 0; i < net.getNumInputs(); i++) {
+				marks.get(net.getNumBases() + i).add(MARK_INPUT | (net.getInputRole(i) + 1));
+			}
+			for (int r = 0; r < net.getRoles().size(); r++) {
+				for (int legal : net.getLegalComponents(r)) {
+					marks.get(legal).add(MARK_LEGAL | r);
+				}
+				int[] goals = net.getGoalComponents(r);
+				int[] values = net.getGoalValues(r);
+				for (int k = 0; k < goals.length; k++) {
+					marks.get(goals[k]).add(MARK_GOAL | (r << 8) | values[k]);
+				}
+			}
+
+			int numSources = net.getNumBases() + net.getNumInputs();
+			int[] types = net.getTypes();
+			int[][] keys = new int[n][];
+			for (int c = 0; c < n; c++) {
+				List<Integer> m = marks.get(c);
+				keys[c] = new int[2 + m.size()];
+				keys[c][0] = c < net.getNumBases() ? 0 : c < numSources ? 1 : c < net.getFirstGate() ? 2 : 3;
+				keys[c][1] = types[c];
+				for (int k = 0; k < m.size(); k++) {
+					keys[c][2 + k] = m.get(k);
+				}
+				Arrays.sort(keys[c], 2, keys[c].length);
+			}
+			return keys;
+		}
+
+		/**
+		 * Numbers the distinct keys in increasing order, so that equal
+		 * partitions reached on different branches get equal colours.
+		 */
+		private int[] rank(final int[][] keys)
+		{
+			Integer[] order = new Integer[n];
+			for (int c = 0; c < n; c++) {
+				order[c] = c;
+			}
+			Comparator<Integer> byKey = new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b)
+				{
+					return compareKeys(keys[a], keys[b]);
+				}
+			};
+			Arrays.sort(order, byKey);
+			int[] colours = new int[n];
+			int colour = 0;
+			for (int k = 0; k < n; k++) {
+				if (k > 0 && byKey.compare(order[k - 1], order[k]) != 0) {
+					colour++;
+				}
+				colours[order[k]] = colour;
+			}
+			return colours;
+		}
+
+		private static int compareKeys(int[] a, int[] b)
+		{
+			int length = Math.min(a.length, b.length);
+			for (int k = 0; k < length; k++) {
+				if (a[k] != b[k]) {
+					return a[k] < b[k] ? -1 : 1;
+				}
+			}
+			return a.length - b.length;
+		}
+
+		/**
+		 * Refines the colours in place until they are stable.
+		 *
+		 * @return The number of colours.
+		 */
+		private int refine(int[] colours)
+		{
+			int numColours = countColours(colours);
+			while (true) {
+				work += n + inputs.length + outputs.length;
+				int[][] keys = new int[n][];
+				for (int c = 0; c < n; c++) {
+					int numIn = inputOffsets[c + 1] - inputOffsets[c];
+					int numOut = outputOffsets[c + 1] - outputOffsets[c];
+					int[] key = new int[3 + numIn + numOut + partners[c].length];
+					key[0] = colours[c];
+					int k = 1;
+					for (int j = inputOffsets[c]; j < inputOffsets[c + 1]; j++) {
+						key[k++] = colours[inputs[j]];
+					}
+					Arrays.sort(key, 1, k);
+					key[k++] = -1;
+					int start = k;
+					for (int j = outputOffsets[c]; j < outputOffsets[c + 1]; j++) {
+						key[k++] = colours[outputs[j]];
+					}
+					Arrays.sort(key, start, k);
+					key[k++] = -1;
+					start = k;
+					for (int partner : partners[c]) {
+						key[k++] = colours[partner];
+					}
+					Arrays.sort(key, start, k);
+					keys[c] = key;
+				}
+				int[] refined = rank(keys);
+				int numRefined = countColours(refined);
+				System.arraycopy(refined, 0, colours, 0, n);
+				if (numRefined == numColours) {
+					return numColours;
+				}
+				numColours = numRefined;
+			}
+		}
+
+		private int countColours(int[] colours)
+		{
+			int max = -1;
+			for (int colour : colours) {
+				max = Math.max(max, colour);
+			}
+			return max + 1;
+		}
+
+		/**
+		 * Returns the smallest colour shared by several components, or -1 if
+		 * every component has a colour of its own.
+		 */
+		private int targetCell(int[] colours, int[] sizes)
+		{
+			Arrays.fill(sizes, 0);
+			for (int colour : colours) {
+				sizes[colour]++;
+			}
+			for (int colour = 0; colour < n; colour++) {
+				if (sizes[colour] > 1) {
+					return colour;
+				}
+			}
+			return -1;
+		}
+
+		private int[] individualize(int[] colours, int c)
+		{
+			int[] split = new int[n];
+			for (int x = 0; x < n; x++) {
+				split[x] = 2 * colours[x] + 1;
+			}
+			split[c] = 2 * colours[c];
+			int[] ranked = rank(singletonKeys(split));
+			refine(ranked);
+			return ranked;
+		}
+
+		private int[][] singletonKeys(int[] colours)
+		{
+			int[][] keys = new int[n][];
+			for (int c = 0; c < n; c++) {
+				keys[c] = new int[] {colours[c]};
+			}
+			return keys;
+		}
+
+		/**
+		 * Follows the first branch down to a leaf.
+		 *
+		 * @return False if the work budget ran out on the way.
+		 */
+		private boolean descendFirst(int[] colours)
+		{
+			int[] sizes = new int[n];
+			while (true) {
+				int target = targetCell(colours, sizes);
+				if (target < 0) {
+					break;
+				}
+				if (work > MAX_WORK) {
+					return false;
+				}
+				firstProfile.add(new int[] {countColours(colours), target, sizes[target]});
+				int c = 0;
+				while (colours[c] != target) {
+					c++;
+				}
+				colours = individualize(colours, c);
+			}
+			firstLeaf = new int[n];
+			for (int c = 0; c < n; c++) {
+				firstLeaf[colours[c]] = c;
+			}
+			return true;
+		}
+
+		private void search(int[] colours, int depth)
+		{
+			if (work > MAX_WORK || found.size() >= MAX_SYMMETRIES) {
+				return;
+			}
+			int[] sizes = new int[n];
+			int target = targetCell(colours, sizes);
+			if (target < 0) {
+				if (depth == firstProfile.size()) {
+					int[] permutation = new int[n];
+					for (int c = 0; c < n; c++) {
+						permutation[firstLeaf[colours[c]]] = c;
+					}
+					if (isAutomorphism(permutation)) {
+						found.add(permutation);
+					}
+				}
+				return;
+			}
+			if (depth >= firstProfile.size()) {
+				return;
+			}
+			int[] profile = firstProfile.get(depth);
+			if (profile[0] != countColours(colours) || profile[1] != target || profile[2] != sizes[target]) {
+				return;
+			}
+			// Once every base and input is told apart, the gates left sharing a
+			// colour are interchangeable copies, and branching on them would
+			// only find the same symmetry again.
+			int numSources = net.getNumBases() + net.getNumInputs();
+			for (int c = 0; c < n; c++) {
+				if (colours[c] == target) {
+					search(individualize(colours, c), depth + 1);
+					if (c >= numSources) {
+						break;
+					}
+				}
+			}
+		}
+
+		private boolean isAutomorphism(int[] permutation)
+		{
+			int[] types = net.getTypes();
+			int[] stamps = new int[n];
+			for (int c = 0; c < n; c++) {
+				int image = permutation[c];
+				if (types[image] != types[c]) {
+					return false;
+				}
+				int numIn = inputOffsets[c + 1] - inputOffsets[c];
+				if (inputOffsets[image + 1] - inputOffsets[image] != numIn) {
+					return false;
+				}
+				for (int j = inputOffsets[image]; j < inputOffsets[image + 1]; j++) {
+					stamps[inputs[j]] = c + 1;
+				}
+				for (int j = inputOffsets[c]; j < inputOffsets[c + 1]; j++) {
+					if (stamps[permutation[inputs[j]]] != c + 1) {
+						return false;
+					}
+				}
+			}
+			int[] transitions = net.getBaseTransitions();
+			for (int i = 0; i < transitions.length; i++) {
+				if (permutation[i] >= transitions.length || transitions[permutation[i]] != permutation[transitions[i]]) {
+					return false;
+				}
+			}
+			int numBases = net.getNumBases();
+			for (int r = 0; r < legalPairs.size(); r++) {
+				int[] legals = net.getLegalComponents(r);
+				int[] legalInputs = net.getLegalInputs(r);
+				for (int k = 0; k < legals.length; k++) {
+					int input = legalInputs[k] < 0 ? -1 : permutation[numBases + legalInputs[k]] - numBases;
+					if (!legalPairs.get(r).contains(pair(permutation[legals[k]], input))) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+}
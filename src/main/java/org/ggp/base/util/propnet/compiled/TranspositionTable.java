@@ -0,0 +1,203 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * A fixed-size table of search statistics keyed by the 64-bit Zobrist hash
+ * of a state, as computed by {@link CompiledPropNet#getZobristHash(long[])}.
+ * For every state it records how often it was visited and, for every role,
+ * the sum of the values seen from it, so that a search reaching the same
+ * position through different move orders can reuse what it learned.
+ *
+ * The entries live outside the Java heap, in one direct buffer allocated up
+ * front, so a full table costs the garbage collector little. Each hash maps
+ * to a bucket of two slots; a new state takes an empty slot, or else the one
+ * with fewer visits. A slot is empty while its visit count is 0. Hash
+ * collisions between distinct states are not detected, which with 64-bit
+ * keys is rare enough not to matter for search.
+ *
+ * The table may be shared by any number of threads. Every bucket has a lock
+ * word, kept on the heap in an {@link AtomicIntegerArray}; each update and
+ * lookup takes the lock of its bucket with a compare-and-set and releases it
+ * with a volatile write, so no visit is lost and a mean never mixes the
+ * values of two entries. A bucket is only held for a few reads and writes,
+ * so threads waiting for it simply spin.
+ */
+public final class TranspositionTable
+{
+	private static final int KEY = 0;
+	private static final int VISITS = 8;
+	private static final int SUMS = 16;
+
+	private final ByteBuffer entries;
+	private final AtomicIntegerArray locks;
+	private final int numRoles;
+	private final int slotSize;
+	private final int bucketMask;
+
+	/**
+	 * Creates an empty table.
+	 *
+	 * @param numRoles The number of roles to keep values for.
+	 * @param capacity The number of entries, rounded down to a power of two
+	 * and to what fits in a single buffer.
+	 */
+	public TranspositionTable(int numRoles, int capacity)
+	{
+		this.numRoles = numRoles;
+		this.slotSize = SUMS + 8 * numRoles;
+		int maxSlots = Integer.MAX_VALUE / slotSize;
+		int slots = Integer.highestOneBit(Math.max(2, Math.min(capacity, maxSlots)));
+		this.bucketMask = slots / 2 - 1;
+		this.entries = ByteBuffer.allocateDirect(slots * slotSize).order(ByteOrder.nativeOrder());
+		this.locks = new AtomicIntegerArray(slots / 2);
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of entries the table can hold.
+	 */
+	public int getCapacity()
+	{
+		return 2 * (bucketMask + 1);
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The number of bytes the entries occupy off the heap.
+	 */
+	public long getSizeInBytes()
+	{
+		return entries.capacity();
+	}
+
+	private int bucket(long hash)
+	{
+		return (int) (hash ^ (hash >>> 32)) & bucketMask;
+	}
+
+	private void lock(int bucket)
+	{
+		while (!locks.compareAndSet(bucket, 0, 1)) {
+			Thread.yield();
+		}
+	}
+
+	private void unlock(int bucket)
+	{
+		locks.set(bucket, 0);
+	}
+
+	/**
+	 * Returns the offset of the slot holding the given state, or -1 if it
+	 * has none. The caller must hold the lock of its bucket.
+	 */
+	private int find(int bucket, long hash)
+	{
+		int slot = bucket * 2 * slotSize;
+		for (int i = 0; i < 2; i++, slot += slotSize) {
+			if (entries.getLong(slot + VISITS) != 0 && entries.getLong(slot + KEY) == hash) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Records one visit of a state with the given value for every role,
+	 * adding an entry for the state if it has none. Values are goal values,
+	 * between 0 and 100.
+	 */
+	public void add(long hash, int[] values)
+	{
+		int bucket = bucket(hash);
+		lock(bucket);
+		try {
+			int slot = find(bucket, hash);
+			if (slot < 0) {
+				int first = bucket * 2 * slotSize;
+				int second = first + slotSize;
+				slot = entries.getLong(first + VISITS) <= entries.getLong(second + VISITS) ? first : second;
+				entries.putLong(slot + KEY, hash);
+				entries.putLong(slot + VISITS, 0);
+				for (int r = 0; r < numRoles; r++) {
+					entries.putLong(slot + SUMS + 8 * r, 0);
+				}
+			}
+			entries.putLong(slot + VISITS, entries.getLong(slot + VISITS) + 1);
+			for (int r = 0; r < numRoles; r++) {
+				int offset = slot + SUMS + 8 * r;
+				entries.putLong(offset, entries.getLong(offset) + values[r]);
+			}
+		} finally {
+			unlock(bucket);
+		}
+	}
+
+	/**
+	 * Returns how often the given state was visited, or 0 if it has no
+	 * entry.
+	 */
+	public long getVisits(long hash)
+	{
+		int bucket = bucket(hash);
+		lock(bucket);
+		try {
+			int slot = find(bucket, hash);
+			return slot < 0 ? 0 : entries.getLong(slot + VISITS);
+		} finally {
+			unlock(bucket);
+		}
+	}
+
+	/**
+	 * Returns the sum of the values of the given role over all visits of
+	 * the given state, or 0 if it has no entry.
+	 */
+	public long getValueSum(long hash, int role)
+	{
+		int bucket = bucket(hash);
+		lock(bucket);
+		try {
+			int slot = find(bucket, hash);
+			return slot < 0 ? 0 : entries.getLong(slot + SUMS + 8 * role);
+		} finally {
+			unlock(bucket);
+		}
+	}
+
+	/**
+	 * Returns the mean value of the given role over all visits of the given
+	 * state, or -1 if it was never visited.
+	 */
+	public double getMeanValue(long hash, int role)
+	{
+		int bucket = bucket(hash);
+		lock(bucket);
+		try {
+			int slot = find(bucket, hash);
+			if (slot < 0) {
+				return -1;
+			}
+			return (double) entries.getLong(slot + SUMS + 8 * role) / entries.getLong(slot + VISITS);
+		} finally {
+			unlock(bucket);
+		}
+	}
+
+	/**
+	 * Removes every entry. Not safe to call while other threads use the
+	 * table.
+	 */
+	public void clear()
+	{
+		for (int slot = 0; slot < entries.capacity(); slot += slotSize) {
+			entries.putLong(slot + VISITS, 0);
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.ggp.base.util.propnet.factory;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -12,6 +13,11 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
@@ -114,6 +120,19 @@ public class OptimizingPropNetFactory {
 	}
 
 	public static PropNet create(List<Gdl> description, boolean verbose) throws InterruptedException {
+		return create(description, verbose, 1);
+	}
+
+	/**
+	 * Creates a PropNet for the game with the given description, using up to
+	 * <tt>numThreads</tt> threads to build sentence forms that do not depend
+	 * on one another. With one thread, this is the same as
+	 * {@link #create(List, boolean)}.
+	 *
+	 * @throws InterruptedException if the thread is interrupted during
+	 * PropNet creation.
+	 */
+	public static PropNet create(List<Gdl> description, boolean verbose, int numThreads) throws InterruptedException {
 		//System.out.println("Building propnet...");
 
 		long startTime = System.currentTimeMillis();
@@ -171,51 +190,41 @@ public class OptimizingPropNetFactory {
 		Constant falseComponent = new Constant(false);
 		Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
 		Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-		for(SentenceForm form : topologicalOrdering) {
-			ConcurrencyUtils.checkForInterruption();
+		if (numThreads > 1) {
+			addSentenceFormsInParallel(topologicalOrdering, dependencyGraph, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, functionInfoMap, constantChecker, completedSentenceFormValues, numThreads);
+		} else {
+			Object graphLock = new Object();
+			for(SentenceForm form : topologicalOrdering) {
+				ConcurrencyUtils.checkForInterruption();
 
-			if(verbose) {
-				System.out.print("Adding sentence form " + form);
-				System.out.flush();
-			}
-			if(constantChecker.isConstantForm(form)) {
-				if(verbose)
-					System.out.println(" (constant)");
-				//Only add it if it's important
-				if(form.getName().equals(LEGAL)
-						|| form.getName().equals(GOAL)
-						|| form.getName().equals(INIT)) {
-					//Add it
-					for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
-						Proposition trueProp = new Proposition(trueSentence);
-						trueProp.addInput(trueComponent);
-						trueComponent.addOutput(trueProp);
-						components.put(trueSentence, trueComponent);
+				if(verbose) {
+					System.out.print("Adding sentence form " + form);
+					System.out.flush();
+				}
+				if(constantChecker.isConstantForm(form)) {
+					if(verbose) {
+						System.out.println(" (constant)");
+						System.out.println("Checking whether " + form + " is a functional constant...");
 					}
+					addConstantForm(form, components, trueComponent, functionInfoMap, constantChecker, completedSentenceFormValues);
+					continue;
 				}
-
 				if(verbose)
-					System.out.println("Checking whether " + form + " is a functional constant...");
-				addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-				addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
-
-				continue;
+					System.out.println();
+				//TODO: Adjust "recursive forms" appropriately
+				//Add a temporary sentence form thingy? ...
+				Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
+				Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
+				addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues, graphLock);
+				//TODO: Pass these over groups of multiple sentence forms
+				if(verbose && !temporaryComponents.isEmpty())
+					System.out.println("Processing temporary components...");
+				processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
+				addFormToCompletedValues(form, completedSentenceFormValues, components);
+				//if(verbose)
+					//TODO: Add this, but with the correct total number of components (not just Propositions)
+					//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
 			}
-			if(verbose)
-				System.out.println();
-			//TODO: Adjust "recursive forms" appropriately
-			//Add a temporary sentence form thingy? ...
-			Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
-			Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-			addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
-			//TODO: Pass these over groups of multiple sentence forms
-			if(verbose && !temporaryComponents.isEmpty())
-				System.out.println("Processing temporary components...");
-			processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
-			addFormToCompletedValues(form, completedSentenceFormValues, components);
-			//if(verbose)
-				//TODO: Add this, but with the correct total number of components (not just Propositions)
-				//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
 		}
 		//Connect "next" to "true"
 		if(verbose)
@@ -390,6 +399,198 @@ public class OptimizingPropNetFactory {
 
 
 
+	/**
+	 * Handles a sentence form whose sentences are the same in every state.
+	 */
+	private static void addConstantForm(SentenceForm form,
+			Map<GdlSentence, Component> components, Constant trueComponent,
+			Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
+			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
+		//Only add it if it's important
+		if(form.getName().equals(LEGAL)
+				|| form.getName().equals(GOAL)
+				|| form.getName().equals(INIT)) {
+			//Add it
+			for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
+				Proposition trueProp = new Proposition(trueSentence);
+				trueProp.addInput(trueComponent);
+				trueComponent.addOutput(trueProp);
+				components.put(trueSentence, trueComponent);
+			}
+		}
+
+		addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
+		addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+	}
+
+	/**
+	 * Adds every sentence form to the propnet, as the main loop of create()
+	 * does, but builds forms on a thread pool one dependency level at a time.
+	 *
+	 * Forms on the same level only read the components of earlier levels, so
+	 * each is built into its own overlay of the component and negation maps.
+	 * Edits to components they share, such as new outputs on an earlier
+	 * proposition or on the constants, are made under a single lock. Once a
+	 * level is done its overlays are merged in topological order, and its
+	 * recursive forms have their temporary components resolved, so the
+	 * resulting maps do not depend on thread timing.
+	 */
+	private static void addSentenceFormsInParallel(List<SentenceForm> topologicalOrdering,
+			Multimap<SentenceForm, SentenceForm> dependencyGraph, final SentenceDomainModel model,
+			final Map<GdlSentence, Component> components, final Map<GdlSentence, Component> negations,
+			final Constant trueComponent, final Constant falseComponent,
+			final boolean usingBase, final boolean usingInput,
+			final Map<SentenceForm, FunctionInfo> functionInfoMap, final ConstantChecker constantChecker,
+			final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			int numThreads) throws InterruptedException {
+		final Object graphLock = new Object();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			for(List<SentenceForm> level : getDependencyLevels(topologicalOrdering, dependencyGraph, usingBase, usingInput)) {
+				ConcurrencyUtils.checkForInterruption();
+				//Constant forms only touch the maps the other forms read,
+				//so they go first
+				for(SentenceForm form : level) {
+					if(constantChecker.isConstantForm(form)) {
+						addConstantForm(form, components, trueComponent, functionInfoMap, constantChecker, completedSentenceFormValues);
+					}
+				}
+
+				List<Future<FormBuild>> futures = new ArrayList<Future<FormBuild>>();
+				for(final SentenceForm form : level) {
+					if(constantChecker.isConstantForm(form)) {
+						continue;
+					}
+					futures.add(executor.submit(new Callable<FormBuild>() {
+						@Override
+						public FormBuild call() throws InterruptedException {
+							FormBuild build = new FormBuild(form, components, negations);
+							addSentenceForm(form, model, build.components, build.negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), build.temporaryComponents, build.temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues, graphLock);
+							return build;
+						}
+					}));
+				}
+				List<FormBuild> builds = new ArrayList<FormBuild>(futures.size());
+				for(Future<FormBuild> future : futures) {
+					builds.add(getBuild(future));
+				}
+
+				for(FormBuild build : builds) {
+					components.putAll(build.components.added);
+					negations.putAll(build.negations.added);
+				}
+				for(FormBuild build : builds) {
+					processTemporaryComponents(build.temporaryComponents, build.temporaryNegations, components, negations, trueComponent, falseComponent);
+					//Only this form's own build can have added sentences of the form
+					addFormToCompletedValues(build.form, completedSentenceFormValues, build.components.added);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static FormBuild getBuild(Future<FormBuild> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof InterruptedException)
+				throw (InterruptedException) cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Groups the forms of a topological ordering by depth in the dependency
+	 * graph. Forms on the same level never depend on one another, and each
+	 * level keeps the order the forms had in the ordering.
+	 */
+	private static List<List<SentenceForm>> getDependencyLevels(List<SentenceForm> topologicalOrdering,
+			Multimap<SentenceForm, SentenceForm> dependencyGraph, boolean usingBase, boolean usingInput) {
+		Map<SentenceForm, Integer> levels = new HashMap<SentenceForm, Integer>();
+		List<List<SentenceForm>> result = new ArrayList<List<SentenceForm>>();
+		for(SentenceForm form : topologicalOrdering) {
+			List<SentenceForm> dependencies = new ArrayList<SentenceForm>(dependencyGraph.get(form));
+			//The same extra constraints as getTopologicalOrdering
+			if(usingBase && (form.getName().equals(TRUE) || form.getName().equals(NEXT) || form.getName().equals(INIT)))
+				dependencies.add(form.withName(BASE));
+			if(usingInput && (form.getName().equals(DOES) || form.getName().equals(LEGAL)))
+				dependencies.add(form.withName(INPUT));
+
+			int level = 0;
+			for(SentenceForm dependency : dependencies) {
+				Integer dependencyLevel = levels.get(dependency);
+				if(!dependency.equals(form) && dependencyLevel != null)
+					level = Math.max(level, dependencyLevel + 1);
+			}
+			levels.put(form, level);
+			while(result.size() <= level)
+				result.add(new ArrayList<SentenceForm>());
+			result.get(level).add(form);
+		}
+		return result;
+	}
+
+	/**
+	 * The maps a single sentence form is built into when forms are built in
+	 * parallel.
+	 */
+	private static final class FormBuild {
+		private final SentenceForm form;
+		private final OverlayMap<GdlSentence, Component> components;
+		private final OverlayMap<GdlSentence, Component> negations;
+		private final Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
+		private final Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
+
+		FormBuild(SentenceForm form, Map<GdlSentence, Component> components, Map<GdlSentence, Component> negations) {
+			this.form = form;
+			this.components = new OverlayMap<GdlSentence, Component>(components);
+			this.negations = new OverlayMap<GdlSentence, Component>(negations);
+		}
+	}
+
+	/**
+	 * A map that reads through to another map, which it never modifies, and
+	 * keeps its own insertions separately. Only lookups and insertions are
+	 * supported; that is all addSentenceForm needs.
+	 */
+	private static final class OverlayMap<K, V> extends AbstractMap<K, V> {
+		private final Map<K, V> base;
+		private final Map<K, V> added = new HashMap<K, V>();
+
+		OverlayMap(Map<K, V> base) {
+			this.base = base;
+		}
+
+		@Override
+		public V get(Object key) {
+			V value = added.get(key);
+			return (value != null || added.containsKey(key)) ? value : base.get(key);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return added.containsKey(key) || base.containsKey(key);
+		}
+
+		@Override
+		public V put(K key, V value) {
+			V previous = get(key);
+			added.put(key, value);
+			return previous;
+		}
+
+		@Override
+		public Set<Entry<K, V>> entrySet() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
 	private static void removeUselessBasePropositions(
 			Map<GdlSentence, Component> components, Map<GdlSentence, Component> negations, Constant trueComponent,
 			Constant falseComponent) throws InterruptedException {
@@ -976,8 +1177,11 @@ public class OptimizingPropNetFactory {
 			Set<SentenceForm> recursionForms,
 			Map<GdlSentence, Component> temporaryComponents, Map<GdlSentence, Component> temporaryNegations,
 			Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
-			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues) throws InterruptedException {
+			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			Object graphLock) throws InterruptedException {
 		//This is the meat of it (along with the entire Assignments class).
+		//Components from other sentence forms may be shared with other threads
+		//(see addSentenceFormsInParallel), so edits to them hold graphLock.
 		//We need to enumerate the possible propositions in the sentence form...
 		//We also need to hook up the sentence form to the inputs that can make it true.
 		//We also try to optimize as we go, which means possibly removing the
@@ -994,7 +1198,9 @@ public class OptimizingPropNetFactory {
 					|| alwaysTrueSentence.getName().equals(GOAL)) {
 				Proposition prop = new Proposition(alwaysTrueSentence);
 				//Attach to true
-				trueComponent.addOutput(prop);
+				synchronized (graphLock) {
+					trueComponent.addOutput(prop);
+				}
 				prop.addInput(trueComponent);
 				//Still want the same components;
 				//we just don't want this to be anonymized
@@ -1134,7 +1340,9 @@ public class OptimizingPropNetFactory {
 							Not not = new Not();
 							//Add positive as input
 							not.addInput(positive);
-							positive.addOutput(not);
+							synchronized (graphLock) {
+								positive.addOutput(not);
+							}
 							temporaryNegations.put(transformed, not);
 							conj = not;
 						}
@@ -1152,18 +1360,16 @@ public class OptimizingPropNetFactory {
 
 							//Check if we're sharing a component with another sentence with a negation
 							//(i.e. look for "nots" in our outputs and use those instead)
-							Not existingNotOutput = getNotOutput(positive);
-							if(existingNotOutput != null) {
-								componentsToConnect.add(existingNotOutput);
-								negations.put(transformed, existingNotOutput);
-								continue; //to the next conjunct
+							synchronized (graphLock) {
+								conj = getNotOutput(positive);
+								if(conj == null) {
+									Not not = new Not();
+									not.addInput(positive);
+									positive.addOutput(not);
+									conj = not;
+								}
 							}
-
-							Not not = new Not();
-							not.addInput(positive);
-							positive.addOutput(not);
-							negations.put(transformed, not);
-							conj = not;
+							negations.put(transformed, conj);
 						}
 						componentsToConnect.add(conj);
 					} else if(literal instanceof GdlDistinct) {
@@ -1176,7 +1382,9 @@ public class OptimizingPropNetFactory {
 					//Connect all the components
 					Proposition andComponent = new Proposition(TEMP);
 
-					andify(componentsToConnect, andComponent, trueComponent);
+					synchronized (graphLock) {
+						andify(componentsToConnect, andComponent, trueComponent);
+					}
 					if(!isThisConstant(andComponent, falseComponent)) {
 						if(!inputsToOr.containsKey(sentence))
 							inputsToOr.put(sentence, new HashSet<Component>());
@@ -1198,18 +1406,20 @@ public class OptimizingPropNetFactory {
 			GdlSentence sentence = entry.getKey();
 			Set<Component> inputs = entry.getValue();
 			Set<Component> realInputs = new HashSet<Component>();
-			for(Component input : inputs) {
-				if(input instanceof Constant || input.getInputs().size() == 0) {
-					realInputs.add(input);
-				} else {
-					realInputs.add(input.getSingleInput());
-					input.getSingleInput().removeOutput(input);
-					input.removeAllInputs();
+			Proposition prop = new Proposition(sentence);
+			synchronized (graphLock) {
+				for(Component input : inputs) {
+					if(input instanceof Constant || input.getInputs().size() == 0) {
+						realInputs.add(input);
+					} else {
+						realInputs.add(input.getSingleInput());
+						input.getSingleInput().removeOutput(input);
+						input.removeAllInputs();
+					}
 				}
-			}
 
-			Proposition prop = new Proposition(sentence);
-			orify(realInputs, prop, falseComponent);
+				orify(realInputs, prop, falseComponent);
+			}
 			components.put(sentence, prop);
 		}
 
@@ -0,0 +1,78 @@
+package org.ggp.base.util.propnet.optimizer;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+
+
+/**
+ * Pushes constants through the gates they feed.
+ *
+ * An AND with a false input and an OR with a true input are replaced by that
+ * constant; inputs that cannot change the result are dropped, and a gate
+ * left with no inputs becomes the constant it would compute. A NOT of a
+ * constant, and an intermediate proposition that follows a constant or has
+ * no inputs at all, are folded the same way. Essential propositions and
+ * transitions keep their constant inputs.
+ */
+public final class ConstantFolding implements PropNetOptimization
+{
+	@Override
+	public boolean apply(PropNet propNet)
+	{
+		Set<Component> essential = Rewiring.getEssentialComponents(propNet);
+		boolean changed = false;
+		for (Component c : new ArrayList<Component>(propNet.getComponents())) {
+			if (essential.contains(c) || !Rewiring.isLive(propNet, c)) {
+				continue;
+			}
+			if (c instanceof And) {
+				changed |= foldGate(propNet, c, false);
+			} else if (c instanceof Or && !Rewiring.isFedByInit(propNet, c)) {
+				changed |= foldGate(propNet, c, true);
+			} else if (c instanceof Not && c.getInputs().size() == 1 && c.getSingleInput() instanceof Constant) {
+				Rewiring.replace(propNet, c, Rewiring.getConstant(propNet, !c.getSingleInput().getValue()));
+				changed = true;
+			} else if (c instanceof Proposition && c.getInputs().isEmpty()) {
+				Rewiring.replace(propNet, c, Rewiring.getConstant(propNet, false));
+				changed = true;
+			} else if (c instanceof Proposition && c.getInputs().size() == 1 && c.getSingleInput() instanceof Constant) {
+				Rewiring.replace(propNet, c, c.getSingleInput());
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Folds the constant inputs of an AND (<tt>dominant</tt> false) or an OR
+	 * (<tt>dominant</tt> true).
+	 */
+	private static boolean foldGate(PropNet propNet, Component gate, boolean dominant)
+	{
+		boolean changed = false;
+		for (Component input : new ArrayList<Component>(gate.getInputs())) {
+			if (!(input instanceof Constant)) {
+				continue;
+			}
+			if (input.getValue() == dominant) {
+				Rewiring.replace(propNet, gate, input);
+				return true;
+			}
+			Rewiring.unlink(input, gate);
+			changed = true;
+		}
+		if (gate.getInputs().isEmpty()) {
+			Rewiring.replace(propNet, gate, Rewiring.getConstant(propNet, !dominant));
+			return true;
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,48 @@
+package org.ggp.base.util.propnet.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+
+
+/**
+ * Merges gates that compute the same function of the same inputs.
+ *
+ * The factory builds each rule instantiation separately, so identical ANDs
+ * and NOTs over the same propositions are common. Two gates of the same kind
+ * with the same set of inputs are interchangeable; the outputs of every
+ * duplicate are moved onto the first such gate. Merging gates can make their
+ * readers identical in turn, which the next round of the pipeline finds.
+ */
+public final class DuplicateGateMerging implements PropNetOptimization
+{
+	@Override
+	public boolean apply(PropNet propNet)
+	{
+		Map<List<Object>, Component> gates = new HashMap<List<Object>, Component>();
+		boolean changed = false;
+		for (Component c : new ArrayList<Component>(propNet.getComponents())) {
+			if (!(c instanceof And || c instanceof Or || c instanceof Not) || !Rewiring.isLive(propNet, c)) {
+				continue;
+			}
+			List<Object> key = Arrays.<Object>asList(c.getClass(), new HashSet<Component>(c.getInputs()));
+			Component existing = gates.get(key);
+			if (existing == null) {
+				gates.put(key, c);
+			} else {
+				Rewiring.replace(propNet, c, existing);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,67 @@
+package org.ggp.base.util.propnet.optimizer;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+
+
+/**
+ * Collapses chains of gates into single gates.
+ *
+ * An AND or OR with one input is replaced by that input. An AND fed by
+ * another AND that nothing else reads takes over that gate's inputs, and
+ * likewise for ORs, so nested binary gates become one n-ary gate. A double
+ * negation is replaced by the value it negates twice.
+ */
+public final class GateCollapsing implements PropNetOptimization
+{
+	@Override
+	public boolean apply(PropNet propNet)
+	{
+		Set<Component> essential = Rewiring.getEssentialComponents(propNet);
+		boolean changed = false;
+		for (Component c : new ArrayList<Component>(propNet.getComponents())) {
+			if (!Rewiring.isLive(propNet, c)) {
+				continue;
+			}
+			if (c instanceof And || c instanceof Or) {
+				if (c.getInputs().size() == 1) {
+					Rewiring.replace(propNet, c, c.getSingleInput());
+					changed = true;
+					continue;
+				}
+				for (Component input : new ArrayList<Component>(c.getInputs())) {
+					if (input.getClass() == c.getClass() && input.getOutputs().size() == 1 && !essential.contains(input)) {
+						absorb(propNet, c, input);
+						changed = true;
+					}
+				}
+			} else if (c instanceof Not && c.getInputs().size() == 1 && c.getSingleInput() instanceof Not
+					&& c.getSingleInput().getInputs().size() == 1) {
+				Rewiring.replace(propNet, c, c.getSingleInput().getSingleInput());
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Moves the inputs of <tt>inner</tt>, whose only output is
+	 * <tt>outer</tt>, onto <tt>outer</tt> and removes <tt>inner</tt>.
+	 */
+	private static void absorb(PropNet propNet, Component outer, Component inner)
+	{
+		for (Component input : new ArrayList<Component>(inner.getInputs())) {
+			Rewiring.unlink(input, inner);
+			input.addOutput(outer);
+			outer.addInput(input);
+		}
+		Rewiring.unlink(inner, outer);
+		propNet.removeComponent(inner);
+	}
+}
@@ -0,0 +1,23 @@
+package org.ggp.base.util.propnet.optimizer;
+
+import org.ggp.base.util.propnet.architecture.PropNet;
+
+
+/**
+ * A PropNetOptimization is one rewriting pass over a {@link PropNet}, run as
+ * part of a {@link PropNetOptimizer} pipeline.
+ *
+ * A pass must leave the network equivalent to what it was: every base,
+ * input, legal, goal, init and terminal proposition keeps its value in every
+ * state, and every transition keeps feeding the same base. Passes can only
+ * run before the propnet is frozen.
+ */
+public interface PropNetOptimization
+{
+	/**
+	 * Rewrites the given network once.
+	 *
+	 * @return Whether anything was changed.
+	 */
+	boolean apply(PropNet propNet);
+}
@@ -0,0 +1,67 @@
+package org.ggp.base.util.propnet.optimizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.architecture.PropNet;
+
+
+/**
+ * The PropNetOptimizer shrinks a finished {@link PropNet} by running a list
+ * of {@link PropNetOptimization} passes over it until none of them finds
+ * anything left to change.
+ *
+ * Passes feed each other: merging two gates can leave a proposition with a
+ * single input, removing it can put two gates of the same kind next to
+ * each other, and so on. The pipeline therefore runs in rounds, with a cap
+ * in case some combination of passes keeps undoing another's work.
+ *
+ * Optimize a propnet after the factory has built it and before it is frozen
+ * or compiled.
+ */
+public final class PropNetOptimizer
+{
+	private static final int MAX_ROUNDS = 32;
+
+	private final List<PropNetOptimization> passes;
+
+	public PropNetOptimizer(List<PropNetOptimization> passes)
+	{
+		this.passes = new ArrayList<PropNetOptimization>(passes);
+	}
+
+	/**
+	 * Creates an optimizer running every pass in this package.
+	 */
+	public static PropNetOptimizer createDefault()
+	{
+		return new PropNetOptimizer(Arrays.asList(
+				new ConstantFolding(),
+				new RedundantComponentRemoval(),
+				new GateCollapsing(),
+				new DuplicateGateMerging()));
+	}
+
+	/**
+	 * Runs the passes over the given network, in order, until a whole round
+	 * leaves it unchanged.
+	 */
+	public void optimize(PropNet propNet)
+	{
+		int sizeBefore = propNet.getSize();
+		int linksBefore = propNet.getNumLinks();
+		int rounds = 0;
+		boolean changed = true;
+		while (changed && rounds < MAX_ROUNDS) {
+			changed = false;
+			for (PropNetOptimization pass : passes) {
+				changed |= pass.apply(propNet);
+			}
+			rounds++;
+		}
+		GamerLogger.log("StateMachine", "Optimized propnet from " + sizeBefore + " components and " + linksBefore
+				+ " links to " + propNet.getSize() + " and " + propNet.getNumLinks() + " in " + rounds + " rounds");
+	}
+}
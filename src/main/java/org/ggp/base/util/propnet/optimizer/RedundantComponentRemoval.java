@@ -0,0 +1,40 @@
+package org.ggp.base.util.propnet.optimizer;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+
+
+/**
+ * Removes components that do no work.
+ *
+ * Intermediate propositions with a single input only copy it, so their
+ * outputs are connected straight to that input. Components whose value
+ * nothing reads are dropped; removing one can leave its inputs unread too,
+ * which later rounds of the pipeline pick up.
+ */
+public final class RedundantComponentRemoval implements PropNetOptimization
+{
+	@Override
+	public boolean apply(PropNet propNet)
+	{
+		Set<Component> essential = Rewiring.getEssentialComponents(propNet);
+		boolean changed = false;
+		for (Component c : new ArrayList<Component>(propNet.getComponents())) {
+			if (essential.contains(c) || !Rewiring.isLive(propNet, c)) {
+				continue;
+			}
+			if (c.getOutputs().isEmpty()) {
+				propNet.removeComponent(c);
+				changed = true;
+			} else if (c instanceof Proposition && c.getInputs().size() == 1) {
+				Rewiring.replace(propNet, c, c.getSingleInput());
+				changed = true;
+			}
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,109 @@
+package org.ggp.base.util.propnet.optimizer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+
+
+/**
+ * Helpers shared by the optimization passes.
+ */
+final class Rewiring
+{
+	private Rewiring()
+	{
+	}
+
+	/**
+	 * Returns the components no pass may remove or replace: the base, input,
+	 * legal, goal, init and terminal propositions, and every transition.
+	 */
+	static Set<Component> getEssentialComponents(PropNet propNet)
+	{
+		Set<Component> essential = new HashSet<Component>();
+		essential.addAll(propNet.getBasePropositions().values());
+		essential.addAll(propNet.getInputPropositions().values());
+		for (Set<Proposition> legals : propNet.getLegalPropositions().values()) {
+			essential.addAll(legals);
+		}
+		for (Set<Proposition> goals : propNet.getGoalPropositions().values()) {
+			essential.addAll(goals);
+		}
+		if (propNet.getInitProposition() != null) {
+			essential.add(propNet.getInitProposition());
+		}
+		essential.add(propNet.getTerminalProposition());
+		for (Component c : propNet.getComponents()) {
+			if (c instanceof Transition) {
+				essential.add(c);
+			}
+		}
+		return essential;
+	}
+
+	/**
+	 * Returns whether the given component is an OR that the init proposition
+	 * feeds. CompiledPropNet reads the initial state off that wiring, so such
+	 * gates are never folded into constants.
+	 */
+	static boolean isFedByInit(PropNet propNet, Component c)
+	{
+		return c instanceof Or && c.getInputs().contains(propNet.getInitProposition());
+	}
+
+	/**
+	 * Makes every output of <tt>old</tt> read <tt>replacement</tt> instead,
+	 * then removes <tt>old</tt> from the network.
+	 */
+	static void replace(PropNet propNet, Component old, Component replacement)
+	{
+		for (Component output : new ArrayList<Component>(old.getOutputs())) {
+			output.removeInput(old);
+			output.addInput(replacement);
+			replacement.addOutput(output);
+		}
+		old.removeAllOutputs();
+		propNet.removeComponent(old);
+	}
+
+	/**
+	 * Disconnects the link from <tt>input</tt> to <tt>output</tt>.
+	 */
+	static void unlink(Component input, Component output)
+	{
+		input.removeOutput(output);
+		output.removeInput(input);
+	}
+
+	/**
+	 * Returns the network's constant with the given value, adding one if the
+	 * network has none.
+	 */
+	static Constant getConstant(PropNet propNet, boolean value)
+	{
+		for (Component c : propNet.getComponents()) {
+			if (c instanceof Constant && c.getValue() == value) {
+				return (Constant) c;
+			}
+		}
+		Constant constant = new Constant(value);
+		propNet.addComponent(constant);
+		return constant;
+	}
+
+	/**
+	 * Returns whether the component is still part of the network; passes
+	 * iterate over a snapshot, so earlier rewrites may have removed it.
+	 */
+	static boolean isLive(PropNet propNet, Component c)
+	{
+		return propNet.getComponents().contains(c);
+	}
+}
@@ -377,6 +377,32 @@ public class FailsafeStateMachine extends StateMachine
         return performDepthCharge(state, theDepth);
     }
 
+    @Override
+    public int performRollout(MachineState state, int[] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        if(theBackingMachine == null)
+            return 0;
+
+        try {
+            return theBackingMachine.performRollout(state, theGoals);
+        } catch (TransitionDefinitionException te) {
+            throw te;
+        } catch (MoveDefinitionException me) {
+            throw me;
+        } catch (GoalDefinitionException ge) {
+            throw ge;
+        } catch(Exception e) {
+            failGracefully(e, null);
+        } catch(ThreadDeath d) {
+            throw d;
+        } catch(OutOfMemoryError e) {
+            throw e;
+        } catch(Error e) {
+            failGracefully(null, e);
+        }
+
+        return performRollout(state, theGoals);
+    }
+
     @Override
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(MachineState state, double[] avgScores, double[] avgDepth, double discountFactor, int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
         if(theBackingMachine == null)
@@ -0,0 +1,50 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * A MachineState that carries a 64-bit Zobrist hash of its contents, as
+ * maintained by the state machine that produced it.
+ *
+ * Propnet machines keep the hash of their loaded state up to date as base
+ * propositions flip, so it comes at the cost of the bits that changed rather
+ * than of the whole state. It makes a compact key for transposition tables.
+ * The hash is only comparable between states of the same machine, or of
+ * machines built over the same network; equality still compares contents.
+ *
+ * The contents are read-only, and the ordinary hash code is computed once,
+ * so these states are cheap to use repeatedly as keys in hash maps and in
+ * CachedStateMachine.
+ */
+public class HashedMachineState extends MachineState {
+    private final long zobristHash;
+    /** Cached hash code, or 0 if not computed yet. */
+    private int hashCode;
+
+    public HashedMachineState(Set<GdlSentence> contents, long zobristHash) {
+        super(contents == null ? null : Collections.unmodifiableSet(contents));
+        this.zobristHash = zobristHash;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return The 64-bit Zobrist hash of this state.
+     */
+    public long getZobristHash() {
+        return zobristHash;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hashCode;
+        if (h == 0) {
+            h = getContents().hashCode();
+            hashCode = h;
+        }
+        return h;
+    }
+}
@@ -459,6 +459,30 @@ public abstract class StateMachine
         return state;
     }
 
+    /**
+     * Plays random joint moves from the given state until the end of the
+     * game, and writes the goal value of each role in the terminal state into
+     * <tt>theGoals</tt>, indexed as in {@link #getRoles()}.
+     * <p>
+     * Unlike {@link #performDepthCharge(MachineState, int[])}, this never
+     * hands the intermediate or terminal states back to the caller, so a
+     * machine that keeps its own state representation can play the whole
+     * rollout without allocating. The default implementation simply calls
+     * performDepthCharge and then getGoal for each role.
+     *
+     * @return The number of state changes that were made to reach a
+     * terminal state.
+     */
+    public int performRollout(MachineState state, int[] theGoals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        int[] depth = new int[1];
+        MachineState terminal = performDepthCharge(state, depth);
+        List<Role> roles = getRoles();
+        for (int i = 0; i < roles.size(); i++) {
+            theGoals[i] = getGoal(terminal, roles.get(i));
+        }
+        return depth[0];
+    }
+
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(final MachineState state, final double[] avgScores, final double[] avgDepth, final double discountFactor, final int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
         avgDepth[0] = 0;
         for (int j = 0; j < avgScores.length; j++) {
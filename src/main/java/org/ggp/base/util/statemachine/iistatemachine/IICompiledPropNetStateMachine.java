@@ -0,0 +1,584 @@
+package org.ggp.base.util.statemachine.iistatemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.IIPropNet;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.compiled.CompiledPropNet;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.See;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A propnet state machine for incomplete information games that works on a
+ * {@link CompiledPropNet} instead of the ii-values of an {@link IIPropNet}.
+ *
+ * What a player knows about the game is kept in two bitsets over the
+ * compiled components: one bit says whether the value of a component is
+ * known, the other what it is. Unknown values propagate as in three-valued
+ * logic, so an AND with a false input is false whatever else is unknown, and
+ * so on. Knowledge only ever grows within a turn, so every component is
+ * decided at most once, and each sees proposition that is observed only
+ * pushes through the part of the network it tells something about: back
+ * through the gates it constrains, down to the base propositions, and from
+ * there forward again to legal and goal propositions.
+ *
+ * Knowledge is carried from turn to turn. Each new SeesState is taken to be
+ * the observation of the next turn: the knowledge of the previous turn,
+ * together with our own move if it is given, decides some of the next base
+ * propositions, and the new sees refine them. Queries about the same
+ * SeesState object reuse that knowledge rather than advancing again, so a
+ * player can call getLegalMoves and refineLegalMoves as often as it likes
+ * on the current observation. A null SeesState stands for the initial
+ * state, which every player knows completely.
+ *
+ * Queries on full MachineStates are passed to the given normal state
+ * machine, except for getSeesState, which is evaluated on the network.
+ */
+public class IICompiledPropNetStateMachine extends IIStateMachine {
+
+	private IIPropNet iipropNet;
+	private CompiledPropNet net;
+	private List<Role> roles;
+	private StateMachine normalStateMachine;
+
+	private int numBases;
+	private int numInputs;
+	private int firstGate;
+	private int[] types;
+	private int[] inputOffsets;
+	private int[] inputs;
+	private int[] outputOffsets;
+	private int[] outputs;
+	private int[] baseTransitions;
+
+	/** The sees propositions of each role, and their names. */
+	private int[][] seesComponents;
+	private GdlSentence[][] seesNames;
+
+	/** Whether the value of each component is known this turn, and if so, the value. */
+	private long[] known;
+	private long[] value;
+	/** The knowledge of the previous turn, to advance from again if our move changes. */
+	private long[] previousKnown;
+	private long[] previousValue;
+	private long[] nextKnown;
+	private long[] nextValue;
+	/** Components whose value became known and still have to be propagated. */
+	private int[] pending;
+	private int numPending;
+	/** Scratch values for evaluating complete states. */
+	private long[] stateValue;
+
+	/** The observation the knowledge describes, or null for the initial state. */
+	private SeesState currentSees;
+	private Move currentMove;
+
+	@Override
+	public void initialize(StateMachine stateMachine, List<Gdl> description) throws InterruptedException {
+		normalStateMachine = stateMachine;
+		PropNet propNet = OptimizingPropNetFactory.create(description);
+		iipropNet = new IIPropNet(propNet);
+		Map<Component, Integer> indices = new HashMap<Component, Integer>();
+		net = CompiledPropNet.compile(propNet, indices);
+		roles = net.getRoles();
+
+		numBases = net.getNumBases();
+		numInputs = net.getNumInputs();
+		firstGate = net.getFirstGate();
+		types = net.getTypes();
+		inputOffsets = net.getInputOffsets();
+		inputs = net.getInputs();
+		outputOffsets = net.getOutputOffsets();
+		outputs = net.getOutputs();
+		baseTransitions = net.getBaseTransitions();
+
+		seesComponents = new int[roles.size()][];
+		seesNames = new GdlSentence[roles.size()][];
+		for (int r = 0; r < roles.size(); r++) {
+			Set<Proposition> sees = iipropNet.getSeesPropositionsByRole().get(roles.get(r));
+			List<Proposition> props = (sees == null) ? new ArrayList<Proposition>() : new ArrayList<Proposition>(sees);
+			seesComponents[r] = new int[props.size()];
+			seesNames[r] = new GdlSentence[props.size()];
+			for (int k = 0; k < props.size(); k++) {
+				seesComponents[r][k] = indices.get(props.get(k));
+				seesNames[r][k] = props.get(k).getName();
+			}
+		}
+
+		int words = (net.getNumComponents() + 63) >>> 6;
+		known = new long[words];
+		value = new long[words];
+		previousKnown = new long[words];
+		previousValue = new long[words];
+		nextKnown = new long[(numBases + 63) >>> 6];
+		nextValue = new long[(numBases + 63) >>> 6];
+		stateValue = new long[words];
+		pending = new int[net.getNumComponents()];
+		setInitialKnowledge();
+	}
+
+	@Override
+	public IIPropNet getIIPropNet() {
+		return iipropNet;
+	}
+
+	/**
+	 * Getter method.
+	 *
+	 * @return The compiled network the knowledge is kept on.
+	 */
+	public CompiledPropNet getCompiledPropNet() {
+		return net;
+	}
+
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+		return normalStateMachine.getGoal(state, role);
+	}
+
+	/**
+	 * Returns the goal value of every role that is known given the
+	 * observation, or -1 for roles whose goal is not known.
+	 */
+	@Override
+	public List<Integer> getGoals(SeesState seesState) throws GoalDefinitionException {
+		observe(seesState, null);
+		List<Integer> goals = new ArrayList<Integer>(roles.size());
+		for (int r = 0; r < roles.size(); r++) {
+			int[] components = net.getGoalComponents(r);
+			int goal = -1;
+			for (int k = 0; k < components.length; k++) {
+				if (isKnown(components[k]) && isTrue(components[k])) {
+					goal = net.getGoalValues(r)[k];
+					break;
+				}
+			}
+			goals.add(goal);
+		}
+		return goals;
+	}
+
+	@Override
+	public boolean isTerminal(MachineState state) {
+		return normalStateMachine.isTerminal(state);
+	}
+
+	@Override
+	public List<Role> getRoles() {
+		return roles;
+	}
+
+	@Override
+	public MachineState getInitialState() {
+		return normalStateMachine.getInitialState();
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+		return normalStateMachine.getLegalMoves(state, role);
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+		return normalStateMachine.getNextState(state, moves);
+	}
+
+	@Override
+	public List<Move> getLegalMoves(SeesState seesState, Move move) throws MoveDefinitionException {
+		observe(seesState, move);
+		return getMoves(roleIndex(seesState), true);
+	}
+
+	@Override
+	public List<Move> getLegalMoves(SeesState seesState) throws MoveDefinitionException {
+		observe(seesState, null);
+		return getMoves(roleIndex(seesState), true);
+	}
+
+	@Override
+	public List<Move> refineLegalMoves(SeesState seesState, Move move, Role role) {
+		observe(seesState, move);
+		return getMoves(roles.indexOf(role), false);
+	}
+
+	@Override
+	public List<Move> refineLegalMoves(SeesState seesState, Role role) {
+		observe(seesState, null);
+		return getMoves(roles.indexOf(role), false);
+	}
+
+	/**
+	 * Returns the moves of a role that are known to be legal, or, if
+	 * certain is false, the moves that are not known to be illegal.
+	 */
+	private List<Move> getMoves(int role, boolean certain) {
+		List<Move> moves = new ArrayList<Move>();
+		if (role < 0) {
+			return moves;
+		}
+		int[] components = net.getLegalComponents(role);
+		for (int k = 0; k < components.length; k++) {
+			int c = components[k];
+			if (certain ? isKnown(c) && isTrue(c) : !isKnown(c) || isTrue(c)) {
+				moves.add(net.getLegalMoves(role)[k]);
+			}
+		}
+		return moves;
+	}
+
+	private int roleIndex(SeesState seesState) {
+		return (seesState == null) ? -1 : roles.indexOf(seesState.getRole());
+	}
+
+	/**
+	 * Evaluates the sees propositions of a role in a complete state. Moves
+	 * are not part of a state, so sees that depend on them are false.
+	 */
+	@Override
+	public SeesState getSeesState(MachineState state, Role role) {
+		Arrays.fill(stateValue, 0);
+		for (GdlSentence sentence : state.getContents()) {
+			int base = net.getBaseIndex(sentence);
+			if (base >= 0) {
+				stateValue[base >>> 6] |= 1L << base;
+			}
+		}
+		for (int c = firstGate; c < types.length; c++) {
+			if (evaluate(c)) {
+				stateValue[c >>> 6] |= 1L << c;
+			}
+		}
+
+		Set<See> sees = new HashSet<See>();
+		int r = roles.indexOf(role);
+		if (r >= 0) {
+			for (int k = 0; k < seesComponents[r].length; k++) {
+				int c = seesComponents[r][k];
+				if ((stateValue[c >>> 6] & (1L << c)) != 0) {
+					sees.add(new See(role, seesNames[r][k].toTerm()));
+				}
+			}
+		}
+		return new SeesState(role, sees);
+	}
+
+	private boolean evaluate(int c) {
+		switch (types[c]) {
+		case CompiledPropNet.TYPE_COPY:
+			int in = inputs[inputOffsets[c]];
+			return (stateValue[in >>> 6] & (1L << in)) != 0;
+		case CompiledPropNet.TYPE_NOT:
+			in = inputs[inputOffsets[c]];
+			return (stateValue[in >>> 6] & (1L << in)) == 0;
+		case CompiledPropNet.TYPE_AND:
+			for (int k = inputOffsets[c]; k < inputOffsets[c + 1]; k++) {
+				if ((stateValue[inputs[k] >>> 6] & (1L << inputs[k])) == 0) {
+					return false;
+				}
+			}
+			return true;
+		case CompiledPropNet.TYPE_OR:
+			for (int k = inputOffsets[c]; k < inputOffsets[c + 1]; k++) {
+				if ((stateValue[inputs[k] >>> 6] & (1L << inputs[k])) != 0) {
+					return true;
+				}
+			}
+			return false;
+		case CompiledPropNet.TYPE_TRUE:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	// ============================================
+	//          Knowledge
+	// ============================================
+
+	/**
+	 * Brings the knowledge up to date with the given observation, unless it
+	 * already describes it.
+	 *
+	 * @param move Our own move in the previous turn, or null if unknown.
+	 */
+	private void observe(SeesState seesState, Move move) {
+		if (seesState == null) {
+			if (currentSees != null) {
+				setInitialKnowledge();
+			}
+			return;
+		}
+		if (seesState == currentSees && (move == null ? currentMove == null : move.equals(currentMove))) {
+			return;
+		}
+		if (seesState != currentSees) {
+			System.arraycopy(known, 0, previousKnown, 0, known.length);
+			System.arraycopy(value, 0, previousValue, 0, value.length);
+		} else {
+			// The same observation with another move: advance from the
+			// previous turn again.
+			System.arraycopy(previousKnown, 0, known, 0, known.length);
+			System.arraycopy(previousValue, 0, value, 0, value.length);
+		}
+		currentSees = seesState;
+		currentMove = move;
+
+		int role = roleIndex(seesState);
+		if (move != null && role >= 0) {
+			markMove(role, move);
+		}
+		advance();
+		if (role >= 0) {
+			markSees(role, seesState.getSees());
+		}
+	}
+
+	/**
+	 * Sets the knowledge to the initial state, in which every base
+	 * proposition is known.
+	 */
+	private void setInitialKnowledge() {
+		Arrays.fill(known, 0);
+		Arrays.fill(value, 0);
+		for (int i = 0; i < numBases; i++) {
+			known[i >>> 6] |= 1L << i;
+		}
+		for (int base : net.getInitialBases()) {
+			value[base >>> 6] |= 1L << base;
+		}
+		decideGates();
+		currentSees = null;
+		currentMove = null;
+	}
+
+	/**
+	 * Fixes our own inputs to the given move, and propagates what that
+	 * decides.
+	 */
+	private void markMove(int role, Move move) {
+		numPending = 0;
+		for (int i = 0; i < numInputs; i++) {
+			if (net.getInputRole(i) == role) {
+				set(numBases + i, net.getInputMove(i).equals(move));
+				pending[numPending++] = numBases + i;
+			}
+		}
+		propagate();
+	}
+
+	/**
+	 * Replaces the knowledge by what it implies about the next state: base
+	 * propositions whose transition is known, and everything that follows
+	 * from them.
+	 */
+	private void advance() {
+		Arrays.fill(nextKnown, 0);
+		Arrays.fill(nextValue, 0);
+		for (int i = 0; i < numBases; i++) {
+			int t = baseTransitions[i];
+			if (isKnown(t)) {
+				nextKnown[i >>> 6] |= 1L << i;
+				if (isTrue(t)) {
+					nextValue[i >>> 6] |= 1L << i;
+				}
+			}
+		}
+		Arrays.fill(known, 0);
+		Arrays.fill(value, 0);
+		System.arraycopy(nextKnown, 0, known, 0, nextKnown.length);
+		System.arraycopy(nextValue, 0, value, 0, nextValue.length);
+		decideGates();
+	}
+
+	/**
+	 * Decides every gate that follows from the known sources, in one sweep
+	 * in topological order. The init proposition is known to be false;
+	 * inputs stay unknown.
+	 */
+	private void decideGates() {
+		int init = net.getInitComponent();
+		if (init >= 0) {
+			known[init >>> 6] |= 1L << init;
+		}
+		for (int c = firstGate; c < types.length; c++) {
+			decide(c);
+		}
+	}
+
+	/**
+	 * Fixes the sees propositions of a role to what was observed, and
+	 * propagates what that implies.
+	 */
+	private void markSees(int role, Set<See> sees) {
+		Set<GdlSentence> seen = new HashSet<GdlSentence>();
+		if (sees != null) {
+			for (See see : sees) {
+				seen.add(see.getContents().toSentence());
+			}
+		}
+		numPending = 0;
+		for (int k = 0; k < seesComponents[role].length; k++) {
+			learn(seesComponents[role][k], seen.contains(seesNames[role][k]));
+		}
+		propagate();
+	}
+
+	private boolean isKnown(int c) {
+		return (known[c >>> 6] & (1L << c)) != 0;
+	}
+
+	private boolean isTrue(int c) {
+		return (value[c >>> 6] & (1L << c)) != 0;
+	}
+
+	private void set(int c, boolean v) {
+		known[c >>> 6] |= 1L << c;
+		if (v) {
+			value[c >>> 6] |= 1L << c;
+		}
+	}
+
+	/**
+	 * Records a fact and queues it for propagation. Facts about components
+	 * that are already known are ignored, as are facts about inputs and the
+	 * init proposition, which no observation of a state can tell.
+	 */
+	private void learn(int c, boolean v) {
+		if (isKnown(c) || (c >= numBases && c < firstGate)) {
+			return;
+		}
+		set(c, v);
+		pending[numPending++] = c;
+	}
+
+	/**
+	 * Decides a gate from its inputs, if they determine it.
+	 *
+	 * @return Whether the gate became known.
+	 */
+	private boolean decide(int c) {
+		if (isKnown(c)) {
+			return false;
+		}
+		switch (types[c]) {
+		case CompiledPropNet.TYPE_COPY:
+		case CompiledPropNet.TYPE_NOT:
+			int in = inputs[inputOffsets[c]];
+			if (!isKnown(in)) {
+				return false;
+			}
+			set(c, isTrue(in) == (types[c] == CompiledPropNet.TYPE_COPY));
+			return true;
+		case CompiledPropNet.TYPE_AND:
+		case CompiledPropNet.TYPE_OR:
+			// An AND is decided by a false input, an OR by a true one.
+			boolean decisive = types[c] == CompiledPropNet.TYPE_OR;
+			boolean allKnown = true;
+			for (int k = inputOffsets[c]; k < inputOffsets[c + 1]; k++) {
+				if (!isKnown(inputs[k])) {
+					allKnown = false;
+				} else if (isTrue(inputs[k]) == decisive) {
+					set(c, decisive);
+					return true;
+				}
+			}
+			if (allKnown) {
+				set(c, !decisive);
+			}
+			return allKnown;
+		case CompiledPropNet.TYPE_TRUE:
+		case CompiledPropNet.TYPE_FALSE:
+			set(c, types[c] == CompiledPropNet.TYPE_TRUE);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Draws the conclusions a known gate allows about its inputs: a copy or
+	 * negation fixes its input, a true AND (false OR) fixes all of them, and
+	 * a false AND (true OR) fixes the last undecided one once all the others
+	 * fail to decide it.
+	 */
+	private void infer(int c) {
+		if (c < firstGate) {
+			return;
+		}
+		boolean v = isTrue(c);
+		switch (types[c]) {
+		case CompiledPropNet.TYPE_COPY:
+			learn(inputs[inputOffsets[c]], v);
+			break;
+		case CompiledPropNet.TYPE_NOT:
+			learn(inputs[inputOffsets[c]], !v);
+			break;
+		case CompiledPropNet.TYPE_AND:
+		case CompiledPropNet.TYPE_OR:
+			boolean decisive = types[c] == CompiledPropNet.TYPE_OR;
+			if (v != decisive) {
+				for (int k = inputOffsets[c]; k < inputOffsets[c + 1]; k++) {
+					learn(inputs[k], v);
+				}
+				break;
+			}
+			int undecided = -1;
+			for (int k = inputOffsets[c]; k < inputOffsets[c + 1]; k++) {
+				int in = inputs[k];
+				if (!isKnown(in)) {
+					if (undecided >= 0) {
+						return;
+					}
+					undecided = in;
+				} else if (isTrue(in) == decisive) {
+					return;
+				}
+			}
+			if (undecided >= 0) {
+				learn(undecided, decisive);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Propagates the pending facts until nothing more follows: each new
+	 * fact is pushed back to the inputs of its component and forward to its
+	 * outputs, and gates that were already known are checked for new
+	 * conclusions about their other inputs.
+	 */
+	private void propagate() {
+		while (numPending > 0) {
+			int c = pending[--numPending];
+			infer(c);
+			for (int k = outputOffsets[c]; k < outputOffsets[c + 1]; k++) {
+				int out = outputs[k];
+				if (isKnown(out)) {
+					infer(out);
+				} else if (decide(out)) {
+					pending[numPending++] = out;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.compiled.CompiledPropNet;
+import org.ggp.base.util.propnet.compiled.PropNetEvaluator;
+import org.ggp.base.util.propnet.compiled.PropNetEvaluatorGenerator;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.optimizer.PropNetOptimizer;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+
+/**
+ * A state machine that answers every query through a {@link PropNetEvaluator}
+ * generated from the game's compiled propnet at initialization time.
+ *
+ * For small and medium games the evaluator is a class of straight-line
+ * boolean code built with javassist; games too large for that get the
+ * interpreted evaluator instead, so this machine works for any game the
+ * propnet factory can handle.
+ *
+ * Instances are not thread-safe. A generated evaluator holds no state, so
+ * threads can share one by passing it to several machines; an interpreted
+ * one cannot be shared.
+ */
+public class BytecodePropNetStateMachine extends StateMachine {
+    private CompiledPropNet net;
+    private PropNetEvaluator evaluator;
+    private List<Role> roles;
+    private MachineState initialState;
+
+    /** The last foreign state converted to a base vector, and that vector. */
+    private MachineState lastState;
+    private long[] lastBases;
+    private long[] inputScratch;
+    private boolean[][] legalScratch;
+
+    public BytecodePropNetStateMachine() {
+    }
+
+    /**
+     * Creates a machine over an already compiled network and its evaluator.
+     * The machine is ready to use; {@link #initialize(List)} should not be
+     * called.
+     */
+    public BytecodePropNetStateMachine(CompiledPropNet net, PropNetEvaluator evaluator) {
+        setNet(net, evaluator);
+    }
+
+    @Override
+    public void initialize(List<Gdl> description) {
+        try {
+            PropNet propNet = OptimizingPropNetFactory.create(description);
+            PropNetOptimizer.createDefault().optimize(propNet);
+            CompiledPropNet net = CompiledPropNet.compile(propNet);
+            setNet(net, PropNetEvaluatorGenerator.generate(net));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void setNet(CompiledPropNet net, PropNetEvaluator evaluator) {
+        this.net = net;
+        this.evaluator = evaluator;
+        this.roles = net.getRoles();
+        this.lastState = null;
+        this.lastBases = new long[(net.getNumBases() + 63) >>> 6];
+        this.inputScratch = new long[(net.getNumInputs() + 63) >>> 6];
+        this.legalScratch = new boolean[roles.size()][];
+        for (int r = 0; r < roles.size(); r++) {
+            legalScratch[r] = new boolean[net.getLegalComponents(r).length];
+        }
+        long[] initial = new long[lastBases.length];
+        for (int base : net.getInitialBases()) {
+            initial[base >>> 6] |= 1L << base;
+        }
+        this.initialState = new PropNetMachineState(net, initial);
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return The evaluator this machine delegates to.
+     */
+    public PropNetEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return initialState;
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        return evaluator.isTerminal(toBases(state));
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+        int goal = evaluator.getGoal(toBases(state), getRoleIndices().get(role));
+        if (goal < 0) {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+        int r = getRoleIndices().get(role);
+        boolean[] legals = legalScratch[r];
+        evaluator.getLegals(toBases(state), r, legals);
+        Move[] legalMoves = net.getLegalMoves(r);
+        List<Move> moves = new ArrayList<Move>();
+        for (int k = 0; k < legals.length; k++) {
+            if (legals[k]) {
+                moves.add(legalMoves[k]);
+            }
+        }
+        if (moves.isEmpty()) {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+        Arrays.fill(inputScratch, 0L);
+        for (int r = 0; r < roles.size(); r++) {
+            int input = net.getInputIndex(r, moves.get(r));
+            if (input < 0) {
+                throw new TransitionDefinitionException(state, moves);
+            }
+            inputScratch[input >>> 6] |= 1L << input;
+        }
+        long[] next = new long[lastBases.length];
+        evaluator.getNextState(toBases(state), inputScratch, next);
+        return new PropNetMachineState(net, next);
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException {
+        int r = getRoleIndices().get(role);
+        List<Move> actions = new ArrayList<Move>();
+        for (int i = 0; i < net.getNumInputs(); i++) {
+            if (net.getInputRole(i) == r) {
+                actions.add(net.getInputMove(i));
+            }
+        }
+        return actions;
+    }
+
+    private long[] toBases(MachineState state) {
+        if (state instanceof PropNetMachineState && ((PropNetMachineState) state).getNet() == net) {
+            return ((PropNetMachineState) state).getBases();
+        }
+        if (state != lastState) {
+            Arrays.fill(lastBases, 0L);
+            for (GdlSentence sentence : state.getContents()) {
+                int base = net.getBaseIndex(sentence);
+                if (base >= 0) {
+                    lastBases[base >>> 6] |= 1L << base;
+                }
+            }
+            lastState = state;
+        }
+        return lastBases;
+    }
+}
@@ -0,0 +1,1268 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.compiled.CompiledPropNet;
+import org.ggp.base.util.propnet.compiled.LatchAnalysis;
+import org.ggp.base.util.propnet.compiled.PropNetFactors;
+import org.ggp.base.util.propnet.compiled.PropNetSymmetries;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.optimizer.PropNetOptimizer;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+
+/**
+ * A state machine backed by a {@link CompiledPropNet}.
+ *
+ * The network structure is shared and immutable; this class only owns a
+ * bit-packed vector holding the current value of every component, plus a
+ * count of true inputs for every gate. Propagation is differential: when a
+ * base or input proposition flips, the change is pushed along its outputs,
+ * each gate adjusts its count, and only gates whose value actually changes
+ * push further. Loading a state that differs from the current one in a few
+ * propositions therefore only touches their fan-out cone.
+ *
+ * Propagation is also lazy for the parts of the network that only matter to
+ * one kind of query. Gates that feed only legal propositions, only goals, or
+ * only the terminal proposition form three groups; changes reaching a group
+ * are queued and only pushed through when that kind of query is made. A
+ * rollout ply never evaluates goal logic, and getNextState never evaluates
+ * legality or termination. Gates that affect nothing at all are never
+ * evaluated.
+ *
+ * Given a {@link LatchAnalysis}, the machine also stops evaluating the
+ * transitions of latched base propositions. Gates that only feed the
+ * transition of one latch are set aside; while the latch holds in the loaded
+ * state, changes reaching them are dropped, since the next value of the base
+ * is already known. If a state is later loaded in which the latch does not
+ * hold, the gates are evaluated afresh before the transition is read. Late in
+ * a game, when most of the board is decided, this leaves only the live part
+ * of the network to propagate through.
+ *
+ * For games that are sums of independent subgames, the machine can be
+ * restricted to one factor of a {@link PropNetFactors} partition with
+ * {@link #setFactor(PropNetFactors, int)}. Legal moves, random moves and
+ * rollouts then only use the moves of that factor, so a search sees the
+ * branching factor of one subgame, and since the inputs of other factors
+ * never flip, each ply only propagates through the factor's own cone.
+ *
+ * Like PropNetImplementation, the machine also has a stateful interface
+ * (setBaseProps, toNextState, isTerminal(), getGoal(Role), ...) that
+ * operates on whatever state is currently loaded, for players that drive
+ * the network directly during depth charges.
+ *
+ * Instances are not thread-safe. Threads that want to share one network
+ * should each create their own machine around the same CompiledPropNet, or
+ * copy an existing machine, which is much cheaper. Within one thread, a
+ * search can save the loaded state in a {@link Snapshot} and return to it.
+ */
+public class CompiledPropNetStateMachine extends StateMachine {
+    private static final int EAGER = 0;
+    private static final int LAZY_LEGAL = 1;
+    private static final int LAZY_GOAL = 2;
+    private static final int LAZY_TERMINAL = 3;
+    private static final int UNUSED = 4;
+    private static final int LATCH = 5;
+
+    /** The compiled network; shared, never modified. */
+    private CompiledPropNet net;
+    /** The player roles */
+    private List<Role> roles;
+    /** The current value of every component, one bit each. */
+    private long[] values;
+    /** The number of true inputs of every component. */
+    private int[] trueInputs;
+    /** Value changes not yet pushed to outputs, as (component << 1) | newValue. */
+    private int[] pending;
+    private int numPending;
+    /** The input currently set for each role, or -1. */
+    private int[] activeInputs;
+    /** Scratch array for the inputs of the joint move being played. */
+    private int[] jointInputs;
+    /**
+     * For each role, the slots (as in CompiledPropNet.getLegalComponents) of
+     * its legal propositions that are currently true, in no particular order,
+     * followed by unused space.
+     */
+    private int[][] trueLegals;
+    private int[] numTrueLegals;
+    /** For each role and legal slot, its position in trueLegals, or -1. */
+    private int[][] trueLegalPositions;
+    private int[] legalRoles;
+    private int[] legalSlots;
+    /**
+     * For each role and legal slot, whether the move may be played in the
+     * factor being searched, or null if every move may.
+     */
+    private boolean[][] factorSlots;
+    /** Scratch list of true legal slots that the factor allows. */
+    private int[] playableScratch;
+    /** The propagation group of every component: EAGER, LAZY_*, UNUSED or LATCH. */
+    private byte[] groups;
+    /** Changes queued for each lazy group, as (component << 1) | newInputValue. */
+    private int[][] deferred;
+    private int[] numDeferred;
+    /** How many queued changes a lazy group may hold before it is flushed anyway. */
+    private int[] deferredLimits;
+    /** The lazy group being flushed, whose changes are applied directly, or EAGER. */
+    private int flushing;
+    /** The latches found in the network, or null to treat no base as one. */
+    private LatchAnalysis latches;
+    /** For every base, its index among the latched bases, or -1. */
+    private int[] baseLatches;
+    /** For every latched base, the gates that feed only its transition, in index order. */
+    private int[][] latchCones;
+    /** For every component in a latch cone, the index of its latch, or -1. */
+    private int[] latchOwners;
+    /** Whether each latched base currently holds a value it keeps. */
+    private boolean[] latchEngaged;
+    /** Whether changes have been dropped from the cone of each latched base. */
+    private boolean[] latchDirty;
+    /** The symmetries used to canonicalize states, or null for none. */
+    private PropNetSymmetries symmetries;
+    /** The Zobrist hash of the base propositions currently loaded. */
+    private long zobristHash;
+    /** Scratch vector for the base propositions of a state being loaded. */
+    private long[] baseScratch;
+    /** The state currently loaded into the base propositions. */
+    private MachineState currentState;
+    /**
+     * The undo log of makeMove: the bases each move flipped, one ply after
+     * another, and for every ply where its bases start, the inputs that were
+     * set and the state that was loaded before it.
+     */
+    private int[] undoBases = new int[64];
+    private int numUndoBases;
+    private int[] undoMarks = new int[16];
+    private int[][] undoInputs = new int[16][];
+    private MachineState[] undoStates = new MachineState[16];
+    private int undoDepth;
+    /** Whether loadBases should add the bases it flips to the undo log. */
+    private boolean logging;
+    /** The initial state of the game. */
+    private MachineState initialState;
+
+    private final Random random = new Random();
+
+    public CompiledPropNetStateMachine() {
+    }
+
+    /**
+     * Creates a machine over an already compiled network. The machine is
+     * ready to use; {@link #initialize(List)} should not be called.
+     */
+    public CompiledPropNetStateMachine(CompiledPropNet net) {
+        this(net, null);
+    }
+
+    /**
+     * Creates a machine over an already compiled network that skips the
+     * transitions of the given latches while they hold. The analysis must be
+     * of the same network, and can be shared by machines on several threads.
+     */
+    public CompiledPropNetStateMachine(CompiledPropNet net, LatchAnalysis latches) {
+        setNet(net, latches);
+    }
+
+    /**
+     * Creates a machine with the same network, latches, symmetries and
+     * factor as another one, and the same state loaded. Everything that
+     * depends only on the network is shared; the values, counts and queues
+     * are copied, which takes a few array copies rather than the full
+     * evaluation of the network a new machine needs. The copy is independent
+     * of the original, so it can be handed to another thread.
+     */
+    public CompiledPropNetStateMachine(CompiledPropNetStateMachine other) {
+        this.net = other.net;
+        this.roles = other.roles;
+        this.latches = other.latches;
+        this.legalRoles = other.legalRoles;
+        this.legalSlots = other.legalSlots;
+        this.groups = other.groups;
+        this.deferredLimits = other.deferredLimits;
+        this.baseLatches = other.baseLatches;
+        this.latchCones = other.latchCones;
+        this.latchOwners = other.latchOwners;
+        this.factorSlots = other.factorSlots;
+        this.symmetries = other.symmetries;
+        this.initialState = other.initialState;
+
+        this.values = other.values.clone();
+        this.trueInputs = other.trueInputs.clone();
+        this.pending = other.pending.clone();
+        this.numPending = other.numPending;
+        this.activeInputs = other.activeInputs.clone();
+        this.jointInputs = new int[roles.size()];
+        this.trueLegals = new int[roles.size()][];
+        this.trueLegalPositions = new int[roles.size()][];
+        for (int r = 0; r < roles.size(); r++) {
+            trueLegals[r] = other.trueLegals[r].clone();
+            trueLegalPositions[r] = other.trueLegalPositions[r].clone();
+        }
+        this.numTrueLegals = other.numTrueLegals.clone();
+        this.playableScratch = other.playableScratch == null ? null : new int[other.playableScratch.length];
+        this.deferred = new int[other.deferred.length][];
+        for (int g = 0; g < deferred.length; g++) {
+            deferred[g] = other.deferred[g] == null ? null : other.deferred[g].clone();
+        }
+        this.numDeferred = other.numDeferred.clone();
+        this.flushing = EAGER;
+        this.latchEngaged = other.latchEngaged.clone();
+        this.latchDirty = other.latchDirty.clone();
+        this.zobristHash = other.zobristHash;
+        this.baseScratch = new long[other.baseScratch.length];
+        this.currentState = other.currentState;
+    }
+
+    @Override
+    public void initialize(List<Gdl> description) {
+        try {
+            PropNet propNet = OptimizingPropNetFactory.create(description);
+            PropNetOptimizer.createDefault().optimize(propNet);
+            CompiledPropNet net = CompiledPropNet.compile(propNet);
+            setNet(net, LatchAnalysis.analyze(net, random));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void setNet(CompiledPropNet net, LatchAnalysis latches) {
+        this.net = net;
+        this.latches = latches;
+        this.roles = net.getRoles();
+        this.values = new long[(net.getNumComponents() + 63) >>> 6];
+        this.trueInputs = new int[net.getNumComponents()];
+        this.pending = new int[64];
+        this.numPending = 0;
+        this.activeInputs = new int[roles.size()];
+        Arrays.fill(activeInputs, -1);
+        this.jointInputs = new int[roles.size()];
+        this.legalRoles = net.getLegalRoles();
+        this.legalSlots = net.getLegalSlots();
+        this.trueLegals = new int[roles.size()][];
+        this.numTrueLegals = new int[roles.size()];
+        this.trueLegalPositions = new int[roles.size()][];
+        for (int r = 0; r < roles.size(); r++) {
+            trueLegals[r] = new int[net.getLegalComponents(r).length];
+            trueLegalPositions[r] = new int[net.getLegalComponents(r).length];
+        }
+        this.baseScratch = new long[(net.getNumBases() + 63) >>> 6];
+        setUpGroups();
+        setUpLatches();
+        resetValues();
+        this.initialState = solveInitialState();
+        this.currentState = null;
+    }
+
+    /**
+     * Sorts components into propagation groups by the queries that depend
+     * on them. Anything in the next-state cone, or shared between several
+     * kinds of query, stays eager.
+     */
+    private void setUpGroups() {
+        int[] coneMasks = net.getConeMasks();
+        groups = new byte[coneMasks.length];
+        int[] groupSizes = new int[LAZY_TERMINAL + 1];
+        for (int c = 0; c < coneMasks.length; c++) {
+            switch (coneMasks[c]) {
+            case 0:
+                groups[c] = UNUSED;
+                break;
+            case CompiledPropNet.CONE_LEGAL:
+                groups[c] = LAZY_LEGAL;
+                break;
+            case CompiledPropNet.CONE_GOAL:
+                groups[c] = LAZY_GOAL;
+                break;
+            case CompiledPropNet.CONE_TERMINAL:
+                groups[c] = LAZY_TERMINAL;
+                break;
+            default:
+                groups[c] = EAGER;
+                break;
+            }
+            if (groups[c] <= LAZY_TERMINAL) {
+                groupSizes[groups[c]]++;
+            }
+        }
+        deferred = new int[LAZY_TERMINAL + 1][16];
+        numDeferred = new int[LAZY_TERMINAL + 1];
+        deferredLimits = new int[LAZY_TERMINAL + 1];
+        for (int g = LAZY_LEGAL; g <= LAZY_TERMINAL; g++) {
+            deferredLimits[g] = 64 + 4 * groupSizes[g];
+        }
+        flushing = EAGER;
+    }
+
+    /**
+     * Finds, for every latched base, the gates whose values matter only to
+     * its transition, and moves them out of the eager group. Walking the
+     * gates in reverse topological order, a gate belongs to a cone if it
+     * only feeds the next state and all its outputs belong to that cone.
+     */
+    private void setUpLatches() {
+        int numBases = net.getNumBases();
+        int n = net.getNumComponents();
+        baseLatches = new int[numBases];
+        Arrays.fill(baseLatches, -1);
+        latchOwners = new int[n];
+        Arrays.fill(latchOwners, -1);
+        int numLatches = 0;
+        if (latches != null) {
+            for (int i = 0; i < numBases; i++) {
+                if (latches.isPositiveLatch(i) || latches.isNegativeLatch(i)) {
+                    baseLatches[i] = numLatches++;
+                }
+            }
+        }
+        latchEngaged = new boolean[numLatches];
+        latchDirty = new boolean[numLatches];
+        latchCones = new int[numLatches][];
+        if (numLatches == 0) {
+            return;
+        }
+
+        // Transitions shared by several bases, which the optimizer can
+        // produce, are left to the eager group.
+        int[] transitions = net.getBaseTransitions();
+        int[] transitionLatches = new int[n];
+        Arrays.fill(transitionLatches, -1);
+        for (int i = 0; i < numBases; i++) {
+            int t = transitions[i];
+            transitionLatches[t] = transitionLatches[t] == -1 && baseLatches[i] >= 0 ? baseLatches[i] : -2;
+        }
+        int[] coneMasks = net.getConeMasks();
+        int[] outputOffsets = net.getOutputOffsets();
+        int[] outputs = net.getOutputs();
+        int[] coneSizes = new int[numLatches];
+        for (int c = n - 1; c >= net.getFirstGate(); c--) {
+            if (coneMasks[c] != CompiledPropNet.CONE_NEXT || transitionLatches[c] == -2) {
+                continue;
+            }
+            int owner = transitionLatches[c];
+            for (int k = outputOffsets[c]; k < outputOffsets[c + 1] && owner != -2; k++) {
+                int o = latchOwners[outputs[k]];
+                owner = o >= 0 && (owner == -1 || owner == o) ? o : -2;
+            }
+            if (owner >= 0) {
+                latchOwners[c] = owner;
+                groups[c] = LATCH;
+                coneSizes[owner]++;
+            }
+        }
+        for (int k = 0; k < numLatches; k++) {
+            latchCones[k] = new int[coneSizes[k]];
+            coneSizes[k] = 0;
+        }
+        for (int c = net.getFirstGate(); c < n; c++) {
+            if (latchOwners[c] >= 0) {
+                latchCones[latchOwners[c]][coneSizes[latchOwners[c]]++] = c;
+            }
+        }
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return The compiled network this machine evaluates.
+     */
+    public CompiledPropNet getCompiledPropNet() {
+        return net;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return The latches this machine skips, or null if it has none.
+     */
+    public LatchAnalysis getLatches() {
+        return latches;
+    }
+
+    private MachineState solveInitialState() {
+        long[] bases = new long[baseScratch.length];
+        for (int base : net.getInitialBases()) {
+            bases[base >>> 6] |= 1L << base;
+        }
+        return new PropNetMachineState(net, bases);
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return initialState;
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        setBaseProps(state);
+        return isTerminal();
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+        setBaseProps(state);
+        int goal = findGoal(roleIndex(role));
+        if (goal < 0) {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+        setBaseProps(state);
+        List<Move> moves = getLegalMoves(role);
+        if (moves.isEmpty()) {
+            throw new MoveDefinitionException(state, role);
+        }
+        return moves;
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+        setBaseProps(state);
+        toNextState(moves);
+        return getStateFromBase();
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException {
+        int r = roleIndex(role);
+        List<Move> actions = new ArrayList<Move>();
+        for (int i = 0; i < net.getNumInputs(); i++) {
+            if (net.getInputRole(i) == r) {
+                actions.add(net.getInputMove(i));
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Loads the given state into the base propositions and brings the rest
+     * of the network up to date. Only base propositions whose value differs
+     * from the loaded state are flipped, and loading the state that is
+     * already current costs nothing.
+     */
+    public void setBaseProps(MachineState state) {
+        if (state == currentState) {
+            return;
+        }
+        clearUndoLog();
+        clearInputs();
+        if (state instanceof PropNetMachineState && ((PropNetMachineState) state).getNet() == net) {
+            loadBases(((PropNetMachineState) state).getBases());
+        } else {
+            Arrays.fill(baseScratch, 0L);
+            for (GdlSentence sentence : state.getContents()) {
+                int base = net.getBaseIndex(sentence);
+                if (base >= 0) {
+                    baseScratch[base >>> 6] |= 1L << base;
+                }
+            }
+            loadBases(baseScratch);
+        }
+        propagate();
+        currentState = state;
+    }
+
+    /**
+     * Returns the value of the terminal proposition in the loaded state.
+     */
+    public boolean isTerminal() {
+        flush(LAZY_TERMINAL);
+        return get(net.getTerminalComponent());
+    }
+
+    /**
+     * Returns the goal value for a role in the loaded state, or 0 if no goal
+     * proposition of the role is true. Like PropNetImplementation, this lets
+     * heuristics read goals in non-terminal states.
+     */
+    public int getGoal(Role role) {
+        return Math.max(findGoal(roleIndex(role)), 0);
+    }
+
+    private int findGoal(int r) {
+        flush(LAZY_GOAL);
+        int[] goals = net.getGoalComponents(r);
+        int[] goalValues = net.getGoalValues(r);
+        for (int k = 0; k < goals.length; k++) {
+            if (get(goals[k])) {
+                return goalValues[k];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the legal moves for a role in the loaded state.
+     */
+    public List<Move> getLegalMoves(Role role) {
+        int r = roleIndex(role);
+        flush(LAZY_LEGAL);
+        int[] legals = net.getLegalComponents(r);
+        Move[] legalMoves = net.getLegalMoves(r);
+        List<Move> moves = new ArrayList<Move>();
+        boolean[] allowed = factorSlots == null ? null : factorSlots[r];
+        for (int k = 0; k < legals.length; k++) {
+            if (get(legals[k]) && (allowed == null || allowed[k])) {
+                moves.add(legalMoves[k]);
+            }
+        }
+        if (moves.isEmpty() && allowed != null) {
+            for (int k = 0; k < legals.length; k++) {
+                if (get(legals[k])) {
+                    moves.add(legalMoves[k]);
+                }
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Returns the number of legal moves for a role in the loaded state.
+     */
+    public int getNumLegalMoves(Role role) {
+        flush(LAZY_LEGAL);
+        int r = roleIndex(role);
+        return factorSlots == null ? numTrueLegals[r] : findPlayableLegals(r);
+    }
+
+    /**
+     * Returns a random legal move for a role in the loaded state.
+     */
+    public Move getRandomMove(Role role) throws MoveDefinitionException {
+        int r = roleIndex(role);
+        return net.getLegalMoves(r)[getRandomLegalSlot(r)];
+    }
+
+    /**
+     * Returns a random joint move in the loaded state.
+     */
+    public List<Move> getRandomJointMove() throws MoveDefinitionException {
+        List<Move> joint = new ArrayList<Move>(roles.size());
+        for (Role role : roles) {
+            joint.add(getRandomMove(role));
+        }
+        return joint;
+    }
+
+    /**
+     * Returns every joint move that is legal in the loaded state.
+     */
+    public List<List<Move>> getLegalJointMoves() throws MoveDefinitionException {
+        return getLegalJointMoves(getStateFromBase());
+    }
+
+    /**
+     * Returns every joint move that is legal in the loaded state and in which
+     * the given role makes the given move.
+     */
+    public List<List<Move>> getLegalJointMoves(Role role, Move move) throws MoveDefinitionException {
+        return getLegalJointMoves(getStateFromBase(), role, move);
+    }
+
+    /**
+     * Advances the loaded state by the given joint move, listed in the same
+     * order as {@link #getRoles()}.
+     */
+    public void toNextState(List<Move> moves) throws TransitionDefinitionException {
+        for (int r = 0; r < roles.size(); r++) {
+            int input = net.getInputIndex(r, moves.get(r));
+            if (input < 0) {
+                throw new TransitionDefinitionException(getStateFromBase(), moves);
+            }
+            jointInputs[r] = input;
+        }
+        clearUndoLog();
+        toNextState(jointInputs);
+    }
+
+    /**
+     * Advances the loaded state by a random legal joint move. Unlike
+     * toNextState(getRandomJointMove()), this allocates nothing.
+     *
+     * @throws MoveDefinitionException if some role has no legal move.
+     */
+    public void toRandomNextState() throws MoveDefinitionException {
+        for (int r = 0; r < roles.size(); r++) {
+            jointInputs[r] = getRandomLegalInput(r);
+        }
+        clearUndoLog();
+        toNextState(jointInputs);
+    }
+
+    @Override
+    public int performRollout(MachineState state, int[] theGoals) throws MoveDefinitionException, GoalDefinitionException {
+        setBaseProps(state);
+        int depth = 0;
+        while (!isTerminal()) {
+            toRandomNextState();
+            depth++;
+        }
+        for (int r = 0; r < roles.size(); r++) {
+            theGoals[r] = findGoal(r);
+            if (theGoals[r] < 0) {
+                throw new GoalDefinitionException(getStateFromBase(), roles.get(r));
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the input index of a random legal move of a role in the loaded
+     * state, or -1 if the chosen move has no input proposition.
+     */
+    private int getRandomLegalInput(int r) throws MoveDefinitionException {
+        return net.getLegalInputs(r)[getRandomLegalSlot(r)];
+    }
+
+    /**
+     * Returns the slot of a random legal move of a role in the loaded state,
+     * among those the current factor allows.
+     */
+    private int getRandomLegalSlot(int r) throws MoveDefinitionException {
+        flush(LAZY_LEGAL);
+        if (numTrueLegals[r] == 0) {
+            throw new MoveDefinitionException(getStateFromBase(), roles.get(r));
+        }
+        if (factorSlots == null) {
+            return trueLegals[r][random.nextInt(numTrueLegals[r])];
+        }
+        return playableScratch[random.nextInt(findPlayableLegals(r))];
+    }
+
+    /**
+     * Collects the true legal slots of a role that the current factor allows
+     * into playableScratch, and returns how many there are. If the factor
+     * allows none of them, for instance because its subgame is over, all of
+     * them are playable, so the game can still be played to the end.
+     */
+    private int findPlayableLegals(int r) {
+        int[] list = trueLegals[r];
+        boolean[] allowed = factorSlots[r];
+        int count = 0;
+        for (int i = 0; i < numTrueLegals[r]; i++) {
+            if (allowed[list[i]]) {
+                playableScratch[count++] = list[i];
+            }
+        }
+        if (count == 0) {
+            System.arraycopy(list, 0, playableScratch, 0, numTrueLegals[r]);
+            count = numTrueLegals[r];
+        }
+        return count;
+    }
+
+    /**
+     * Restricts the moves this machine offers to those of one factor of the
+     * network, plus moves that belong to no factor, such as a noop. Terminal
+     * and goal queries still look at the whole game. Passing null lifts the
+     * restriction.
+     */
+    public void setFactor(PropNetFactors factors, int factor) {
+        if (factors == null) {
+            factorSlots = null;
+            return;
+        }
+        factorSlots = new boolean[roles.size()][];
+        int maxLegals = 0;
+        for (int r = 0; r < roles.size(); r++) {
+            int[] legalInputs = net.getLegalInputs(r);
+            factorSlots[r] = new boolean[legalInputs.length];
+            for (int k = 0; k < legalInputs.length; k++) {
+                int f = legalInputs[k] < 0 ? -1 : factors.getInputFactor(legalInputs[k]);
+                factorSlots[r][k] = f == factor || f < 0;
+            }
+            maxLegals = Math.max(maxLegals, legalInputs.length);
+        }
+        playableScratch = new int[maxLegals];
+    }
+
+    /**
+     * Sets the symmetries {@link #getCanonicalState(MachineState)} uses, or
+     * null to use none. They must have been found for this machine's network.
+     */
+    public void setSymmetries(PropNetSymmetries symmetries) {
+        this.symmetries = symmetries;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return The symmetries used to canonicalize states, or null if none.
+     */
+    public PropNetSymmetries getSymmetries() {
+        return symmetries;
+    }
+
+    /**
+     * Returns the state every state symmetric to the given one maps to, for
+     * use as a key in transposition tables. Without symmetries, or if the
+     * state is already canonical, the state itself is returned. The loaded
+     * state is not changed.
+     */
+    public MachineState getCanonicalState(MachineState state) {
+        if (symmetries == null || symmetries.getNumSymmetries() == 1) {
+            return state;
+        }
+        boolean compiled = state instanceof PropNetMachineState && ((PropNetMachineState) state).getNet() == net;
+        long[] bases;
+        if (compiled) {
+            bases = ((PropNetMachineState) state).getBases();
+        } else {
+            bases = new long[baseScratch.length];
+            for (GdlSentence sentence : state.getContents()) {
+                int base = net.getBaseIndex(sentence);
+                if (base >= 0) {
+                    bases[base >>> 6] |= 1L << base;
+                }
+            }
+        }
+        long[] canonical = symmetries.canonicalize(bases);
+        return canonical == bases && compiled ? state : new PropNetMachineState(net, canonical);
+    }
+
+    /**
+     * Advances the loaded state by the joint move made of the given input
+     * indices, one per role.
+     */
+    private void toNextState(int[] inputs) {
+        setInputs(inputs);
+        propagate();
+
+        int[] transitions = net.getBaseTransitions();
+        Arrays.fill(baseScratch, 0L);
+        for (int i = 0; i < transitions.length; i++) {
+            int k = baseLatches[i];
+            boolean next;
+            if (k >= 0 && latchEngaged[k]) {
+                next = get(i);
+            } else {
+                if (k >= 0 && latchDirty[k]) {
+                    refreshLatchCone(k);
+                }
+                next = get(transitions[i]);
+            }
+            if (next) {
+                baseScratch[i >>> 6] |= 1L << i;
+            }
+        }
+        loadBases(baseScratch);
+        propagate();
+        // Built lazily by getStateFromBase(), since depth charges rarely ask.
+        currentState = null;
+    }
+
+    /**
+     * Returns the state currently loaded into the base propositions.
+     */
+    public MachineState getStateFromBase() {
+        if (currentState == null) {
+            long[] bases = Arrays.copyOf(values, baseScratch.length);
+            int numBases = net.getNumBases();
+            if ((numBases & 63) != 0) {
+                bases[bases.length - 1] &= (1L << numBases) - 1;
+            }
+            currentState = new PropNetMachineState(net, bases, zobristHash);
+        }
+        return currentState;
+    }
+
+    /**
+     * Returns the Zobrist hash of the state currently loaded into the base
+     * propositions. It is kept up to date as bases flip, so this costs
+     * nothing, and it equals the hash of the state getStateFromBase()
+     * returns.
+     */
+    public long getZobristHash() {
+        return zobristHash;
+    }
+
+    /**
+     * The base and input propositions of a machine at some point of a
+     * search, saved with {@link #saveSnapshot(Snapshot)} so that the search
+     * can come back to it later. A snapshot is meant to be reused: saving
+     * into it overwrites what it held, without allocating.
+     */
+    public static final class Snapshot {
+        private final CompiledPropNet net;
+        private final long[] bases;
+        private final int[] inputs;
+        private MachineState state;
+        private boolean saved;
+
+        private Snapshot(CompiledPropNet net) {
+            this.net = net;
+            this.bases = new long[(net.getNumBases() + 63) >>> 6];
+            this.inputs = new int[net.getRoles().size()];
+        }
+    }
+
+    /**
+     * Creates an empty snapshot for this machine, or any other machine over
+     * the same network.
+     */
+    public Snapshot newSnapshot() {
+        return new Snapshot(net);
+    }
+
+    /**
+     * Saves the loaded state, and the moves set on the input propositions,
+     * into a snapshot. This copies the base propositions, a word for every
+     * 64 of them, and nothing else.
+     */
+    public void saveSnapshot(Snapshot snapshot) {
+        if (snapshot.net != net) {
+            throw new IllegalArgumentException("The snapshot is for another network");
+        }
+        System.arraycopy(values, 0, snapshot.bases, 0, snapshot.bases.length);
+        int numBases = net.getNumBases();
+        if ((numBases & 63) != 0) {
+            snapshot.bases[snapshot.bases.length - 1] &= (1L << numBases) - 1;
+        }
+        System.arraycopy(activeInputs, 0, snapshot.inputs, 0, activeInputs.length);
+        snapshot.state = currentState;
+        snapshot.saved = true;
+    }
+
+    /**
+     * Loads the state and moves saved in a snapshot. As with
+     * {@link #setBaseProps(MachineState)}, only the base and input
+     * propositions that differ from the loaded ones are flipped, so going
+     * back a few plies in a depth-first search costs about as much as
+     * playing them did.
+     */
+    public void restoreSnapshot(Snapshot snapshot) {
+        if (snapshot.net != net || !snapshot.saved) {
+            throw new IllegalArgumentException("The snapshot is for another network, or was never saved");
+        }
+        clearUndoLog();
+        setInputs(snapshot.inputs);
+        loadBases(snapshot.bases);
+        propagate();
+        currentState = snapshot.state;
+    }
+
+    /**
+     * Advances the loaded state by the given joint move, listed in the same
+     * order as {@link #getRoles()}, so that {@link #unmakeMove()} can take it
+     * back. The undo log only records the base propositions the move flips,
+     * and the moves can be nested as deep as a search goes.
+     *
+     * Between a move and the unmakeMove that takes it back, the machine may
+     * be queried about the loaded state, and further moves may be made and
+     * taken back. Loading another state in any other way, or playing a move
+     * with toNextState, clears the log.
+     */
+    public void makeMove(List<Move> moves) throws TransitionDefinitionException {
+        for (int r = 0; r < roles.size(); r++) {
+            int input = net.getInputIndex(r, moves.get(r));
+            if (input < 0) {
+                throw new TransitionDefinitionException(getStateFromBase(), moves);
+            }
+            jointInputs[r] = input;
+        }
+        if (undoDepth == undoMarks.length) {
+            undoMarks = Arrays.copyOf(undoMarks, undoDepth * 2);
+            undoInputs = Arrays.copyOf(undoInputs, undoDepth * 2);
+            undoStates = Arrays.copyOf(undoStates, undoDepth * 2);
+        }
+        if (undoInputs[undoDepth] == null) {
+            undoInputs[undoDepth] = new int[roles.size()];
+        }
+        undoMarks[undoDepth] = numUndoBases;
+        System.arraycopy(activeInputs, 0, undoInputs[undoDepth], 0, activeInputs.length);
+        undoStates[undoDepth] = currentState;
+        undoDepth++;
+
+        logging = true;
+        toNextState(jointInputs);
+        logging = false;
+    }
+
+    /**
+     * Takes back the last move made with {@link #makeMove(List)} and not yet
+     * taken back, flipping back the base propositions it changed and
+     * restoring the moves that were set before it.
+     *
+     * @throws IllegalStateException if there is no such move.
+     */
+    public void unmakeMove() {
+        if (undoDepth == 0) {
+            throw new IllegalStateException("No move to take back");
+        }
+        undoDepth--;
+        int mark = undoMarks[undoDepth];
+        for (int i = numUndoBases - 1; i >= mark; i--) {
+            flipBase(undoBases[i]);
+        }
+        numUndoBases = mark;
+        setInputs(undoInputs[undoDepth]);
+        propagate();
+        currentState = undoStates[undoDepth];
+        undoStates[undoDepth] = null;
+    }
+
+    /**
+     * Returns the number of moves made with {@link #makeMove(List)} that can
+     * still be taken back.
+     */
+    public int getUndoDepth() {
+        return undoDepth;
+    }
+
+    private void clearUndoLog() {
+        while (undoDepth > 0) {
+            undoStates[--undoDepth] = null;
+        }
+        numUndoBases = 0;
+    }
+
+    /**
+     * Flips every base proposition whose value differs from the given
+     * vector. The changes are queued, not yet propagated.
+     */
+    private void loadBases(long[] bases) {
+        int numBases = net.getNumBases();
+        for (int w = 0; w < bases.length; w++) {
+            long mask = (w == bases.length - 1 && (numBases & 63) != 0) ? (1L << numBases) - 1 : -1L;
+            long diff = (values[w] ^ bases[w]) & mask;
+            while (diff != 0) {
+                int base = (w << 6) + Long.numberOfTrailingZeros(diff);
+                flipBase(base);
+                if (logging) {
+                    if (numUndoBases == undoBases.length) {
+                        undoBases = Arrays.copyOf(undoBases, undoBases.length * 2);
+                    }
+                    undoBases[numUndoBases++] = base;
+                }
+                diff &= diff - 1;
+            }
+        }
+    }
+
+    private void clearInputs() {
+        int numBases = net.getNumBases();
+        for (int r = 0; r < activeInputs.length; r++) {
+            if (activeInputs[r] >= 0) {
+                flip(numBases + activeInputs[r]);
+                activeInputs[r] = -1;
+            }
+        }
+    }
+
+    /**
+     * Toggles a base proposition, keeping the Zobrist hash and its latch up
+     * to date.
+     */
+    private void flipBase(int base) {
+        flip(base);
+        zobristHash ^= net.getZobristKey(base);
+        if (baseLatches[base] >= 0) {
+            updateLatch(base);
+        }
+    }
+
+    /**
+     * Sets the input propositions to the given joint move, one input index
+     * or -1 per role, flipping only those that change. The changes are
+     * queued, not yet propagated.
+     */
+    private void setInputs(int[] inputs) {
+        int numBases = net.getNumBases();
+        for (int r = 0; r < inputs.length; r++) {
+            int input = inputs[r];
+            if (input != activeInputs[r]) {
+                if (activeInputs[r] >= 0) {
+                    flip(numBases + activeInputs[r]);
+                }
+                if (input >= 0) {
+                    flip(numBases + input);
+                }
+                activeInputs[r] = input;
+            }
+        }
+    }
+
+    /**
+     * Toggles the value of a component and queues the change for its
+     * outputs.
+     */
+    private void flip(int c) {
+        values[c >>> 6] ^= 1L << c;
+        boolean value = get(c);
+        if (numPending == pending.length) {
+            pending = Arrays.copyOf(pending, pending.length * 2);
+        }
+        pending[numPending++] = (c << 1) | (value ? 1 : 0);
+        if (legalRoles[c] >= 0) {
+            updateTrueLegals(legalRoles[c], legalSlots[c], value);
+        }
+    }
+
+    /**
+     * Adds a legal slot to, or removes it from, the dense list of true legals
+     * of its role. Removal moves the last entry into the freed position.
+     */
+    private void updateTrueLegals(int r, int slot, boolean value) {
+        int[] list = trueLegals[r];
+        int[] positions = trueLegalPositions[r];
+        if (value) {
+            positions[slot] = numTrueLegals[r];
+            list[numTrueLegals[r]++] = slot;
+        } else {
+            int position = positions[slot];
+            int last = list[--numTrueLegals[r]];
+            list[position] = last;
+            positions[last] = position;
+            positions[slot] = -1;
+        }
+    }
+
+    /**
+     * Pushes queued value changes through the network until it settles.
+     * Every change carries its direction, so a gate whose count is adjusted
+     * several times in one pass still ends up with the exact number of true
+     * inputs, whatever order the changes arrive in. For the same reason,
+     * changes into a lazy group can be queued and applied later.
+     */
+    private void propagate() {
+        int[] outputOffsets = net.getOutputOffsets();
+        int[] outputs = net.getOutputs();
+        while (numPending > 0) {
+            int change = pending[--numPending];
+            int c = change >>> 1;
+            int delta = (change & 1) != 0 ? 1 : -1;
+            for (int k = outputOffsets[c]; k < outputOffsets[c + 1]; k++) {
+                int o = outputs[k];
+                int g = groups[o];
+                if (g == EAGER || g == flushing) {
+                    update(o, delta);
+                } else if (g == LATCH) {
+                    int l = latchOwners[o];
+                    if (latchEngaged[l] || latchDirty[l]) {
+                        latchDirty[l] = true;
+                    } else {
+                        update(o, delta);
+                    }
+                } else if (g != UNUSED) {
+                    defer(g, (o << 1) | (change & 1));
+                }
+            }
+        }
+        if (flushing == EAGER) {
+            for (int g = LAZY_LEGAL; g <= LAZY_TERMINAL; g++) {
+                if (numDeferred[g] > deferredLimits[g]) {
+                    flush(g);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adjusts the true-input count of a gate by one, flipping the gate if
+     * that changes its value.
+     */
+    private void update(int o, int delta) {
+        int[] inputOffsets = net.getInputOffsets();
+        int count = trueInputs[o] += delta;
+        boolean value;
+        switch (net.getTypes()[o]) {
+        case CompiledPropNet.TYPE_COPY:
+        case CompiledPropNet.TYPE_OR:
+            value = count > 0;
+            break;
+        case CompiledPropNet.TYPE_AND:
+            value = count == inputOffsets[o + 1] - inputOffsets[o];
+            break;
+        case CompiledPropNet.TYPE_NOT:
+            value = count == 0;
+            break;
+        default:
+            return;
+        }
+        if (value != get(o)) {
+            flip(o);
+        }
+    }
+
+    private void defer(int g, int change) {
+        if (numDeferred[g] == deferred[g].length) {
+            deferred[g] = Arrays.copyOf(deferred[g], deferred[g].length * 2);
+        }
+        deferred[g][numDeferred[g]++] = change;
+    }
+
+    /**
+     * Applies the changes queued for a lazy group, bringing its gates up to
+     * date. Gates in a lazy group only feed gates of the same group, so this
+     * never disturbs the rest of the network.
+     */
+    private void flush(int g) {
+        if (numDeferred[g] == 0) {
+            return;
+        }
+        flushing = g;
+        int[] changes = deferred[g];
+        int n = numDeferred[g];
+        numDeferred[g] = 0;
+        for (int i = 0; i < n; i++) {
+            update(changes[i] >>> 1, (changes[i] & 1) != 0 ? 1 : -1);
+        }
+        propagate();
+        flushing = EAGER;
+    }
+
+    private void updateLatch(int base) {
+        int k = baseLatches[base];
+        latchEngaged[k] = get(base) ? latches.isPositiveLatch(base) : latches.isNegativeLatch(base);
+    }
+
+    /**
+     * Re-evaluates the gates in the cone of a latched base, from inputs
+     * outside the cone that are up to date. Only the cone and the
+     * transition read these gates, so nothing else has to be told.
+     */
+    private void refreshLatchCone(int k) {
+        int[] types = net.getTypes();
+        int[] offsets = net.getInputOffsets();
+        int[] inputs = net.getInputs();
+        for (int c : latchCones[k]) {
+            int count = 0;
+            for (int i = offsets[c]; i < offsets[c + 1]; i++) {
+                if (get(inputs[i])) {
+                    count++;
+                }
+            }
+            trueInputs[c] = count;
+            switch (types[c]) {
+            case CompiledPropNet.TYPE_COPY:
+            case CompiledPropNet.TYPE_OR:
+                set(c, count > 0);
+                break;
+            case CompiledPropNet.TYPE_AND:
+                set(c, count == offsets[c + 1] - offsets[c]);
+                break;
+            case CompiledPropNet.TYPE_NOT:
+                set(c, count == 0);
+                break;
+            default:
+                break;
+            }
+        }
+        latchDirty[k] = false;
+    }
+
+    /**
+     * Sets every source to false and evaluates every other component in
+     * index order, which the compiled network guarantees to be topological,
+     * then counts the true inputs of each component and lists the true legal
+     * propositions. This establishes the invariants that
+     * {@link #propagate()} and {@link #flip(int)} maintain from then on.
+     */
+    private void resetValues() {
+        Arrays.fill(values, 0L);
+        zobristHash = 0;
+        numPending = 0;
+        Arrays.fill(numDeferred, 0);
+        int[] types = net.getTypes();
+        int[] offsets = net.getInputOffsets();
+        int[] inputs = net.getInputs();
+        int n = net.getNumComponents();
+        for (int c = net.getFirstGate(); c < n; c++) {
+            boolean value;
+            switch (types[c]) {
+            case CompiledPropNet.TYPE_COPY:
+                value = get(inputs[offsets[c]]);
+                break;
+            case CompiledPropNet.TYPE_NOT:
+                value = !get(inputs[offsets[c]]);
+                break;
+            case CompiledPropNet.TYPE_AND:
+                value = true;
+                for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+                    if (!get(inputs[k])) {
+                        value = false;
+                        break;
+                    }
+                }
+                break;
+            case CompiledPropNet.TYPE_OR:
+                value = false;
+                for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+                    if (get(inputs[k])) {
+                        value = true;
+                        break;
+                    }
+                }
+                break;
+            case CompiledPropNet.TYPE_TRUE:
+                value = true;
+                break;
+            default:
+                value = false;
+                break;
+            }
+            set(c, value);
+        }
+        for (int c = 0; c < n; c++) {
+            int count = 0;
+            for (int k = offsets[c]; k < offsets[c + 1]; k++) {
+                if (get(inputs[k])) {
+                    count++;
+                }
+            }
+            trueInputs[c] = count;
+        }
+        Arrays.fill(latchDirty, false);
+        for (int i = 0; i < baseLatches.length; i++) {
+            if (baseLatches[i] >= 0) {
+                updateLatch(i);
+            }
+        }
+        for (int r = 0; r < roles.size(); r++) {
+            numTrueLegals[r] = 0;
+            Arrays.fill(trueLegalPositions[r], -1);
+            int[] legals = net.getLegalComponents(r);
+            for (int k = 0; k < legals.length; k++) {
+                if (get(legals[k])) {
+                    updateTrueLegals(r, k, true);
+                }
+            }
+        }
+    }
+
+    private int roleIndex(Role role) {
+        return getRoleIndices().get(role);
+    }
+
+    private boolean get(int c) {
+        return (values[c >>> 6] & (1L << c)) != 0;
+    }
+
+    private void set(int c, boolean value) {
+        if (value) {
+            values[c >>> 6] |= (1L << c);
+        } else {
+            values[c >>> 6] &= ~(1L << c);
+        }
+    }
+}
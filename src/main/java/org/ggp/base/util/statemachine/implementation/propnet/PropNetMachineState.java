@@ -0,0 +1,128 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.compiled.CompiledPropNet;
+import org.ggp.base.util.statemachine.HashedMachineState;
+import org.ggp.base.util.statemachine.MachineState;
+
+
+/**
+ * A MachineState stored as one bit per base proposition of a
+ * {@link CompiledPropNet}.
+ *
+ * Propnet machines create and consume these without ever touching GDL: the
+ * next state is a copy of a few words, loading it is a word-by-word diff,
+ * and two states of the same network compare with Arrays.equals. The GDL
+ * contents are only built if someone outside the machine asks for them.
+ *
+ * The hash code is the one a plain MachineState with the same contents would
+ * have, so both kinds of state can be mixed in hash-based collections. It is
+ * computed once, from hash codes the network caches per base proposition.
+ * The Zobrist hash uses the keys of {@link CompiledPropNet}, so it agrees
+ * between all machines over the same network.
+ *
+ * Instances are immutable; {@link #getContents()} is read-only.
+ */
+public final class PropNetMachineState extends HashedMachineState {
+    private final CompiledPropNet net;
+    private final long[] bases;
+    private volatile Set<GdlSentence> contents;
+    /** Cached hash code, or 0 if not computed yet. */
+    private int hashCode;
+
+    /**
+     * Wraps a base vector of the given network. The array is taken over, not
+     * copied, and must not be modified afterwards.
+     */
+    public PropNetMachineState(CompiledPropNet net, long[] bases) {
+        this(net, bases, net.getZobristHash(bases));
+    }
+
+    /**
+     * Wraps a base vector of the given network whose Zobrist hash is already
+     * known, as it is to a machine that keeps it up to date.
+     */
+    public PropNetMachineState(CompiledPropNet net, long[] bases, long zobristHash) {
+        super(null, zobristHash);
+        this.net = net;
+        this.bases = bases;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return The network whose base propositions this state refers to.
+     */
+    public CompiledPropNet getNet() {
+        return net;
+    }
+
+    /**
+     * Returns the base vector of this state: base <tt>i</tt> is true if bit
+     * <tt>i &amp; 63</tt> of word <tt>i &gt;&gt;&gt; 6</tt> is set. The
+     * array must not be modified.
+     */
+    public long[] getBases() {
+        return bases;
+    }
+
+    /**
+     * Returns whether the given base proposition is true in this state.
+     */
+    public boolean isTrue(int base) {
+        return (bases[base >>> 6] & (1L << base)) != 0;
+    }
+
+    @Override
+    public Set<GdlSentence> getContents() {
+        Set<GdlSentence> result = contents;
+        if (result == null) {
+            result = new HashSet<GdlSentence>();
+            for (int w = 0; w < bases.length; w++) {
+                for (long bits = bases[w]; bits != 0; bits &= bits - 1) {
+                    result.add(net.getBaseName((w << 6) + Long.numberOfTrailingZeros(bits)));
+                }
+            }
+            result = Collections.unmodifiableSet(result);
+            contents = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a plain MachineState with a modifiable copy of the contents,
+     * as MachineState.clone() does.
+     */
+    @Override
+    public MachineState clone() {
+        return new MachineState(new HashSet<GdlSentence>(getContents()));
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hashCode;
+        if (h == 0) {
+            for (int w = 0; w < bases.length; w++) {
+                for (long bits = bases[w]; bits != 0; bits &= bits - 1) {
+                    h += net.getBaseHashCode((w << 6) + Long.numberOfTrailingZeros(bits));
+                }
+            }
+            hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof PropNetMachineState && ((PropNetMachineState) o).net == net) {
+            PropNetMachineState other = (PropNetMachineState) o;
+            return other.getZobristHash() == getZobristHash() && Arrays.equals(bases, other.bases);
+        }
+        return super.equals(o);
+    }
+}
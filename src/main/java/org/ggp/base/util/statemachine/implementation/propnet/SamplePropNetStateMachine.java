@@ -43,6 +43,7 @@ public class SamplePropNetStateMachine extends StateMachine {
     public void initialize(List<Gdl> description) {
         try {
             propNet = OptimizingPropNetFactory.create(description);
+            propNet.freeze();
             roles = propNet.getRoles();
             ordering = getOrdering();
         } catch (InterruptedException e) {
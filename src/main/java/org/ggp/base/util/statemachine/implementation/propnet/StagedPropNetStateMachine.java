@@ -0,0 +1,287 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.propnet.compiled.CompiledPropNet;
+import org.ggp.base.util.propnet.compiled.CompiledPropNetCache;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+
+/**
+ * A state machine that answers with a prover while a compiled propnet for
+ * the game is built in the background, and switches to the propnet once it
+ * is ready.
+ *
+ * Initializing the machine only initializes the prover, which is quick even
+ * for games whose propnet takes longer to build than the start clock allows.
+ * A daemon thread then gets the network from the {@link CompiledPropNetCache}
+ * and plays a few random matches on it and on a separate prover, comparing
+ * initial states, legal moves, successor states, termination and goals at
+ * every step. Only a network that agrees with the prover throughout is put
+ * into service; one that fails to build or to verify is logged, and the
+ * machine keeps using the prover for the rest of the match.
+ *
+ * States from either machine can be passed to the other, so the switch can
+ * happen between any two calls. Players that want to drive the network
+ * directly can wait for it with {@link #awaitNet(long)}, or poll
+ * {@link #getNet()}, and build machines of their own around it.
+ *
+ * Like the machines it wraps, this machine is not thread-safe, apart from
+ * the methods that report on the background build.
+ */
+public class StagedPropNetStateMachine extends StateMachine {
+    private final CompiledPropNetCache cache;
+    private final int numVerificationMatches;
+    private final ProverStateMachine prover;
+    /** The machine answering queries, once the network is verified. */
+    private volatile CompiledPropNetStateMachine propNetMachine;
+    /** Whether the network failed to build or to verify. */
+    private volatile boolean failed;
+    private Thread builder;
+
+    /**
+     * Creates a machine that gets networks from the default cache and
+     * verifies them on 3 random matches.
+     */
+    public StagedPropNetStateMachine() {
+        this(new CompiledPropNetCache(), 3);
+    }
+
+    public StagedPropNetStateMachine(CompiledPropNetCache cache, int numVerificationMatches) {
+        this.cache = cache;
+        this.numVerificationMatches = numVerificationMatches;
+        this.prover = new ProverStateMachine();
+    }
+
+    @Override
+    public String getName() {
+        CompiledPropNetStateMachine machine = propNetMachine;
+        return "Staged(" + (machine != null ? machine.getName() : prover.getName()) + ")";
+    }
+
+    /**
+     * Initializes the prover and starts building the network. Returns as
+     * soon as the prover is ready.
+     */
+    @Override
+    public synchronized void initialize(final List<Gdl> description) {
+        stopBuilding();
+        propNetMachine = null;
+        failed = false;
+        prover.initialize(description);
+
+        builder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                build(description);
+            }
+        }, "PropNetBuilder");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    private void build(List<Gdl> description) {
+        try {
+            long start = System.currentTimeMillis();
+            CompiledPropNet net = cache.getNet(description);
+            long built = System.currentTimeMillis();
+            String mismatch = verify(net, description);
+            if (mismatch != null) {
+                GamerLogger.logError("StateMachine", "Staged Machine: propnet disagrees with the prover (" + mismatch + "). Staying with the prover.");
+                fail();
+                return;
+            }
+            synchronized (this) {
+                if (builder != Thread.currentThread()) {
+                    return;
+                }
+                propNetMachine = new CompiledPropNetStateMachine(net);
+            }
+            GamerLogger.log("StateMachine", "Staged Machine: switched to the propnet, built in " + (built - start) + " ms and verified in " + (System.currentTimeMillis() - built) + " ms.");
+        } catch (InterruptedException e) {
+            fail();
+        } catch (Exception e) {
+            GamerLogger.logError("StateMachine", "Staged Machine: failed to build the propnet. Staying with the prover.");
+            GamerLogger.logStackTrace("StateMachine", e);
+            fail();
+        } catch (ThreadDeath d) {
+            fail();
+            throw d;
+        } catch (Error e) {
+            // Running out of memory on a huge network is exactly the case
+            // this machine is for; the prover does not need the network.
+            GamerLogger.logError("StateMachine", "Staged Machine: failed to build the propnet. Staying with the prover.");
+            GamerLogger.logStackTrace("StateMachine", e);
+            fail();
+        }
+    }
+
+    /**
+     * Records that the network will not be used, unless the builder calling
+     * this has been replaced by another one in the meantime.
+     */
+    private synchronized void fail() {
+        if (builder == Thread.currentThread()) {
+            failed = true;
+        }
+    }
+
+    /**
+     * Plays random matches on the network and on a prover of its own,
+     * and returns a description of the first difference, or null.
+     */
+    private String verify(CompiledPropNet net, List<Gdl> description) throws Exception {
+        StateMachine expected = new ProverStateMachine();
+        expected.initialize(description);
+        StateMachine actual = new CompiledPropNetStateMachine(net);
+        if (!expected.getRoles().equals(actual.getRoles())) {
+            return "roles " + actual.getRoles();
+        }
+
+        for (int i = 0; i < numVerificationMatches; i++) {
+            MachineState state = expected.getInitialState();
+            MachineState actualState = actual.getInitialState();
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (!state.equals(actualState)) {
+                    return "state " + actualState + " instead of " + state;
+                }
+                boolean terminal = expected.isTerminal(state);
+                if (actual.isTerminal(actualState) != terminal) {
+                    return "termination of " + state;
+                }
+                if (terminal) {
+                    for (Role role : expected.getRoles()) {
+                        if (actual.getGoal(actualState, role) != expected.getGoal(state, role)) {
+                            return "goal of " + role + " in " + state;
+                        }
+                    }
+                    break;
+                }
+                for (Role role : expected.getRoles()) {
+                    if (!new HashSet<Move>(actual.getLegalMoves(actualState, role)).equals(new HashSet<Move>(expected.getLegalMoves(state, role)))) {
+                        return "legal moves of " + role + " in " + state;
+                    }
+                }
+                List<Move> moves = expected.getRandomJointMove(state);
+                actualState = actual.getNextState(actualState, moves);
+                state = expected.getNextState(state, moves);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops building the network, if it is still being built. The builder is
+     * interrupted, not waited for; whatever it produces is thrown away, and
+     * the machine keeps using the prover.
+     */
+    public synchronized void stopBuilding() {
+        if (builder == null) {
+            return;
+        }
+        builder.interrupt();
+        builder = null;
+    }
+
+    /**
+     * Returns whether the network has been built and verified, and the
+     * machine now answers with it.
+     */
+    public boolean isPropNetReady() {
+        return propNetMachine != null;
+    }
+
+    /**
+     * Returns whether the network could not be built or verified, in which
+     * case the machine will use the prover for good.
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the verified network, or null if it is not ready (yet).
+     */
+    public CompiledPropNet getNet() {
+        CompiledPropNetStateMachine machine = propNetMachine;
+        return machine == null ? null : machine.getCompiledPropNet();
+    }
+
+    /**
+     * Waits until the network is ready, has failed, or the given time (as
+     * from System.currentTimeMillis) has come.
+     *
+     * @return The verified network, or null if it is not ready.
+     */
+    public CompiledPropNet awaitNet(long deadline) {
+        Thread thread;
+        synchronized (this) {
+            thread = builder;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if (thread != null && remaining > 0) {
+            try {
+                thread.join(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return getNet();
+    }
+
+    /**
+     * Returns the machine to answer the current query with.
+     */
+    private StateMachine getBackingMachine() {
+        CompiledPropNetStateMachine machine = propNetMachine;
+        return machine != null ? machine : prover;
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException {
+        return getBackingMachine().findActions(role);
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+        return getBackingMachine().getGoal(state, role);
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state) {
+        return getBackingMachine().isTerminal(state);
+    }
+
+    @Override
+    public List<Role> getRoles() {
+        return prover.getRoles();
+    }
+
+    @Override
+    public MachineState getInitialState() {
+        return getBackingMachine().getInitialState();
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+        return getBackingMachine().getLegalMoves(state, role);
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+        return getBackingMachine().getNextState(state, moves);
+    }
+}
@@ -14,6 +14,19 @@ import org.ggp.base.util.gdl.scrambler.GdlScramblerTest;
 import org.ggp.base.util.gdl.transforms.GdlCleanerTest;
 import org.ggp.base.util.http.HttpTest;
 import org.ggp.base.util.presence.InfoResponseTest;
+import org.ggp.base.util.propnet.architecture.ComponentTest;
+import org.ggp.base.util.propnet.architecture.PropNetStatisticsTest;
+import org.ggp.base.util.propnet.compiled.BatchPropNetSimulatorTest;
+import org.ggp.base.util.propnet.compiled.CompiledPropNetCacheTest;
+import org.ggp.base.util.propnet.compiled.LatchAnalysisTest;
+import org.ggp.base.util.propnet.compiled.PropNetFactorsTest;
+import org.ggp.base.util.propnet.compiled.PropNetSymmetriesTest;
+import org.ggp.base.util.propnet.compiled.TranspositionTableTest;
+import org.ggp.base.util.propnet.optimizer.PropNetOptimizerTest;
+import org.ggp.base.util.statemachine.iistatemachine.IICompiledPropNetStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.propnet.BytecodePropNetStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.propnet.CompiledPropNetStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.propnet.StagedPropNetStateMachineTest;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineTest;
 import org.ggp.base.validator.StaticValidationTest;
 import org.junit.runner.RunWith;
@@ -22,22 +35,35 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
 	BaseCryptographyTest.class,
+	BatchPropNetSimulatorTest.class,
+	BytecodePropNetStateMachineTest.class,
 	CanonicalJSONTest.class,
 	ClojureGamerTest.class,
+	CompiledPropNetCacheTest.class,
+	CompiledPropNetStateMachineTest.class,
+	ComponentTest.class,
 	DependencyGraphsTest.class,
 	GameParsingTest.class,
 	GdlCleanerTest.class,
 	GdlRendererTest.class,
 	GdlScramblerTest.class,
 	HttpTest.class,
+	IICompiledPropNetStateMachineTest.class,
 	InfoResponseTest.class,
+	LatchAnalysisTest.class,
 	NoTabsInRulesheetsTest.class,
+	PropNetFactorsTest.class,
+	PropNetOptimizerTest.class,
+	PropNetStatisticsTest.class,
+	PropNetSymmetriesTest.class,
 	ProverStateMachineTest.class,
 	PythonGamerTest.class,
 	SignableJSONTest.class,
 	SimpleSentenceFormTest.class,
+	StagedPropNetStateMachineTest.class,
 	StaticValidationTest.class,
 	TiltyardRequestFarmTest.class,
+	TranspositionTableTest.class,
                      })
 public class AllTests {
 
@@ -0,0 +1,107 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.statemachine.Role;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ComponentTest extends Assert {
+
+    private static void link(Component from, Component to) {
+        from.addOutput(to);
+        to.addInput(from);
+    }
+
+    private static Proposition proposition(String name) {
+        return new Proposition(GdlPool.getProposition(GdlPool.getConstant(name)));
+    }
+
+    /**
+     * Returns the values of the gates for every assignment of the sources.
+     */
+    private static List<Boolean> evaluate(Proposition[] sources, Component[] gates) {
+        List<Boolean> values = new ArrayList<Boolean>();
+        for (int bits = 0; bits < 1 << sources.length; bits++) {
+            for (int i = 0; i < sources.length; i++) {
+                sources[i].setValue((bits & (1 << i)) != 0);
+            }
+            for (Component gate : gates) {
+                values.add(gate.getValue());
+            }
+        }
+        return values;
+    }
+
+    @Test
+    public void testFreezeKeepsLinksAndValues() {
+        // out = not((a and b) or c)
+        Proposition a = proposition("a");
+        Proposition b = proposition("b");
+        Proposition c = proposition("c");
+        And and = new And();
+        Or or = new Or();
+        Not not = new Not();
+        Proposition out = proposition("out");
+        link(a, and);
+        link(b, and);
+        link(and, or);
+        link(c, or);
+        link(or, not);
+        link(not, out);
+        Proposition[] sources = new Proposition[] {a, b, c};
+        Component[] gates = new Component[] {and, or, not, out};
+        Set<Component> components = new HashSet<Component>(Arrays.asList(a, b, c, and, or, not, out));
+
+        Map<Component, Set<Component>> inputs = new HashMap<Component, Set<Component>>();
+        Map<Component, Set<Component>> outputs = new HashMap<Component, Set<Component>>();
+        for (Component component : components) {
+            inputs.put(component, new HashSet<Component>(component.getInputs()));
+            outputs.put(component, new HashSet<Component>(component.getOutputs()));
+        }
+        List<Boolean> before = evaluate(sources, gates);
+
+        PropNet propNet = new PropNet(new ArrayList<Role>(), components);
+        propNet.freeze();
+        for (Component component : components) {
+            assertTrue(component.isFrozen());
+            assertEquals(inputs.get(component), component.getInputs());
+            assertEquals(outputs.get(component), component.getOutputs());
+            assertEquals(inputs.get(component), new HashSet<Component>(Arrays.asList(component.getInputArray())));
+            assertEquals(outputs.get(component), new HashSet<Component>(Arrays.asList(component.getOutputArray())));
+        }
+        assertSame(or, not.getSingleInput());
+        assertSame(out, not.getSingleOutput());
+        assertSame(not, out.getSingleInput());
+        assertEquals(before, evaluate(sources, gates));
+
+        try {
+            and.addInput(c);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        try {
+            or.removeOutput(not);
+            fail();
+        } catch (IllegalStateException e) {
+        }
+        try {
+            and.getInputs().add(c);
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+        assertEquals(2, and.getInputs().size());
+        assertTrue(or.getOutputs().contains(not));
+    }
+}
@@ -0,0 +1,38 @@
+package org.ggp.base.util.propnet.architecture;
+
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.optimizer.PropNetOptimizer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetStatisticsTest extends Assert {
+
+    @Test
+    public void testCompactNamesKeepsStateMachineNames() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        PropNet propNet = OptimizingPropNetFactory.create(desc);
+        PropNetOptimizer.createDefault().optimize(propNet);
+        PropNetStatistics before = propNet.getStatistics();
+        assertEquals(propNet.getSize(), before.getNumComponents());
+        assertEquals(propNet.getNumLinks(), before.getNumLinks());
+        assertEquals(propNet.getNumAnds(), before.getNumAnds());
+        assertEquals(propNet.getPropositions().size(), before.getNumPropositions());
+
+        int dropped = propNet.compactNames();
+        propNet.freeze();
+        PropNetStatistics after = propNet.getStatistics();
+        assertEquals(before.getNumViews(), dropped);
+        assertTrue(after.getNameBytes() <= before.getNameBytes());
+        assertTrue(after.getLinkBytes() < before.getLinkBytes());
+        for (Proposition p : propNet.getBasePropositions().values()) {
+            assertNotNull(p.getName());
+        }
+        assertNotNull(propNet.getTerminalProposition().getName());
+        assertEquals(0, propNet.compactNames());
+    }
+}
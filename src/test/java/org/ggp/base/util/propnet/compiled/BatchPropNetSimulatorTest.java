@@ -0,0 +1,36 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchPropNetSimulatorTest extends Assert {
+
+    @Test
+    public void testTicTacToeRollouts() throws Exception {
+        CompiledPropNet net = CompiledPropNetFixtures.compile("ticTacToe");
+        BatchPropNetSimulator simulator = new BatchPropNetSimulator(net, new Random(1));
+        long[] initial = new long[(net.getNumBases() + 63) >>> 6];
+        for (int base : net.getInitialBases()) {
+            initial[base >>> 6] |= 1L << base;
+        }
+        int[][] goals = new int[2][BatchPropNetSimulator.LANES];
+        int[] depths = new int[BatchPropNetSimulator.LANES];
+
+        assertEquals(-1L, simulator.performRollouts(initial, Integer.MAX_VALUE, goals, depths));
+        boolean sawDifferentDepths = false;
+        for (int lane = 0; lane < BatchPropNetSimulator.LANES; lane++) {
+            assertTrue(depths[lane] >= 5 && depths[lane] <= 9);
+            assertEquals(100, goals[0][lane] + goals[1][lane]);
+            sawDifferentDepths |= depths[lane] != depths[0];
+        }
+        assertTrue(sawDifferentDepths);
+
+        // No game of tic-tac-toe ends within four moves.
+        assertEquals(0L, simulator.performRollouts(initial, 4, goals, depths));
+        for (int lane = 0; lane < BatchPropNetSimulator.LANES; lane++) {
+            assertEquals(4, depths[lane]);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledPropNetCacheTest extends Assert {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File directory = File.createTempFile("propnet-cache", "");
+        directory.delete();
+        try {
+            CompiledPropNetCache cache = new CompiledPropNetCache(directory);
+            for (String game : new String[] {"ticTacToe", "connectFour", "simpleMutex"}) {
+                List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+                CompiledPropNet built = cache.getNet(desc);
+                assertTrue(game, cache.getFile(desc).isFile());
+                CompiledPropNet loaded = cache.getNet(desc);
+                assertNotSame(game, built, loaded);
+                assertSameNet(game, built, loaded);
+            }
+
+            // A damaged entry is rebuilt rather than trusted.
+            List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+            FileOutputStream out = new FileOutputStream(cache.getFile(desc));
+            out.write(new byte[] {1, 2, 3});
+            out.close();
+            CompiledPropNet rebuilt = cache.getNet(desc);
+            assertEquals(OptimizingPropNetFactory.create(desc).getBasePropositions().size(), rebuilt.getNumBases());
+            assertSameNet("ticTacToe", rebuilt, CompiledPropNetCache.load(cache.getFile(desc)));
+
+            // So is one whose array lengths run past the end of the file.
+            RandomAccessFile file = new RandomAccessFile(cache.getFile(desc), "rw");
+            file.seek(24);
+            file.writeInt(Integer.MAX_VALUE);
+            file.close();
+            try {
+                CompiledPropNetCache.load(cache.getFile(desc));
+                fail();
+            } catch (IOException e) {
+            }
+            rebuilt = cache.getNet(desc);
+            assertSameNet("ticTacToe", rebuilt, CompiledPropNetCache.load(cache.getFile(desc)));
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private static void assertSameNet(String game, CompiledPropNet expected, CompiledPropNet actual) {
+        assertEquals(game, expected.getRoles(), actual.getRoles());
+        assertArrayEquals(game, expected.getTypes(), actual.getTypes());
+        assertArrayEquals(game, expected.getInputs(), actual.getInputs());
+        assertArrayEquals(game, expected.getOutputs(), actual.getOutputs());
+        assertArrayEquals(game, expected.getBaseTransitions(), actual.getBaseTransitions());
+        assertArrayEquals(game, expected.getInitialBases(), actual.getInitialBases());
+        assertArrayEquals(game, expected.getConeMasks(), actual.getConeMasks());
+        for (int i = 0; i < expected.getNumBases(); i++) {
+            assertEquals(game, expected.getBaseName(i), actual.getBaseName(i));
+        }
+        for (int i = 0; i < expected.getNumInputs(); i++) {
+            assertEquals(game, expected.getInputName(i), actual.getInputName(i));
+            assertEquals(game, i, actual.getInputIndex(actual.getInputRole(i), expected.getInputMove(i)));
+        }
+        for (int r = 0; r < expected.getRoles().size(); r++) {
+            assertEquals(game, Arrays.asList(expected.getLegalMoves(r)), Arrays.asList(actual.getLegalMoves(r)));
+            assertArrayEquals(game, expected.getLegalInputs(r), actual.getLegalInputs(r));
+            assertArrayEquals(game, expected.getGoalComponents(r), actual.getGoalComponents(r));
+            assertArrayEquals(game, expected.getGoalValues(r), actual.getGoalValues(r));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.junit.Assert;
+
+/**
+ * Networks and lookups shared by the tests of the compiled propnet classes.
+ */
+final class CompiledPropNetFixtures {
+
+    private CompiledPropNetFixtures() {
+    }
+
+    /**
+     * Compiles the unoptimized network of a game from the test repository.
+     */
+    static CompiledPropNet compile(String game) throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+        return CompiledPropNet.compile(OptimizingPropNetFactory.create(desc));
+    }
+
+    /**
+     * Returns the index of the base with the given name, failing the test
+     * if the network has no such base.
+     */
+    static int baseIndex(CompiledPropNet net, String sentence) throws Exception {
+        int base = net.getBaseIndex((GdlSentence) GdlFactory.create(sentence));
+        Assert.assertTrue(sentence, base >= 0);
+        return base;
+    }
+}
@@ -0,0 +1,42 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatchAnalysisTest extends Assert {
+
+    @Test
+    public void testTicTacToeLatches() throws Exception {
+        CompiledPropNet net = CompiledPropNetFixtures.compile("ticTacToe");
+        LatchAnalysis latches = LatchAnalysis.analyze(net, new Random(1));
+
+        // A mark stays once placed, and a square stays taken.
+        int x = CompiledPropNetFixtures.baseIndex(net, "( true ( cell 1 1 x ) )");
+        int blank = CompiledPropNetFixtures.baseIndex(net, "( true ( cell 1 1 b ) )");
+        int control = CompiledPropNetFixtures.baseIndex(net, "( true ( control xplayer ) )");
+        assertTrue(latches.isPositiveLatch(x));
+        assertFalse(latches.isNegativeLatch(x));
+        assertTrue(latches.isNegativeLatch(blank));
+        assertFalse(latches.isPositiveLatch(blank));
+        assertFalse(latches.isPositiveLatch(control));
+        assertFalse(latches.isNegativeLatch(control));
+        assertEquals(27, latches.getNumLatches());
+
+        long[] bases = new long[(net.getNumBases() + 63) >>> 6];
+        bases[blank >>> 6] |= 1L << blank;
+        assertFalse(latches.isLatched(bases, blank));
+        assertFalse(latches.isLatched(bases, x));
+        bases[blank >>> 6] &= ~(1L << blank);
+        bases[x >>> 6] |= 1L << x;
+        assertTrue(latches.isLatched(bases, blank));
+        assertTrue(latches.isLatched(bases, x));
+
+        // The three contents of a square are never seen together.
+        for (int[] group : latches.getExclusiveGroups()) {
+            assertTrue(group.length >= 2);
+        }
+        assertFalse(latches.getExclusiveGroups().isEmpty());
+    }
+}
@@ -0,0 +1,31 @@
+package org.ggp.base.util.propnet.compiled;
+
+import org.ggp.base.util.statemachine.Move;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetFactorsTest extends Assert {
+
+    @Test
+    public void testTwoCounters() throws Exception {
+        CompiledPropNet net = CompiledPropNetFixtures.compile("twoCounters");
+        PropNetFactors factors = PropNetFactors.find(net);
+        assertEquals(2, factors.getNumFactors());
+
+        int a = factors.getBaseFactor(CompiledPropNetFixtures.baseIndex(net, "( true ( a 0 ) )"));
+        int b = factors.getBaseFactor(CompiledPropNetFixtures.baseIndex(net, "( true ( b 0 ) )"));
+        assertTrue(a != b);
+        assertEquals(a, factors.getBaseFactor(CompiledPropNetFixtures.baseIndex(net, "( true ( a 3 ) )")));
+        assertEquals(b, factors.getBaseFactor(CompiledPropNetFixtures.baseIndex(net, "( true ( b 3 ) )")));
+        assertEquals(a, factors.getInputFactor(net.getInputIndex(0, Move.create("inca"))));
+        assertEquals(b, factors.getInputFactor(net.getInputIndex(0, Move.create("incb"))));
+        assertEquals(net.getNumBases(), factors.getBases(a).length + factors.getBases(b).length);
+        assertEquals(1, factors.getInputs(a).length);
+    }
+
+    @Test
+    public void testTicTacToeIsOneFactor() throws Exception {
+        CompiledPropNet net = CompiledPropNetFixtures.compile("ticTacToe");
+        assertEquals(1, PropNetFactors.find(net).getNumFactors());
+    }
+}
@@ -0,0 +1,52 @@
+package org.ggp.base.util.propnet.compiled;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetSymmetriesTest extends Assert {
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        CompiledPropNet net = CompiledPropNetFixtures.compile("ticTacToe");
+        PropNetSymmetries symmetries = PropNetSymmetries.find(net);
+        assertEquals(8, symmetries.getNumSymmetries());
+
+        int corner = CompiledPropNetFixtures.baseIndex(net, "( true ( cell 1 1 x ) )");
+        Set<Integer> images = new HashSet<Integer>();
+        for (int g = 0; g < symmetries.getNumSymmetries(); g++) {
+            images.add(symmetries.getBasePermutation(g)[corner]);
+        }
+        assertEquals(4, images.size());
+        assertTrue(images.contains(CompiledPropNetFixtures.baseIndex(net, "( true ( cell 3 3 x ) )")));
+        assertEquals(CompiledPropNetFixtures.baseIndex(net, "( true ( control oplayer ) )"),
+                symmetries.getBasePermutation(1)[CompiledPropNetFixtures.baseIndex(net, "( true ( control oplayer ) )")]);
+
+        long[] a = state(net, "( true ( cell 1 1 x ) )", "( true ( cell 2 1 o ) )");
+        long[] b = state(net, "( true ( cell 3 3 x ) )", "( true ( cell 3 2 o ) )");
+        long[] c = state(net, "( true ( cell 3 3 x ) )", "( true ( cell 2 2 o ) )");
+        assertArrayEquals(symmetries.canonicalize(a), symmetries.canonicalize(b));
+        assertFalse(Arrays.equals(symmetries.canonicalize(a), symmetries.canonicalize(c)));
+    }
+
+    @Test
+    public void testTwoCountersAreInterchangeable() throws Exception {
+        CompiledPropNet net = CompiledPropNetFixtures.compile("twoCounters");
+        PropNetSymmetries symmetries = PropNetSymmetries.find(net);
+        assertEquals(2, symmetries.getNumSymmetries());
+        assertEquals(CompiledPropNetFixtures.baseIndex(net, "( true ( b 2 ) )"),
+                symmetries.getBasePermutation(1)[CompiledPropNetFixtures.baseIndex(net, "( true ( a 2 ) )")]);
+    }
+
+    private static long[] state(CompiledPropNet net, String... sentences) throws Exception {
+        long[] bases = new long[(net.getNumBases() + 63) >>> 6];
+        for (String sentence : sentences) {
+            int base = CompiledPropNetFixtures.baseIndex(net, sentence);
+            bases[base >>> 6] |= 1L << base;
+        }
+        return bases;
+    }
+}
@@ -0,0 +1,82 @@
+package org.ggp.base.util.propnet.compiled;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TranspositionTableTest extends Assert {
+
+    @Test
+    public void testAddAndLookUp() {
+        TranspositionTable table = new TranspositionTable(2, 1000);
+        assertEquals(512, table.getCapacity());
+        assertEquals(0, table.getVisits(42));
+        assertEquals(-1, table.getMeanValue(42, 0), 0);
+
+        table.add(42, new int[] {100, 0});
+        table.add(42, new int[] {50, 50});
+        table.add(0, new int[] {10, 20});
+        assertEquals(2, table.getVisits(42));
+        assertEquals(150, table.getValueSum(42, 0));
+        assertEquals(75, table.getMeanValue(42, 0), 0);
+        assertEquals(25, table.getMeanValue(42, 1), 0);
+        assertEquals(1, table.getVisits(0));
+        // Hash 0 is a state like any other.
+        assertEquals(0, table.getVisits(1));
+        assertEquals(10, table.getMeanValue(0, 0), 0);
+
+        table.clear();
+        assertEquals(0, table.getVisits(42));
+    }
+
+    @Test
+    public void testReplacementKeepsBusierEntry() {
+        TranspositionTable table = new TranspositionTable(1, 2);
+        int[] value = new int[] {100};
+        table.add(1, value);
+        table.add(1, value);
+        table.add(2, value);
+        // The bucket is full, so the entry with fewer visits gives way.
+        table.add(3, value);
+        assertEquals(2, table.getVisits(1));
+        assertEquals(0, table.getVisits(2));
+        assertEquals(1, table.getVisits(3));
+    }
+
+    @Test
+    public void testSharedBetweenThreads() throws Exception {
+        // Far more states than slots, so threads keep replacing each
+        // other's entries while adding to them.
+        final TranspositionTable table = new TranspositionTable(2, 64);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    int[] value = new int[2];
+                    for (int i = 0; i < 200000; i++) {
+                        int hash = (i * 7 + offset) & 1023;
+                        value[0] = hash % 101;
+                        value[1] = 100 - hash % 101;
+                        table.add(hash, value);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // Threads drop each other's entries when they replace them, but
+        // never mix the values of two states or skew a mean.
+        int found = 0;
+        for (int hash = 0; hash < 1024; hash++) {
+            if (table.getVisits(hash) > 0) {
+                found++;
+                assertEquals(hash % 101, table.getMeanValue(hash, 0), 0);
+                assertEquals(100 - hash % 101, table.getMeanValue(hash, 1), 0);
+            }
+        }
+        assertTrue(found > 0 && found <= table.getCapacity());
+    }
+}
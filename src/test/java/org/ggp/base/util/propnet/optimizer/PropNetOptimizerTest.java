@@ -0,0 +1,52 @@
+package org.ggp.base.util.propnet.optimizer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropNetOptimizerTest extends Assert {
+
+    @Test
+    public void testOptimizerShrinksNetworks() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour", "simpleMutex", "test_case_2a", "test_case_5c"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+            PropNet propNet = OptimizingPropNetFactory.create(desc);
+            int sizeBefore = propNet.getSize();
+            int basesBefore = propNet.getBasePropositions().size();
+            int inputsBefore = propNet.getInputPropositions().size();
+
+            PropNetOptimizer.createDefault().optimize(propNet);
+            assertTrue(game, propNet.getSize() <= sizeBefore);
+            assertEquals(game, basesBefore, propNet.getBasePropositions().size());
+            assertEquals(game, inputsBefore, propNet.getInputPropositions().size());
+
+            Set<List<Object>> gates = new HashSet<List<Object>>();
+            for (Component c : propNet.getComponents()) {
+                for (Component in : c.getInputs()) {
+                    assertTrue(game, propNet.getComponents().contains(in));
+                    assertTrue(game, in.getOutputs().contains(c));
+                }
+                if (c instanceof And || c instanceof Or) {
+                    assertTrue(game, c.getInputs().size() > 1);
+                    assertTrue(game, gates.add(Arrays.<Object>asList(c.getClass(), c.getInputs())));
+                }
+            }
+
+            // A second run finds nothing left to do.
+            for (PropNetOptimization pass : new PropNetOptimization[] {new ConstantFolding(), new RedundantComponentRemoval(), new GateCollapsing(), new DuplicateGateMerging()}) {
+                assertFalse(game, pass.apply(propNet));
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.ggp.base.util.statemachine.iistatemachine;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.See;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IICompiledPropNetStateMachineTest extends Assert {
+
+    /**
+     * Random hides a or b; the player only sees a clue if it hid a, and then
+     * has to claim what was hidden.
+     */
+    private static List<Gdl> getHiddenGame() {
+        StringBuilder rules = new StringBuilder();
+        rules.append("(role random) (role player) (secret a) (secret b)\n");
+        rules.append("(init (step 0))\n");
+        rules.append("(<= (legal random (hide ?x)) (true (step 0)) (secret ?x))\n");
+        rules.append("(<= (legal random wait) (true (step 1)))\n");
+        rules.append("(<= (legal player wait) (true (step 0)))\n");
+        rules.append("(<= (legal player (claim ?x)) (true (step 1)) (true (hidden ?x)))\n");
+        rules.append("(<= (next (hidden ?x)) (does random (hide ?x)))\n");
+        rules.append("(<= (next (hidden ?x)) (true (hidden ?x)))\n");
+        rules.append("(<= (next (step 1)) (true (step 0)))\n");
+        rules.append("(<= (next (step 2)) (true (step 1)))\n");
+        rules.append("(<= (sees player clue) (true (hidden a)))\n");
+        rules.append("(<= terminal (true (step 2)))\n");
+        rules.append("(goal random 0) (goal player 100)\n");
+        return Game.createEphemeralGame(Game.preprocessRulesheet(rules.toString())).getRules();
+    }
+
+    @Test
+    public void testSeesDecideLegalMoves() throws Exception {
+        List<Gdl> desc = getHiddenGame();
+        StateMachine sm = new ProverStateMachine();
+        sm.initialize(desc);
+        IICompiledPropNetStateMachine ii = new IICompiledPropNetStateMachine();
+        ii.initialize(sm, desc);
+        Role random = new Role(GdlPool.getConstant("random"));
+        Role player = new Role(GdlPool.getConstant("player"));
+        Move wait = new Move(GdlFactory.createTerm("wait"));
+        Move claimA = new Move(GdlFactory.createTerm("(claim a)"));
+        Move claimB = new Move(GdlFactory.createTerm("(claim b)"));
+
+        // The initial state is known to everyone.
+        assertEquals(Arrays.asList(wait), ii.refineLegalMoves(null, player));
+        assertEquals(2, ii.refineLegalMoves(null, random).size());
+
+        MachineState hidA = sm.getNextState(sm.getInitialState(), Arrays.asList(new Move(GdlFactory.createTerm("(hide a)")), wait));
+        SeesState seesA = ii.getSeesState(hidA, player);
+        assertEquals(1, seesA.getSees().size());
+        assertEquals(Arrays.asList(claimA), ii.getLegalMoves(seesA, wait));
+        // Nothing says b was not hidden as well.
+        assertEquals(new HashSet<Move>(Arrays.asList(claimA, claimB)), new HashSet<Move>(ii.refineLegalMoves(seesA, wait, player)));
+        assertEquals(Arrays.asList(wait), ii.refineLegalMoves(seesA, wait, random));
+        // Asking again about the same observation does not advance the game.
+        assertEquals(Arrays.asList(claimA), ii.getLegalMoves(seesA, wait));
+
+        // Without the clue, the player knows a was not hidden, but not that
+        // b was.
+        ii.getLegalMoves((SeesState) null);
+        MachineState hidB = sm.getNextState(sm.getInitialState(), Arrays.asList(new Move(GdlFactory.createTerm("(hide b)")), wait));
+        SeesState seesB = ii.getSeesState(hidB, player);
+        assertTrue(seesB.getSees().isEmpty());
+        assertTrue(ii.getLegalMoves(seesB).isEmpty());
+        assertEquals(Arrays.asList(claimB), ii.refineLegalMoves(seesB, player));
+
+        // The outcome is fixed, and known after the last move.
+        assertEquals(Arrays.asList(0, 100), ii.getGoals(new SeesState(player, new HashSet<See>())));
+    }
+}
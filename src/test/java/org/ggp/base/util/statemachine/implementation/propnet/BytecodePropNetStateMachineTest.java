@@ -0,0 +1,37 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.compiled.CompiledPropNet;
+import org.ggp.base.util.propnet.compiled.InterpretedPropNetEvaluator;
+import org.ggp.base.util.propnet.compiled.PropNetEvaluatorGenerator;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BytecodePropNetStateMachineTest extends Assert {
+
+    private static final String[] GAMES = {"ticTacToe", "connectFour", "simpleMutex", "test_case_2a", "test_case_5c"};
+
+    @Test
+    public void testGeneratedAgreesWithProver() throws Exception {
+        for (String game : GAMES) {
+            List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+            CompiledPropNet net = CompiledPropNet.compile(OptimizingPropNetFactory.create(desc));
+            BytecodePropNetStateMachine sm = new BytecodePropNetStateMachine(net, PropNetEvaluatorGenerator.generateClass(net).getDeclaredConstructor().newInstance());
+            CompiledPropNetStateMachineTest.assertAgreesWithProver(game, desc, sm, 20);
+        }
+    }
+
+    @Test
+    public void testInterpretedAgreesWithProver() throws Exception {
+        for (String game : GAMES) {
+            List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+            CompiledPropNet net = CompiledPropNet.compile(OptimizingPropNetFactory.create(desc));
+            BytecodePropNetStateMachine sm = new BytecodePropNetStateMachine(net, new InterpretedPropNetEvaluator(net));
+            CompiledPropNetStateMachineTest.assertAgreesWithProver(game, desc, sm, 20);
+        }
+    }
+}
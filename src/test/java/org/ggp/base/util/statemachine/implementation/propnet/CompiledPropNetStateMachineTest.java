@@ -0,0 +1,330 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.compiled.CompiledPropNet;
+import org.ggp.base.util.propnet.compiled.LatchAnalysis;
+import org.ggp.base.util.propnet.compiled.PropNetFactors;
+import org.ggp.base.util.propnet.compiled.PropNetSymmetries;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledPropNetStateMachineTest extends Assert {
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(desc);
+        MachineState state = sm.getInitialState();
+        Role xRole = new Role(GdlPool.getConstant("xplayer"));
+        Role oRole = new Role(GdlPool.getConstant("oplayer"));
+        assertEquals(Arrays.asList(xRole, oRole), sm.getRoles());
+        assertFalse(sm.isTerminal(state));
+        assertEquals(9, sm.getLegalMoves(state, xRole).size());
+        assertEquals(1, sm.getLegalMoves(state, oRole).size());
+
+        Move noop = Move.create("noop");
+        state = sm.getNextState(state, Arrays.asList(Move.create("( mark 1 1 )"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, Move.create("( mark 1 3 )")));
+        state = sm.getNextState(state, Arrays.asList(Move.create("( mark 3 1 )"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, Move.create("( mark 2 2 )")));
+        assertFalse(sm.isTerminal(state));
+        state = sm.getNextState(state, Arrays.asList(Move.create("( mark 2 1 )"), noop));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(Arrays.asList(100, 0), sm.getGoals(state));
+    }
+
+    @Test
+    public void testAgreesWithProver() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour", "simpleMutex", "test_case_2a", "test_case_5c"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+            CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+            sm.initialize(desc);
+            assertAgreesWithProver(game, desc, sm, 20);
+        }
+    }
+
+    @Test
+    public void testUnconditionalNextKeepsInitialBase() throws Exception {
+        StringBuilder rules = new StringBuilder();
+        rules.append("(role player)\n");
+        rules.append("(init (flag on)) (init (step 0))\n");
+        // The factory feeds the transition of (flag on) straight from the
+        // TRUE constant, leaving no trace of its init fact.
+        rules.append("(next (flag on))\n");
+        rules.append("(<= (next (flag off)) (true (step 0)))\n");
+        rules.append("(<= (next (step 1)) (true (step 0)))\n");
+        rules.append("(<= (legal player wait) (true (flag on)))\n");
+        rules.append("(<= terminal (true (step 1)))\n");
+        rules.append("(goal player 100)\n");
+        List<Gdl> desc = Game.createEphemeralGame(Game.preprocessRulesheet(rules.toString())).getRules();
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(desc);
+        assertAgreesWithProver("unconditionalNext", desc, sm, 1);
+    }
+
+    @Test
+    public void testParallelFactoryAgreesWithProver() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour", "simpleMutex", "test_case_2a", "test_case_5c"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+            PropNet propNet = OptimizingPropNetFactory.create(desc, false, 4);
+            assertEquals(game, OptimizingPropNetFactory.create(desc).getComponents().size(), propNet.getComponents().size());
+            CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine(CompiledPropNet.compile(propNet));
+            assertAgreesWithProver(game, desc, sm, 20);
+        }
+    }
+
+    @Test
+    public void testLatchesSurviveStateJumps() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour"}) {
+            List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+            CompiledPropNet net = CompiledPropNet.compile(OptimizingPropNetFactory.create(desc));
+            LatchAnalysis latches = LatchAnalysis.analyze(net, new Random(1));
+            assertTrue(game, latches.getNumLatches() > 0);
+            CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine(net, latches);
+            CompiledPropNetStateMachine plain = new CompiledPropNetStateMachine(net);
+
+            // Going back to earlier states un-latches bases whose cones
+            // were skipped while they held.
+            Random random = new Random(game.hashCode());
+            List<MachineState> seen = new ArrayList<MachineState>();
+            seen.add(sm.getInitialState());
+            for (int i = 0; i < 500; i++) {
+                MachineState state = seen.get(random.nextInt(seen.size()));
+                if (sm.isTerminal(state)) {
+                    continue;
+                }
+                List<Move> joint = plain.getRandomJointMove(state);
+                MachineState next = sm.getNextState(state, joint);
+                assertEquals(game, plain.getNextState(state, joint), next);
+                assertEquals(game, plain.isTerminal(next), sm.isTerminal(next));
+                seen.add(next);
+            }
+        }
+    }
+
+    @Test
+    public void testFactorRestrictsMoves() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("twoCounters").getRules();
+        CompiledPropNet net = CompiledPropNet.compile(OptimizingPropNetFactory.create(desc));
+        PropNetFactors factors = PropNetFactors.find(net);
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine(net);
+        Role robot = sm.getRoles().get(0);
+        Move incA = Move.create("inca");
+        int a = factors.getInputFactor(net.getInputIndex(0, incA));
+
+        MachineState state = sm.getInitialState();
+        assertEquals(2, sm.getLegalMoves(state, robot).size());
+        sm.setFactor(factors, a);
+        assertEquals(Arrays.asList(incA), sm.getLegalMoves(state, robot));
+        // Once its counter is done, the factor falls back on the other moves.
+        int[] goals = new int[1];
+        assertEquals(6, sm.performRollout(state, goals));
+        assertEquals(100, goals[0]);
+        sm.setFactor(null, -1);
+        assertEquals(2, sm.getLegalMoves(state, robot).size());
+    }
+
+    @Test
+    public void testSymmetricStatesShareCanonicalState() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        CompiledPropNet net = CompiledPropNet.compile(OptimizingPropNetFactory.create(desc));
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine(net);
+        MachineState initial = sm.getInitialState();
+        MachineState corner = sm.getNextState(initial, Arrays.asList(Move.create("( mark 1 1 )"), Move.create("noop")));
+        MachineState opposite = sm.getNextState(initial, Arrays.asList(Move.create("( mark 3 3 )"), Move.create("noop")));
+        MachineState centre = sm.getNextState(initial, Arrays.asList(Move.create("( mark 2 2 )"), Move.create("noop")));
+        assertSame(corner, sm.getCanonicalState(corner));
+
+        sm.setSymmetries(PropNetSymmetries.find(net));
+        assertEquals(sm.getCanonicalState(corner), sm.getCanonicalState(opposite));
+        assertEquals(sm.getCanonicalState(corner), sm.getCanonicalState(new MachineState(new HashSet<>(opposite.getContents()))));
+        assertFalse(sm.getCanonicalState(corner).equals(sm.getCanonicalState(centre)));
+        assertEquals(sm.getCanonicalState(centre), centre);
+    }
+
+    @Test
+    public void testZobristHashFollowsState() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        CompiledPropNet net = CompiledPropNet.compile(OptimizingPropNetFactory.create(desc));
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine(net);
+        List<MachineState> seen = new ArrayList<MachineState>();
+        MachineState state = sm.getInitialState();
+        while (!sm.isTerminal(state)) {
+            seen.add(state);
+            state = sm.getNextState(state, sm.getRandomJointMove(state));
+            long[] bases = ((PropNetMachineState) state).getBases();
+            assertEquals(net.getZobristHash(bases), sm.getZobristHash());
+            assertEquals(net.getZobristHash(bases), ((PropNetMachineState) state).getZobristHash());
+        }
+        // Jumping back to earlier states, even as plain GDL, restores their hashes.
+        for (MachineState earlier : seen) {
+            sm.setBaseProps(new MachineState(new HashSet<>(earlier.getContents())));
+            assertEquals(((PropNetMachineState) earlier).getZobristHash(), sm.getZobristHash());
+        }
+    }
+
+    @Test
+    public void testCopiesAreIndependent() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        CompiledPropNet net = CompiledPropNet.compile(OptimizingPropNetFactory.create(desc));
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine(net, LatchAnalysis.analyze(net, new Random(0)));
+        sm.setBaseProps(sm.getInitialState());
+        for (int i = 0; i < 6; i++) {
+            sm.toRandomNextState();
+        }
+        MachineState state = sm.getStateFromBase();
+        List<Move> legals = sm.getLegalMoves(sm.getRoles().get(0));
+
+        CompiledPropNetStateMachine copy = new CompiledPropNetStateMachine(sm);
+        assertEquals(state, copy.getStateFromBase());
+        assertEquals(sm.getZobristHash(), copy.getZobristHash());
+        assertEquals(legals, copy.getLegalMoves(copy.getRoles().get(0)));
+        while (!copy.isTerminal()) {
+            copy.toRandomNextState();
+        }
+        // Playing on the copy leaves the original where it was.
+        assertEquals(state, sm.getStateFromBase());
+        assertEquals(legals, sm.getLegalMoves(sm.getRoles().get(0)));
+        assertAgreesWithProver("connectFour", desc, copy, 3);
+        assertAgreesWithProver("connectFour", desc, sm, 3);
+    }
+
+    @Test
+    public void testSnapshotRestoresState() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        CompiledPropNet net = CompiledPropNet.compile(OptimizingPropNetFactory.create(desc));
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine(net, LatchAnalysis.analyze(net, new Random(0)));
+        CompiledPropNetStateMachine.Snapshot snapshot = sm.newSnapshot();
+        sm.setBaseProps(sm.getInitialState());
+        for (int depth = 0; !sm.isTerminal(); depth++) {
+            sm.saveSnapshot(snapshot);
+            MachineState state = sm.getStateFromBase();
+            long hash = sm.getZobristHash();
+            int numLegals = sm.getNumLegalMoves(sm.getRoles().get(depth % 2));
+            while (!sm.isTerminal()) {
+                sm.toRandomNextState();
+            }
+            sm.restoreSnapshot(snapshot);
+            assertEquals(state, sm.getStateFromBase());
+            assertEquals(hash, sm.getZobristHash());
+            assertFalse(sm.isTerminal());
+            assertEquals(numLegals, sm.getNumLegalMoves(sm.getRoles().get(depth % 2)));
+            sm.toRandomNextState();
+        }
+        assertAgreesWithProver("connectFour", desc, sm, 3);
+    }
+
+    @Test
+    public void testUnmakeMoveRestoresState() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        CompiledPropNet net = CompiledPropNet.compile(OptimizingPropNetFactory.create(desc));
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine(net, LatchAnalysis.analyze(net, new Random(0)));
+        ProverStateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+        Role role = sm.getRoles().get(0);
+        for (int game = 0; game < 5; game++) {
+            sm.setBaseProps(sm.getInitialState());
+            List<MachineState> states = new ArrayList<MachineState>();
+            List<Long> hashes = new ArrayList<Long>();
+            List<List<Move>> legals = new ArrayList<List<Move>>();
+            while (!sm.isTerminal()) {
+                MachineState state = sm.getStateFromBase();
+                states.add(state);
+                hashes.add(sm.getZobristHash());
+                legals.add(sm.getLegalMoves(role));
+                List<Move> joint = sm.getRandomJointMove();
+                sm.makeMove(joint);
+                assertEquals(prover.getNextState(state, joint), sm.getStateFromBase());
+            }
+            assertEquals(states.size(), sm.getUndoDepth());
+            // Take every move back, trying another move on the way up.
+            for (int i = states.size() - 1; i >= 0; i--) {
+                sm.unmakeMove();
+                assertEquals(states.get(i), sm.getStateFromBase());
+                assertEquals(hashes.get(i).longValue(), sm.getZobristHash());
+                assertFalse(sm.isTerminal());
+                assertEquals(legals.get(i), sm.getLegalMoves(role));
+                List<Move> joint = sm.getRandomJointMove();
+                sm.makeMove(joint);
+                assertEquals(prover.getNextState(states.get(i), joint), sm.getStateFromBase());
+                sm.unmakeMove();
+            }
+            assertEquals(0, sm.getUndoDepth());
+        }
+        assertAgreesWithProver("connectFour", desc, sm, 3);
+    }
+
+    @Test
+    public void testPerformRollout() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine();
+        sm.initialize(desc);
+        ProverStateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+        int[] goals = new int[2];
+        int[] proverGoals = new int[2];
+        for (int i = 0; i < 50; i++) {
+            int depth = sm.performRollout(sm.getInitialState(), goals);
+            assertTrue(depth >= 5 && depth <= 9);
+            assertEquals(100, goals[0] + goals[1]);
+        }
+        // The default implementation goes through performDepthCharge.
+        int depth = prover.performRollout(prover.getInitialState(), proverGoals);
+        assertTrue(depth >= 5 && depth <= 9);
+        assertEquals(100, proverGoals[0] + proverGoals[1]);
+        // Rollouts leave the machine usable for ordinary queries.
+        sm.setBaseProps(sm.getInitialState());
+        assertEquals(9, sm.getNumLegalMoves(sm.getRoles().get(0)));
+        assertEquals(1, sm.getNumLegalMoves(sm.getRoles().get(1)));
+        assertEquals(9, sm.getLegalMoves(sm.getInitialState(), sm.getRoles().get(0)).size());
+    }
+
+    /**
+     * Plays random games with the given machine, checking every step against
+     * a ProverStateMachine on the same rules.
+     */
+    static void assertAgreesWithProver(String game, List<Gdl> desc, StateMachine sm, int playouts) throws Exception {
+        ProverStateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+        Random random = new Random(game.hashCode());
+        assertEquals(game, prover.getRoles(), sm.getRoles());
+        for (int i = 0; i < playouts; i++) {
+            MachineState state = prover.getInitialState();
+            assertEquals(game, state, sm.getInitialState());
+            while (!prover.isTerminal(state)) {
+                assertFalse(game, sm.isTerminal(state));
+                List<Move> joint = new java.util.ArrayList<Move>();
+                for (Role role : prover.getRoles()) {
+                    List<Move> legals = prover.getLegalMoves(state, role);
+                    assertEquals(game, new HashSet<Move>(legals), new HashSet<Move>(sm.getLegalMoves(state, role)));
+                    joint.add(legals.get(random.nextInt(legals.size())));
+                }
+                MachineState next = prover.getNextState(state, joint);
+                MachineState smNext = sm.getNextState(state, joint);
+                assertEquals(game, next, smNext);
+                assertEquals(game, smNext, next);
+                assertEquals(game, next.hashCode(), smNext.hashCode());
+                state = next;
+            }
+            assertTrue(game, sm.isTerminal(state));
+            assertEquals(game, prover.getGoals(state), sm.getGoals(state));
+        }
+    }
+}
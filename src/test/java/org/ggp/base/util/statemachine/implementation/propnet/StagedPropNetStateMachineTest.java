@@ -0,0 +1,57 @@
+package org.ggp.base.util.statemachine.implementation.propnet;
+
+import java.io.File;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.compiled.CompiledPropNetCache;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StagedPropNetStateMachineTest extends Assert {
+
+    @Test
+    public void testSwitchesToPropNet() throws Exception {
+        File directory = File.createTempFile("propnet-cache", "");
+        directory.delete();
+        try {
+            List<Gdl> desc = new TestGameRepository().getGame("ticTacToe").getRules();
+            StagedPropNetStateMachine sm = new StagedPropNetStateMachine(new CompiledPropNetCache(directory), 3);
+            sm.initialize(desc);
+
+            // The prover answers while the network is being built, and its
+            // states stay usable after the switch.
+            MachineState state = sm.getInitialState();
+            assertNotNull(sm.awaitNet(System.currentTimeMillis() + 60000));
+            assertTrue(sm.isPropNetReady());
+            assertFalse(sm.hasFailed());
+            assertTrue(sm.getName().contains(new CompiledPropNetStateMachine().getName()));
+
+            ProverStateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+            assertEquals(prover.getInitialState(), sm.getInitialState());
+            while (!prover.isTerminal(state)) {
+                assertFalse(sm.isTerminal(state));
+                for (int r = 0; r < prover.getRoles().size(); r++) {
+                    assertEquals(prover.getLegalMoves(state, prover.getRoles().get(r)).size(), sm.getLegalMoves(state, sm.getRoles().get(r)).size());
+                }
+                List<Move> moves = prover.getRandomJointMove(state);
+                MachineState next = sm.getNextState(state, moves);
+                state = prover.getNextState(state, moves);
+                assertEquals(state, next);
+            }
+            assertEquals(prover.getGoals(state), sm.getGoals(state));
+        } finally {
+            if (directory.listFiles() != null) {
+                for (File file : directory.listFiles()) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+}